@@ -0,0 +1,84 @@
+package com.alehpranovich.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Copies the data files bundled with the main jar into a temporary directory,
+ * the mapped and streaming readers need real files.
+ * {@link #scaled(String, int)} builds bigger ratings and tags files out of the bundled 10k rows.
+ */
+public final class BenchmarkData {
+
+    private static final long USER_ID_RANGE = 1_000_000;
+
+    private static Path directory;
+
+    private BenchmarkData() {
+    }
+
+    public static synchronized Path file(String name) {
+        try {
+            if (directory == null) {
+                directory = Files.createTempDirectory("movielens-benchmarks");
+                directory.toFile().deleteOnExit();
+            }
+            Path file = directory.resolve(name);
+            if (!Files.exists(file)) {
+                try (InputStream resource = BenchmarkData.class.getClassLoader().getResourceAsStream(name)) {
+                    if (resource == null) {
+                        throw new IOException("Resource not found: " + name);
+                    }
+                    Files.copy(resource, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+                file.toFile().deleteOnExit();
+            }
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Repeats the rows of a ratings or tags file {@code factor} times, every copy gets its own range of userIds.
+     */
+    public static synchronized Path scaled(String name, int factor) {
+        if (factor == 1) {
+            return file(name);
+        }
+        Path source = file(name);
+        Path scaled = directory.resolve(factor + "x_" + name);
+        if (Files.exists(scaled)) {
+            return scaled;
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(scaled, StandardCharsets.UTF_8)) {
+            for (int copy = 0; copy < factor; copy++) {
+                try (BufferedReader reader = Files.newBufferedReader(source, StandardCharsets.UTF_8)) {
+                    String header = reader.readLine();
+                    if (copy == 0) {
+                        writer.write(header);
+                        writer.newLine();
+                    }
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        int comma = line.indexOf(',');
+                        writer.write(Long.toString(Long.parseLong(line.substring(0, comma)) + copy * USER_ID_RANGE));
+                        writer.write(line, comma, line.length() - comma);
+                        writer.newLine();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        scaled.toFile().deleteOnExit();
+        return scaled;
+    }
+}
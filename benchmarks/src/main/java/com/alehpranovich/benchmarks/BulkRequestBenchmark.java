@@ -0,0 +1,78 @@
+package com.alehpranovich.benchmarks;
+
+import com.alehpranovich.BulkBuffer;
+import com.alehpranovich.IndexUtil;
+import com.alehpranovich.Movie;
+import com.alehpranovich.MovieSerializer;
+import com.alehpranovich.StringDictionary;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Building the body of one bulk request for {@code movies} joined movies:
+ * the typed {@link BulkRequest} of the Java client and the NDJSON {@link BulkBuffer} of the ingester.
+ * A {@link BulkRequest} only references the documents, they are serialized later by the transport,
+ * see {@link SerializationBenchmark} for that part.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BulkRequestBenchmark {
+
+    private static final byte[] ACTION = "{\"index\":{\"_index\":\"movies\",\"_id\":\"1\"}}\n".getBytes();
+
+    @Param({"100", "1000", "10000"})
+    public int movies;
+
+    private List<Movie> documents;
+    private BulkBuffer buffer;
+
+    @Setup
+    public void setUp() throws IOException {
+        Map<Long, List<Movie.Rating>> ratings = IndexUtil.readRatings(BenchmarkData.file("ratings_10k.csv"));
+        Map<Long, List<Movie.Tag>> tags = IndexUtil.readTags(BenchmarkData.file("tags_10k.csv"));
+        StringDictionary genres = new StringDictionary();
+        documents = IndexUtil.readCSVFile("movies.csv", Movie.MovieRaw.class).stream()
+                .limit(movies)
+                .map(movieRaw -> Movie.fromRaw(movieRaw, genres))
+                .map(movie -> IndexUtil.joinRatingsAndTags(movie, ratings, tags))
+                .collect(Collectors.toList());
+        buffer = new BulkBuffer(1024 * 1024);
+    }
+
+    @Benchmark
+    public BulkRequest bulkRequest() {
+        BulkRequest.Builder br = new BulkRequest.Builder();
+        for (Movie movie : documents) {
+            br.operations(op -> op
+                    .index(idx -> idx
+                            .index("movies")
+                            .id(movie.getMovieId().toString())
+                            .document(movie)
+                    )
+            );
+        }
+        return br.build();
+    }
+
+    @Benchmark
+    public int bulkBuffer() {
+        buffer.reset();
+        for (Movie movie : documents) {
+            buffer.startOperation();
+            buffer.write(ACTION);
+            MovieSerializer.writeMovie(buffer, movie);
+            buffer.write('\n');
+        }
+        return buffer.size();
+    }
+}
@@ -0,0 +1,65 @@
+package com.alehpranovich.benchmarks;
+
+import com.alehpranovich.IndexUtil;
+import com.alehpranovich.Movie;
+import com.alehpranovich.MovieColumnStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ratings and tags parsing with the opencsv reader, the memory-mapped parallel parser and the column store.
+ * {@code scale} repeats the bundled 10k rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CsvParseBenchmark {
+
+    @Param({"1", "10"})
+    public int scale;
+
+    @Param({"4"})
+    public int parallelism;
+
+    private Path ratings;
+    private Path tags;
+
+    @Setup
+    public void setUp() {
+        ratings = BenchmarkData.scaled("ratings_10k.csv", scale);
+        tags = BenchmarkData.scaled("tags_10k.csv", scale);
+    }
+
+    @Benchmark
+    public Map<Long, List<Movie.Rating>> readRatings() throws IOException {
+        return IndexUtil.readRatings(ratings);
+    }
+
+    @Benchmark
+    public Map<Long, List<Movie.Rating>> readRatingsParallel() throws IOException {
+        return IndexUtil.readRatingsParallel(ratings, parallelism);
+    }
+
+    @Benchmark
+    public Map<Long, List<Movie.Tag>> readTags() throws IOException {
+        return IndexUtil.readTags(tags);
+    }
+
+    @Benchmark
+    public Map<Long, List<Movie.Tag>> readTagsParallel() throws IOException {
+        return IndexUtil.readTagsParallel(tags, parallelism);
+    }
+
+    @Benchmark
+    public MovieColumnStore readRatingsAndTags() throws IOException {
+        return IndexUtil.readRatingsAndTags(ratings, tags, parallelism);
+    }
+}
@@ -0,0 +1,126 @@
+package com.alehpranovich.benchmarks;
+
+import com.alehpranovich.IndexUtil;
+import com.alehpranovich.Movie;
+import com.alehpranovich.MovieMapping;
+import com.alehpranovich.MovieSummary;
+import com.alehpranovich.MovieSummaryMapping;
+import com.alehpranovich.StringDictionary;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.json.JsonpDeserializer;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.json.stream.JsonParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+/**
+ * Response mapping of {@code SearchClient}: parsing a search response with {@code hits} joined movies
+ * and collecting {@code hits().stream().map(Hit::source)}. {@code hitsToSources} looks the deserializer up
+ * through the mapper for every hit, the others use the generated deserializers of {@code MovieProjection},
+ * {@code summaryHits} on the response of a search with the {@code _source} includes of {@code SUMMARY}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchResponseBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int hits;
+
+    private JsonpMapper mapper;
+    private JsonpDeserializer<SearchResponse<Movie>> deserializer;
+    private JsonpDeserializer<SearchResponse<Movie>> generatedDeserializer;
+    private JsonpDeserializer<SearchResponse<MovieSummary>> summaryDeserializer;
+    private byte[] response;
+    private byte[] summaryResponse;
+
+    @Setup
+    public void setUp() throws IOException {
+        mapper = new JacksonJsonpMapper();
+        deserializer = SearchResponse.createSearchResponseDeserializer(JsonpDeserializer.of(Movie.class));
+        generatedDeserializer = SearchResponse.createSearchResponseDeserializer(MovieMapping.DESERIALIZER);
+        summaryDeserializer = SearchResponse.createSearchResponseDeserializer(MovieSummaryMapping.DESERIALIZER);
+
+        Map<Long, List<Movie.Rating>> ratings = IndexUtil.readRatings(BenchmarkData.file("ratings_10k.csv"));
+        Map<Long, List<Movie.Tag>> tags = IndexUtil.readTags(BenchmarkData.file("tags_10k.csv"));
+        StringDictionary genres = new StringDictionary();
+        List<Movie> movies = IndexUtil.readCSVFile("movies.csv", Movie.MovieRaw.class).stream()
+                .limit(hits)
+                .map(movieRaw -> Movie.fromRaw(movieRaw, genres))
+                .map(movie -> IndexUtil.joinRatingsAndTags(movie, ratings, tags))
+                .collect(Collectors.toList());
+
+        response = response(movies, (movie, generator) -> mapper.serialize(movie, generator));
+        summaryResponse = response(movies, (movie, generator) -> MovieSummaryMapping.serialize(generator, MovieSummary.builder()
+                .movieId(movie.getMovieId())
+                .title(movie.getTitle())
+                .genres(movie.getGenres())
+                .ratingCount(movie.getRatingCount())
+                .avgRating(movie.getAvgRating())
+                .topTags(movie.getTopTags())
+                .build()));
+    }
+
+    private byte[] response(List<Movie> movies, BiConsumer<Movie, JsonGenerator> source) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonGenerator generator = mapper.jsonProvider().createGenerator(out);
+        generator.writeStartObject()
+                .write("took", 1)
+                .write("timed_out", false)
+                .writeStartObject("_shards").write("total", 1).write("successful", 1).write("failed", 0).writeEnd()
+                .writeStartObject("hits")
+                .writeStartObject("total").write("value", movies.size()).write("relation", "eq").writeEnd()
+                .write("max_score", 1.0)
+                .writeStartArray("hits");
+        for (Movie movie : movies) {
+            generator.writeStartObject()
+                    .write("_index", "movies")
+                    .write("_id", movie.getMovieId().toString())
+                    .write("_score", 1.0)
+                    .writeKey("_source");
+            source.accept(movie, generator);
+            generator.writeEnd();
+        }
+        generator.writeEnd().writeEnd().writeEnd();
+        generator.close();
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public List<Movie> hitsToSources() {
+        JsonParser parser = mapper.jsonProvider().createParser(new ByteArrayInputStream(response));
+        SearchResponse<Movie> searchResponse = deserializer.deserialize(parser, mapper);
+        return searchResponse.hits().hits().stream()
+                .map(Hit::source).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<Movie> generatedHits() {
+        return sources(response, generatedDeserializer);
+    }
+
+    @Benchmark
+    public List<MovieSummary> summaryHits() {
+        return sources(summaryResponse, summaryDeserializer);
+    }
+
+    private <T> List<T> sources(byte[] body, JsonpDeserializer<SearchResponse<T>> responseDeserializer) {
+        JsonParser parser = mapper.jsonProvider().createParser(new ByteArrayInputStream(body));
+        return responseDeserializer.deserialize(parser, mapper).hits().hits().stream()
+                .map(Hit::source).collect(Collectors.toList());
+    }
+}
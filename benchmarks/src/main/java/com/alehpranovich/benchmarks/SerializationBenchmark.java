@@ -0,0 +1,102 @@
+package com.alehpranovich.benchmarks;
+
+import com.alehpranovich.BulkBuffer;
+import com.alehpranovich.IndexUtil;
+import com.alehpranovich.Movie;
+import com.alehpranovich.MovieColumnStore;
+import com.alehpranovich.MovieSerializer;
+import com.alehpranovich.StringDictionary;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.json.stream.JsonGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Bulk source serialization of all movies joined with {@code ratings_10k.csv} and {@code tags_10k.csv}:
+ * reflective Jackson databind, the client's mapper (which calls the generated {@code MovieMapping.serialize},
+ * {@link Movie} is {@code JsonpSerializable}) and {@link MovieSerializer}.
+ * <p>
+ * {@code java -jar benchmarks/target/benchmarks.jar SerializationBenchmark -prof gc}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+
+    private List<Movie> movies;
+    private MovieColumnStore store;
+    private JsonpMapper mapper;
+    private ObjectMapper objectMapper;
+    private ByteArrayOutputStream stream;
+    private BulkBuffer buffer;
+
+    @Setup
+    public void setUp() throws IOException {
+        Map<Long, List<Movie.Rating>> ratings = IndexUtil.readRatings(BenchmarkData.file("ratings_10k.csv"));
+        Map<Long, List<Movie.Tag>> tags = IndexUtil.readTags(BenchmarkData.file("tags_10k.csv"));
+        StringDictionary genres = new StringDictionary();
+        movies = IndexUtil.readCSVFile("movies.csv", Movie.MovieRaw.class).stream()
+                .map(movieRaw -> Movie.fromRaw(movieRaw, genres))
+                .map(movie -> IndexUtil.joinRatingsAndTags(movie, ratings, tags))
+                .collect(Collectors.toList());
+        store = IndexUtil.readRatingsAndTags(BenchmarkData.file("ratings_10k.csv"), BenchmarkData.file("tags_10k.csv"), 1);
+        mapper = new JacksonJsonpMapper();
+        objectMapper = new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        stream = new ByteArrayOutputStream(1024 * 1024);
+        buffer = new BulkBuffer(1024 * 1024);
+    }
+
+    @Benchmark
+    public int jacksonDatabind() throws IOException {
+        stream.reset();
+        for (Movie movie : movies) {
+            objectMapper.writeValue(stream, movie);
+            stream.write('\n');
+        }
+        return stream.size();
+    }
+
+    @Benchmark
+    public int jacksonMapper() {
+        stream.reset();
+        for (Movie movie : movies) {
+            JsonGenerator generator = mapper.jsonProvider().createGenerator(stream);
+            mapper.serialize(movie, generator);
+            generator.close();
+            stream.write('\n');
+        }
+        return stream.size();
+    }
+
+    @Benchmark
+    public int movieSerializer() {
+        buffer.reset();
+        for (Movie movie : movies) {
+            MovieSerializer.writeMovie(buffer, movie);
+            buffer.write('\n');
+        }
+        return buffer.size();
+    }
+
+    @Benchmark
+    public int movieSerializerFromColumnStore() {
+        buffer.reset();
+        for (Movie movie : movies) {
+            MovieSerializer.writeMovie(buffer, movie, store);
+            buffer.write('\n');
+        }
+        return buffer.size();
+    }
+}
@@ -0,0 +1,55 @@
+package com.alehpranovich.benchmarks;
+
+import com.alehpranovich.IndexUtil;
+import com.alehpranovich.Movie;
+import com.alehpranovich.StringDictionary;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * {@code movies.csv}: bean parsing with {@code readCSVFile} and {@code streamCSVFile},
+ * and the {@code MovieRaw -> Movie} mapping of all rows, mostly the genre split.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransformBenchmark {
+
+    private Path movies;
+    private List<Movie.MovieRaw> moviesRaw;
+
+    @Setup
+    public void setUp() throws IOException {
+        movies = BenchmarkData.file("movies.csv");
+        moviesRaw = IndexUtil.readCSVFile("movies.csv", Movie.MovieRaw.class);
+    }
+
+    @Benchmark
+    public List<Movie.MovieRaw> readCSVFile() throws IOException {
+        return IndexUtil.readCSVFile("movies.csv", Movie.MovieRaw.class);
+    }
+
+    @Benchmark
+    public long streamCSVFile() throws IOException {
+        try (Stream<Movie.MovieRaw> rows = IndexUtil.streamCSVFile(movies, Movie.MovieRaw.class)) {
+            return rows.count();
+        }
+    }
+
+    @Benchmark
+    public List<Movie> fromRaw() {
+        StringDictionary genres = new StringDictionary();
+        return moviesRaw.stream()
+                .map(movieRaw -> Movie.fromRaw(movieRaw, genres))
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,49 @@
+package com.alehpranovich;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Elasticsearch type of a field of a {@link MappedType} class. A {@code List} field maps its elements.
+ * <pre>
+ * &#64;MappedField(FieldType.KEYWORD)
+ * private List&lt;String&gt; genres;
+ * </pre>
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.FIELD)
+public @interface MappedField {
+
+    FieldType value();
+
+    /**
+     * {@code false} keeps the field in {@code _source} and doc values, but not searchable.
+     */
+    boolean index() default true;
+
+    enum FieldType {
+        /**
+         * {@code long} and {@code Long}.
+         */
+        LONG,
+        /**
+         * {@code int} and {@code Integer}.
+         */
+        INTEGER,
+        /**
+         * {@code double} and {@code Double}.
+         */
+        DOUBLE,
+        KEYWORD,
+        TEXT,
+        /**
+         * A {@link MappedType} class, or a list of them indexed as separate hidden documents.
+         */
+        NESTED,
+        OBJECT
+    }
+}
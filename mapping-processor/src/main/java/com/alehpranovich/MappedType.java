@@ -0,0 +1,18 @@
+package com.alehpranovich;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a document class whose index mapping and JSON reader and writers are generated at compile time
+ * by {@link MappingProcessor}, into {@code <Name>Mapping} of the same package ({@code MovieRatingMapping}
+ * for {@code Movie.Rating}). Every instance field has to be annotated with {@link MappedField}.
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface MappedType {
+}
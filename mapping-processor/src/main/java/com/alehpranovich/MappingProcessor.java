@@ -0,0 +1,538 @@
+package com.alehpranovich;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Generates {@code <Name>Mapping} for every {@link MappedType} class, with
+ * <ul>
+ * <li>{@code properties()} - the index mapping, one property per {@link MappedField}</li>
+ * <li>{@code FIELDS} - the field names</li>
+ * <li>{@code <FIELD>_KEY} - the field names as JSON keys</li>
+ * <li>{@code write(BulkBuffer, T)} - bulk source writer, see {@code JsonBytes}</li>
+ * <li>{@code serialize(JsonGenerator, T)} and {@code DESERIALIZER} - used by the client's JSON mapper
+ * through {@code JsonpSerializable} and {@code JsonpDeserializable}</li>
+ * </ul>
+ * Fields are written in declaration order and skipped when {@code null}, like Jackson does for the Lombok getters.
+ * <p>
+ * The processor is its own artifact, the main build runs it from {@code annotationProcessorPaths} next to Lombok,
+ * so it is not part of the application jar.
+ */
+@SupportedAnnotationTypes("com.alehpranovich.MappedType")
+public class MappingProcessor extends AbstractProcessor {
+
+    private enum Kind {
+        LONG, INTEGER, DOUBLE, STRING, OBJECT
+    }
+
+    private static final class Field {
+        private String name;
+        private MappedField.FieldType fieldType;
+        private boolean index;
+        private Kind kind;
+        private boolean list;
+        private boolean primitive;
+        /**
+         * Element type as written in the generated source, e.g. {@code Long} or {@code Movie.Rating}.
+         */
+        private String javaType;
+        private String mappingClass;
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+        for (Element element : round.getElementsAnnotatedWith(MappedType.class)) {
+            TypeElement type = (TypeElement) element;
+            if (type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC)) {
+                error(type, "@MappedType classes have to be top level or static");
+                continue;
+            }
+            List<Field> fields = fields(type);
+            if (fields == null) {
+                continue;
+            }
+            try {
+                generate(type, fields);
+            } catch (IOException e) {
+                error(type, "Cannot generate " + mappingClass(type) + ": " + e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return {@code null} if some field cannot be mapped, the errors are reported
+     */
+    private List<Field> fields(TypeElement type) {
+        List<Field> fields = new ArrayList<>();
+        boolean valid = true;
+        for (Element member : type.getEnclosedElements()) {
+            if (member.getKind() != ElementKind.FIELD
+                    || member.getModifiers().contains(Modifier.STATIC)
+                    || member.getModifiers().contains(Modifier.TRANSIENT)) {
+                continue;
+            }
+            VariableElement variable = (VariableElement) member;
+            MappedField annotation = variable.getAnnotation(MappedField.class);
+            if (annotation == null) {
+                error(variable, "Field of a @MappedType class without @MappedField");
+                valid = false;
+                continue;
+            }
+            Field field = field(variable, annotation);
+            if (field == null) {
+                valid = false;
+                continue;
+            }
+            fields.add(field);
+        }
+        return valid ? fields : null;
+    }
+
+    private Field field(VariableElement variable, MappedField annotation) {
+        Field field = new Field();
+        field.name = variable.getSimpleName().toString();
+        field.fieldType = annotation.value();
+        field.index = annotation.index();
+
+        TypeMirror type = variable.asType();
+        if (type instanceof DeclaredType && qualifiedName(type).equals("java.util.List")) {
+            List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+            if (arguments.size() != 1) {
+                error(variable, "Raw List fields cannot be mapped");
+                return null;
+            }
+            field.list = true;
+            type = arguments.get(0);
+        }
+
+        switch (type.getKind()) {
+            case LONG:
+                field.kind = Kind.LONG;
+                break;
+            case INT:
+                field.kind = Kind.INTEGER;
+                break;
+            case DOUBLE:
+                field.kind = Kind.DOUBLE;
+                break;
+            case DECLARED:
+                field.kind = declaredKind(type);
+                break;
+            default:
+                field.kind = null;
+        }
+        if (field.kind == null) {
+            error(variable, "Type " + type + " cannot be mapped, supported are long, int, double, their wrappers, "
+                    + "String, @MappedType classes and Lists of them");
+            return null;
+        }
+        field.primitive = type.getKind().isPrimitive();
+        if (field.kind == Kind.OBJECT) {
+            TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+            field.javaType = typeName(element);
+            field.mappingClass = mappingClass(element);
+        } else {
+            field.javaType = field.primitive ? type.toString() : ((DeclaredType) type).asElement().getSimpleName().toString();
+        }
+
+        if (!compatible(field.fieldType, field.kind)) {
+            error(variable, field.fieldType + " cannot be mapped from " + type);
+            return null;
+        }
+        if (!field.index && field.kind == Kind.OBJECT) {
+            error(variable, "index = false is not supported for " + field.fieldType);
+            return null;
+        }
+        return field;
+    }
+
+    private static Kind declaredKind(TypeMirror type) {
+        switch (qualifiedName(type)) {
+            case "java.lang.Long":
+                return Kind.LONG;
+            case "java.lang.Integer":
+                return Kind.INTEGER;
+            case "java.lang.Double":
+                return Kind.DOUBLE;
+            case "java.lang.String":
+                return Kind.STRING;
+            default:
+                return ((DeclaredType) type).asElement().getAnnotation(MappedType.class) != null ? Kind.OBJECT : null;
+        }
+    }
+
+    private static boolean compatible(MappedField.FieldType fieldType, Kind kind) {
+        switch (fieldType) {
+            case LONG:
+                return kind == Kind.LONG;
+            case INTEGER:
+                return kind == Kind.INTEGER;
+            case DOUBLE:
+                return kind == Kind.DOUBLE;
+            case KEYWORD:
+            case TEXT:
+                return kind == Kind.STRING;
+            default:
+                return kind == Kind.OBJECT;
+        }
+    }
+
+    private void generate(TypeElement type, List<Field> fields) throws IOException {
+        String packageName = ((PackageElement) packageOf(type)).getQualifiedName().toString();
+        String className = mappingClass(type);
+        String typeName = typeName(type);
+        String qualifiedClassName = packageName.isEmpty() ? className : packageName + "." + className;
+
+        try (Writer writer = processingEnv.getFiler().createSourceFile(qualifiedClassName, type).openWriter();
+             PrintWriter out = new PrintWriter(writer)) {
+            if (!packageName.isEmpty()) {
+                out.println("package " + packageName + ";");
+                out.println();
+            }
+            out.println("import co.elastic.clients.elasticsearch._types.mapping.Property;");
+            out.println("import co.elastic.clients.json.JsonpDeserializer;");
+            out.println("import co.elastic.clients.json.JsonpDeserializerBase;");
+            out.println("import co.elastic.clients.json.JsonpMapper;");
+            out.println("import co.elastic.clients.json.JsonpUtils;");
+            out.println("import com.alehpranovich.BulkBuffer;");
+            out.println("import com.alehpranovich.JsonBytes;");
+            out.println("import com.alehpranovich.JsonValues;");
+            out.println("import jakarta.json.stream.JsonGenerator;");
+            out.println("import jakarta.json.stream.JsonParser;");
+            out.println();
+            out.println("import java.util.Arrays;");
+            out.println("import java.util.Collections;");
+            out.println("import java.util.EnumSet;");
+            out.println("import java.util.LinkedHashMap;");
+            out.println("import java.util.List;");
+            out.println("import java.util.Map;");
+            out.println();
+            out.println("/**");
+            out.println(" * Mapping, bulk writer and JSON serializer and deserializer of {@link " + typeName + "},");
+            out.println(" * generated by {@link com.alehpranovich.MappingProcessor} from its annotations, do not edit.");
+            out.println(" */");
+            out.println("public final class " + className + " {");
+            out.println();
+            out.println("    /**");
+            out.println("     * Field names as JSON keys, {@code \"name\":}, also used by hand-written writers of the same fields.");
+            out.println("     * Do not modify the arrays.");
+            out.println("     */");
+            for (Field field : fields) {
+                out.println("    public static final byte[] " + keyConstant(field) + " = JsonBytes.ascii(\"\\\"" + field.name + "\\\":\");");
+            }
+            out.println();
+            out.println("    private static final byte[] NULL = JsonBytes.ascii(\"null\");");
+            out.println();
+            out.println("    /**");
+            out.println("     * Field names in declaration order, e.g. for {@code _source} includes.");
+            out.println("     */");
+            StringBuilder names = new StringBuilder();
+            for (Field field : fields) {
+                names.append(names.length() == 0 ? "" : ", ").append('"').append(field.name).append('"');
+            }
+            out.println("    public static final List<String> FIELDS = Collections.unmodifiableList(Arrays.asList(" + names + "));");
+            out.println();
+            out.println("    public static final JsonpDeserializer<" + typeName + "> DESERIALIZER =");
+            out.println("            new JsonpDeserializerBase<" + typeName + ">(EnumSet.of(JsonParser.Event.START_OBJECT)) {");
+            out.println("                @Override");
+            out.println("                public " + typeName + " deserialize(JsonParser parser, JsonpMapper mapper, JsonParser.Event event) {");
+            out.println("                    return read(parser, event);");
+            out.println("                }");
+            out.println("            };");
+            out.println();
+            out.println("    private " + className + "() {");
+            out.println("    }");
+            out.println();
+            writeProperties(out, fields);
+            writeBulkWriter(out, typeName, fields);
+            writeSerializer(out, typeName, fields);
+            writeReader(out, typeName, fields);
+            out.println("}");
+        }
+    }
+
+    private static void writeProperties(PrintWriter out, List<Field> fields) {
+        out.println("    public static Map<String, Property> properties() {");
+        out.println("        Map<String, Property> properties = new LinkedHashMap<>();");
+        for (Field field : fields) {
+            String options = field.index ? "v -> v" : "v -> v.index(false)";
+            String property;
+            switch (field.fieldType) {
+                case LONG:
+                    property = "p.long_(" + options + ")";
+                    break;
+                case INTEGER:
+                    property = "p.integer(" + options + ")";
+                    break;
+                case DOUBLE:
+                    property = "p.double_(" + options + ")";
+                    break;
+                case KEYWORD:
+                    property = "p.keyword(" + options + ")";
+                    break;
+                case TEXT:
+                    property = "p.text(" + options + ")";
+                    break;
+                case NESTED:
+                    property = "p.nested(v -> v.properties(" + field.mappingClass + ".properties()))";
+                    break;
+                default:
+                    property = "p.object(v -> v.properties(" + field.mappingClass + ".properties()))";
+            }
+            out.println("        properties.put(\"" + field.name + "\", Property.of(p -> " + property + "));");
+        }
+        out.println("        return properties;");
+        out.println("    }");
+        out.println();
+    }
+
+    private static void writeBulkWriter(PrintWriter out, String typeName, List<Field> fields) {
+        out.println("    public static void write(BulkBuffer out, " + typeName + " value) {");
+        out.println("        out.write('{');");
+        out.println("        boolean next = false;");
+        for (Field field : fields) {
+            String indent = field.primitive ? "        " : "            ";
+            out.println("        " + declaredType(field) + " " + field.name + " = value." + getter(field) + "();");
+            if (!field.primitive) {
+                out.println("        if (" + field.name + " != null) {");
+            }
+            out.println(indent + "if (next) {");
+            out.println(indent + "    out.write(',');");
+            out.println(indent + "}");
+            out.println(indent + "out.write(" + keyConstant(field) + ");");
+            if (field.list) {
+                out.println(indent + "out.write('[');");
+                out.println(indent + "for (int i = 0; i < " + field.name + ".size(); i++) {");
+                out.println(indent + "    if (i > 0) {");
+                out.println(indent + "        out.write(',');");
+                out.println(indent + "    }");
+                out.println(indent + "    " + field.javaType + " element = " + field.name + ".get(i);");
+                out.println(indent + "    if (element == null) {");
+                out.println(indent + "        out.write(NULL);");
+                out.println(indent + "    } else {");
+                out.println(indent + "        " + bulkValue(field, "element") + ";");
+                out.println(indent + "    }");
+                out.println(indent + "}");
+                out.println(indent + "out.write(']');");
+            } else {
+                out.println(indent + bulkValue(field, field.name) + ";");
+            }
+            out.println(indent + "next = true;");
+            if (!field.primitive) {
+                out.println("        }");
+            }
+        }
+        out.println("        out.write('}');");
+        out.println("    }");
+        out.println();
+    }
+
+    private static String bulkValue(Field field, String value) {
+        switch (field.kind) {
+            case LONG:
+            case INTEGER:
+                return "JsonBytes.writeLong(out, " + value + ")";
+            case DOUBLE:
+                return "JsonBytes.writeDouble(out, " + value + ")";
+            case STRING:
+                return "JsonBytes.writeString(out, " + value + ")";
+            default:
+                return field.mappingClass + ".write(out, " + value + ")";
+        }
+    }
+
+    private static void writeSerializer(PrintWriter out, String typeName, List<Field> fields) {
+        out.println("    public static void serialize(JsonGenerator generator, " + typeName + " value) {");
+        out.println("        generator.writeStartObject();");
+        for (Field field : fields) {
+            String indent = field.primitive ? "        " : "            ";
+            out.println("        " + declaredType(field) + " " + field.name + " = value." + getter(field) + "();");
+            if (!field.primitive) {
+                out.println("        if (" + field.name + " != null) {");
+            }
+            if (field.list) {
+                out.println(indent + "generator.writeStartArray(\"" + field.name + "\");");
+                out.println(indent + "for (" + field.javaType + " element : " + field.name + ") {");
+                out.println(indent + "    if (element == null) {");
+                out.println(indent + "        generator.writeNull();");
+                out.println(indent + "    } else {");
+                out.println(indent + "        " + generatorValue(field, "element") + ";");
+                out.println(indent + "    }");
+                out.println(indent + "}");
+                out.println(indent + "generator.writeEnd();");
+            } else if (field.kind == Kind.OBJECT) {
+                out.println(indent + "generator.writeKey(\"" + field.name + "\");");
+                out.println(indent + generatorValue(field, field.name) + ";");
+            } else {
+                out.println(indent + "generator.write(\"" + field.name + "\", " + field.name + ");");
+            }
+            if (!field.primitive) {
+                out.println("        }");
+            }
+        }
+        out.println("        generator.writeEnd();");
+        out.println("    }");
+        out.println();
+    }
+
+    private static String generatorValue(Field field, String value) {
+        return field.kind == Kind.OBJECT
+                ? field.mappingClass + ".serialize(generator, " + value + ")"
+                : "generator.write(" + value + ")";
+    }
+
+    private static void writeReader(PrintWriter out, String typeName, List<Field> fields) {
+        out.println("    /**");
+        out.println("     * Reads an object whose {@code START_OBJECT} event was already returned by {@code parser},");
+        out.println("     * unknown fields are skipped.");
+        out.println("     *");
+        out.println("     * @return {@code null} for a {@code VALUE_NULL} event");
+        out.println("     */");
+        out.println("    public static " + typeName + " read(JsonParser parser, JsonParser.Event event) {");
+        out.println("        if (!JsonValues.startObject(parser, event)) {");
+        out.println("            return null;");
+        out.println("        }");
+        out.println("        " + typeName + " value = new " + typeName + "();");
+        out.println("        while ((event = parser.next()) == JsonParser.Event.KEY_NAME) {");
+        out.println("            switch (parser.getString()) {");
+        for (Field field : fields) {
+            String reader = readerReference(field);
+            String read = field.list
+                    ? "JsonValues.readList(parser, parser.next(), " + reader + ")"
+                    : reader.replace("::", ".") + "(parser, parser.next())";
+            out.println("                case \"" + field.name + "\":");
+            if (field.primitive) {
+                out.println("                    " + boxedType(field) + " " + field.name + " = " + read + ";");
+                out.println("                    if (" + field.name + " != null) {");
+                out.println("                        value." + setter(field) + "(" + field.name + ");");
+                out.println("                    }");
+            } else {
+                out.println("                    value." + setter(field) + "(" + read + ");");
+            }
+            out.println("                    break;");
+        }
+        out.println("                default:");
+        out.println("                    JsonpUtils.skipValue(parser);");
+        out.println("            }");
+        out.println("        }");
+        out.println("        JsonpUtils.expectEvent(parser, JsonParser.Event.END_OBJECT, event);");
+        out.println("        return value;");
+        out.println("    }");
+    }
+
+    private static String readerReference(Field field) {
+        switch (field.kind) {
+            case LONG:
+                return "JsonValues::readLong";
+            case INTEGER:
+                return "JsonValues::readInteger";
+            case DOUBLE:
+                return "JsonValues::readDouble";
+            case STRING:
+                return "JsonValues::readString";
+            default:
+                return field.mappingClass + "::read";
+        }
+    }
+
+    /**
+     * Type of a local variable holding the field.
+     */
+    private static String declaredType(Field field) {
+        if (field.list) {
+            return "List<" + field.javaType + ">";
+        }
+        return field.javaType;
+    }
+
+    private static String boxedType(Field field) {
+        switch (field.kind) {
+            case LONG:
+                return "Long";
+            case INTEGER:
+                return "Integer";
+            default:
+                return "Double";
+        }
+    }
+
+    private static String getter(Field field) {
+        return "get" + capitalize(field.name);
+    }
+
+    private static String setter(Field field) {
+        return "set" + capitalize(field.name);
+    }
+
+    private static String capitalize(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    /**
+     * {@code ratingCount} becomes {@code RATING_COUNT_KEY}.
+     */
+    private static String keyConstant(Field field) {
+        StringBuilder constant = new StringBuilder();
+        for (char c : field.name.toCharArray()) {
+            if (Character.isUpperCase(c) && constant.length() > 0) {
+                constant.append('_');
+            }
+            constant.append(Character.toUpperCase(c));
+        }
+        return constant.append("_KEY").toString();
+    }
+
+    private static String qualifiedName(TypeMirror type) {
+        return ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString();
+    }
+
+    private static Element packageOf(Element element) {
+        while (element.getKind() != ElementKind.PACKAGE) {
+            element = element.getEnclosingElement();
+        }
+        return element;
+    }
+
+    /**
+     * Name relative to the package, {@code Movie.Rating}.
+     */
+    private static String typeName(TypeElement type) {
+        String name = type.getSimpleName().toString();
+        for (Element outer = type.getEnclosingElement(); outer.getKind() != ElementKind.PACKAGE; outer = outer.getEnclosingElement()) {
+            name = outer.getSimpleName() + "." + name;
+        }
+        return name;
+    }
+
+    private static String mappingClass(TypeElement type) {
+        return typeName(type).replace(".", "") + "Mapping";
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
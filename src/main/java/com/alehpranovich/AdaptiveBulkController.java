@@ -0,0 +1,124 @@
+package com.alehpranovich;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sizes the bulk requests of a {@link BulkIngester} and the number of them in flight from what the cluster answers,
+ * so one configuration fits a laptop node and a production cluster.
+ * <p>
+ * Responses are collected in epochs of as many responses as requests may be in flight, then the epoch decides
+ * (additive increase, multiplicative decrease):
+ * <ul>
+ * <li>a 429, of the whole request or of single items: half the concurrency, or half the batch size
+ * once a single request is in flight</li>
+ * <li>mean latency above {@code targetLatencyMillis}: the batch shrinks in proportion, by half at most</li>
+ * <li>mean latency below 80% of the target: the batch doubles until the first decrease and grows by
+ * a twentieth of {@code maxOperations} after that. Once it is at {@code maxOperations}, or requests are
+ * already cut at {@code maxBytes}, one more request may be in flight instead, up to {@code maxConcurrency}.</li>
+ * </ul>
+ * Starts with one request of at most 100 operations in flight. The current values are registered as
+ * {@code <name>.batchOperations} and {@code <name>.concurrency} gauges by {@link BulkIngester}.
+ */
+public class AdaptiveBulkController {
+
+    public static final int INITIAL_OPERATIONS = 100;
+
+    private static final double INCREASE_BELOW = 0.8;
+    private static final double MAX_DECREASE = 0.5;
+
+    private final int maxOperations;
+    private final long maxBytes;
+    private final int maxConcurrency;
+    private final long targetLatencyNanos;
+    private final int increaseStep;
+
+    private volatile int operations;
+    private volatile int concurrency = 1;
+    private boolean slowStart = true;
+
+    private int responses;
+    private int rejections;
+    private int cutAtMaxBytes;
+    private int latencySamples;
+    private long latencySumNanos;
+
+    public AdaptiveBulkController(int maxOperations, long maxBytes, int maxConcurrency, long targetLatencyMillis) {
+        this.maxOperations = maxOperations;
+        this.maxBytes = maxBytes;
+        this.maxConcurrency = maxConcurrency;
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.increaseStep = Math.max(1, maxOperations / 20);
+        this.operations = Math.min(maxOperations, INITIAL_OPERATIONS);
+    }
+
+    /**
+     * Operations a request is sent with.
+     */
+    public int operations() {
+        return operations;
+    }
+
+    /**
+     * Requests allowed in flight.
+     */
+    public int concurrency() {
+        return concurrency;
+    }
+
+    /**
+     * A bulk response arrived.
+     *
+     * @param rejectedItems items answered with 429
+     */
+    public synchronized void completed(int requestOperations, long requestBytes, long latencyNanos, int rejectedItems) {
+        latencySamples++;
+        latencySumNanos += latencyNanos;
+        if (requestBytes >= maxBytes) {
+            cutAtMaxBytes++;
+        }
+        if (rejectedItems > 0) {
+            rejections++;
+        }
+        responded();
+    }
+
+    /**
+     * The whole bulk request was answered with 429.
+     */
+    public synchronized void rejected() {
+        rejections++;
+        responded();
+    }
+
+    private void responded() {
+        if (++responses < concurrency) {
+            return;
+        }
+        if (rejections > 0) {
+            slowStart = false;
+            if (concurrency > 1) {
+                concurrency = Math.max(1, concurrency / 2);
+            } else {
+                operations = Math.max(1, operations / 2);
+            }
+        } else if (latencySamples > 0) {
+            long meanLatencyNanos = latencySumNanos / latencySamples;
+            if (meanLatencyNanos > targetLatencyNanos) {
+                slowStart = false;
+                double factor = Math.max(MAX_DECREASE, (double) targetLatencyNanos / meanLatencyNanos);
+                operations = Math.max(1, (int) (operations * factor));
+            } else if (meanLatencyNanos < targetLatencyNanos * INCREASE_BELOW) {
+                if (operations < maxOperations && cutAtMaxBytes == 0) {
+                    operations = Math.min(maxOperations, slowStart ? operations * 2 : operations + increaseStep);
+                } else if (concurrency < maxConcurrency) {
+                    concurrency++;
+                }
+            }
+        }
+        responses = 0;
+        rejections = 0;
+        cutAtMaxBytes = 0;
+        latencySamples = 0;
+        latencySumNanos = 0;
+    }
+}
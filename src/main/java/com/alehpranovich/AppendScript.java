@@ -0,0 +1,145 @@
+package com.alehpranovich;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+
+import java.io.IOException;
+
+import static com.alehpranovich.JsonBytes.ascii;
+
+/**
+ * Stored painless script appending a batch of ratings and tags to a movie, used by
+ * {@link IndexUtil#indexRatings(BulkIngester, java.nio.file.Path, String, int)} and {@link DeltaIngest}.
+ * <p>
+ * Every update carries all the buffered rows of one movie, so Elasticsearch rewrites the document (with its
+ * whole nested block) once per movie instead of once per row. Missing movies are created by a scripted upsert.
+ * The {@link MovieAggregates} fields are updated with the appended rows: rating statistics incrementally,
+ * top tags recounted over all tags of the movie.
+ * <p>
+ * {@link DeltaIngest} also sends the end offset of the rows in their file ({@code ratingsOffset}, {@code tagsOffset})
+ * with the name of the file ({@code ratingsFile}, {@code tagsFile}). The document keeps both, and an update whose
+ * offset is not past the stored one of the same file is a replay and turns into a no-op. Rows of another file,
+ * e.g. the next daily delta, are always appended. Updates without offsets are always appended as well.
+ */
+public final class AppendScript {
+
+    public static final String ID = "movie-append-ratings-tags";
+
+    private static final String SOURCE = ""
+            + "if (ctx._source.ratings == null) { ctx._source.ratings = []; }"
+            + "if (ctx._source.tags == null) { ctx._source.tags = []; }"
+            + "boolean changed = false;"
+            + "if (params.ratingsOffset == null || ctx._source.ratingsOffset == null"
+            + "    || ctx._source.ratingsFile != params.ratingsFile"
+            + "    || ctx._source.ratingsOffset < params.ratingsOffset) {"
+            + "  if (!params.ratings.isEmpty()) {"
+            + "    ctx._source.ratings.addAll(params.ratings);"
+            + "    long count = ctx._source.ratingCount == null ? 0L : ctx._source.ratingCount;"
+            + "    double sum = ctx._source.ratingSum == null ? 0.0 : ctx._source.ratingSum;"
+            + "    if (ctx._source.ratingHistogram == null) {"
+            + "      ctx._source.ratingHistogram = [0, 0, 0, 0, 0, 0, 0, 0, 0, 0];"
+            + "    }"
+            + "    for (def r : params.ratings) {"
+            + "      double value = r.rating;"
+            + "      count++;"
+            + "      sum += value;"
+            + "      int bucket = (int) Math.max(0L, Math.min(9L, Math.round(value * 2) - 1));"
+            + "      ctx._source.ratingHistogram[bucket] += 1;"
+            + "    }"
+            + "    ctx._source.ratingCount = count;"
+            + "    ctx._source.ratingSum = sum;"
+            + "    ctx._source.avgRating = sum / count;"
+            + "    changed = true;"
+            + "  }"
+            + "  if (params.ratingsOffset != null) {"
+            + "    ctx._source.ratingsOffset = params.ratingsOffset;"
+            + "    ctx._source.ratingsFile = params.ratingsFile;"
+            + "    changed = true;"
+            + "  }"
+            + "}"
+            + "if (params.tagsOffset == null || ctx._source.tagsOffset == null"
+            + "    || ctx._source.tagsFile != params.tagsFile || ctx._source.tagsOffset < params.tagsOffset) {"
+            + "  if (!params.tags.isEmpty()) {"
+            + "    ctx._source.tags.addAll(params.tags);"
+            + "    Map counts = new LinkedHashMap();"
+            + "    for (def t : ctx._source.tags) { counts.put(t.tag, counts.getOrDefault(t.tag, 0) + 1); }"
+            + "    List names = new ArrayList(counts.keySet());"
+            + "    names.sort((a, b) -> counts.get(b) - counts.get(a));"
+            + "    ctx._source.topTags = new ArrayList(names.subList(0,"
+            + "        Math.min(" + MovieAggregates.TOP_TAGS + ", names.size())));"
+            + "    changed = true;"
+            + "  }"
+            + "  if (params.tagsOffset != null) {"
+            + "    ctx._source.tagsOffset = params.tagsOffset;"
+            + "    ctx._source.tagsFile = params.tagsFile;"
+            + "    changed = true;"
+            + "  }"
+            + "}"
+            + "if (!changed) { ctx.op = 'noop'; }";
+
+    private static final byte[] UPDATE_START = ascii("{\"script\":{\"id\":\"" + ID + "\",\"params\":{\"ratings\":[");
+    private static final byte[] TAGS = ascii("],\"tags\":[");
+    private static final byte[] RATINGS_OFFSET = ascii(",\"ratingsOffset\":");
+    private static final byte[] TAGS_OFFSET = ascii(",\"tagsOffset\":");
+    private static final byte[] RATINGS_FILE = ascii(",\"ratingsFile\":");
+    private static final byte[] TAGS_FILE = ascii(",\"tagsFile\":");
+    private static final byte[] UPSERT = ascii("}},\"scripted_upsert\":true,\"upsert\":{\"movieId\":");
+
+    private AppendScript() {
+    }
+
+    /**
+     * Stores (or replaces) the script, has to be called before updates referencing it are sent.
+     */
+    public static void store(ElasticsearchClient client) throws IOException {
+        client.putScript(r -> r
+                .id(ID)
+                .script(s -> s
+                        .lang("painless")
+                        .source(SOURCE)));
+    }
+
+    /**
+     * Appends the rows without offsets, a replay appends them again.
+     */
+    public static void writeUpdate(BulkBuffer out, MovieColumnStore rows, long movieId) {
+        writeUpdate(out, rows, movieId, null, -1, null, -1);
+    }
+
+    /**
+     * <pre>
+     * {"script": {"id": "movie-append-ratings-tags",
+     *             "params": {"ratings": [...], "tags": [...], "ratingsOffset": 1024, "ratingsFile": "ratings.csv",
+     *                        "tagsOffset": 512, "tagsFile": "tags.csv"}},
+     *  "scripted_upsert": true, "upsert": {"movieId": 1}}
+     * </pre>
+     *
+     * @param ratingsFile   name of the ratings file, the offsets of different files are not compared
+     * @param ratingsOffset end offset of the rows in the ratings file, left out when negative
+     * @param tagsFile      name of the tags file
+     * @param tagsOffset    end offset of the rows in the tags file, left out when negative
+     */
+    public static void writeUpdate(BulkBuffer out, MovieColumnStore rows, long movieId,
+                                   String ratingsFile, long ratingsOffset, String tagsFile, long tagsOffset) {
+        out.write(UPDATE_START);
+        rows.writeRatings(movieId, out);
+        out.write(TAGS);
+        rows.writeTags(movieId, out);
+        out.write(']');
+        if (ratingsOffset >= 0) {
+            out.write(RATINGS_OFFSET);
+            JsonBytes.writeLong(out, ratingsOffset);
+            out.write(RATINGS_FILE);
+            JsonBytes.writeString(out, ratingsFile);
+        }
+        if (tagsOffset >= 0) {
+            out.write(TAGS_OFFSET);
+            JsonBytes.writeLong(out, tagsOffset);
+            out.write(TAGS_FILE);
+            JsonBytes.writeString(out, tagsFile);
+        }
+        out.write(UPSERT);
+        JsonBytes.writeLong(out, movieId);
+        out.write('}');
+        out.write('}');
+    }
+}
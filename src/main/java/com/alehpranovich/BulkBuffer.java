@@ -0,0 +1,92 @@
+package com.alehpranovich;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Growable NDJSON body of a single {@code _bulk} request.
+ * Remembers where every operation starts, so failed operations can be copied into a retry request.
+ */
+public class BulkBuffer extends OutputStream {
+
+    private byte[] bytes;
+    private int size;
+    private int[] offsets = new int[64];
+    private int operations;
+
+    public BulkBuffer(int initialCapacity) {
+        this.bytes = new byte[initialCapacity];
+    }
+
+    /**
+     * Marks the current position as the start of the next operation (action line plus optional source line).
+     */
+    public void startOperation() {
+        if (operations == offsets.length) {
+            offsets = Arrays.copyOf(offsets, operations * 2);
+        }
+        offsets[operations++] = size;
+    }
+
+    /**
+     * Appends operation {@code operation} of {@code source} to this buffer.
+     */
+    public void copyOperation(BulkBuffer source, int operation) {
+        int from = source.offsets[operation];
+        int to = operation + 1 < source.operations ? source.offsets[operation + 1] : source.size;
+        startOperation();
+        write(source.bytes, from, to - from);
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(size + 1);
+        bytes[size++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b) {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(size + len);
+        System.arraycopy(b, off, bytes, size, len);
+        size += len;
+    }
+
+    /**
+     * Advances the size after bytes were written directly into {@link #bytes()}.
+     */
+    public void skip(int length) {
+        size += length;
+    }
+
+    public void reset() {
+        size = 0;
+        operations = 0;
+    }
+
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int operations() {
+        return operations;
+    }
+
+    public boolean isEmpty() {
+        return operations == 0;
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+        }
+    }
+}
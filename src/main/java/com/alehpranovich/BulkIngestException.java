@@ -0,0 +1,27 @@
+package com.alehpranovich;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Thrown by {@link BulkIngester#close()} when some operations could not be indexed, even after retries.
+ */
+public class BulkIngestException extends IOException {
+
+    private final long failedOperations;
+    private final List<String> reasons;
+
+    public BulkIngestException(long failedOperations, List<String> reasons) {
+        super(failedOperations + " bulk operations failed, first errors: " + reasons);
+        this.failedOperations = failedOperations;
+        this.reasons = reasons;
+    }
+
+    public long getFailedOperations() {
+        return failedOperations;
+    }
+
+    public List<String> getReasons() {
+        return reasons;
+    }
+}
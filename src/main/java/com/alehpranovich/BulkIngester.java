@@ -0,0 +1,526 @@
+package com.alehpranovich;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.core.bulk.UpdateAction;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.json.stream.JsonParser;
+import lombok.Builder;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.RestClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * Buffers bulk operations and sends them as {@code _bulk} requests.
+ * <p>
+ * A request is sent when the buffer reaches {@code maxOperations} operations or {@code maxBytes} bytes,
+ * or when {@code flushIntervalMillis} elapsed. At most {@code maxConcurrentRequests} requests are in flight,
+ * callers of {@link #index(String, String, Object)} and {@link #update(String, String, UpdateAction)} block
+ * until one of them completes. Documents are serialized on the calling thread, so several threads may add
+ * operations concurrently. Operations rejected with 429 are retried with exponential backoff,
+ * other failures are collected and reported by {@link #close()}. Throughput, latency, retries and queue depths
+ * are recorded in {@link IngestMetrics}.
+ * <p>
+ * With a {@code targetLatencyMillis} the request size and the requests in flight follow the latency and
+ * the 429s of the cluster, see {@link AdaptiveBulkController}. {@code maxOperations} and
+ * {@code maxConcurrentRequests} are then upper bounds, the controller never has more requests in flight than
+ * there are sender threads.
+ *
+ * <pre>
+ * try (BulkIngester ingester = BulkIngester.builder().client(client).maxOperations(1000).build()) {
+ *     ingester.index(index, id, movie);
+ * }
+ * </pre>
+ */
+public class BulkIngester implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_OPERATIONS = 1000;
+    public static final long DEFAULT_MAX_BYTES = 5 * 1024 * 1024;
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 1;
+    public static final int DEFAULT_MAX_RETRIES = 5;
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 100;
+    /**
+     * Updates of the same document from requests in flight at the same time conflict, Elasticsearch
+     * runs them again on the new version instead of failing them with 409.
+     */
+    public static final int RETRY_ON_CONFLICT = 3;
+
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int MAX_REPORTED_FAILURES = 10;
+    private static final ContentType NDJSON = ContentType.create("application/x-ndjson");
+    private static final byte[] INDEX = JsonBytes.ascii("{\"index\":{\"_index\":");
+    private static final byte[] UPDATE = JsonBytes.ascii("{\"update\":{\"_index\":");
+    private static final byte[] ID = JsonBytes.ascii(",\"_id\":");
+    private static final byte[] ACTION_END = JsonBytes.ascii("}}\n");
+    private static final byte[] UPDATE_END = JsonBytes.ascii(",\"retry_on_conflict\":" + RETRY_ON_CONFLICT + "}}\n");
+
+    private final RestClient restClient;
+    private final JsonpMapper mapper;
+    private final int maxOperations;
+    private final long maxBytes;
+    private final int maxConcurrentRequests;
+    private final int maxRetries;
+    private final long initialBackoffMillis;
+    private final IngestMetrics metrics;
+    private final AdaptiveBulkController controller;
+
+    private final InFlightRequests inFlightRequests = new InFlightRequests();
+    private final ExecutorService senders;
+    private final ScheduledExecutorService scheduler;
+
+    private final Queue<BulkBuffer> pool = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<BulkBuffer> scratch = ThreadLocal.withInitial(() -> new BulkBuffer(64 * 1024));
+    private final AtomicLong failedOperations = new AtomicLong();
+    private final List<String> failureReasons = Collections.synchronizedList(new ArrayList<>());
+    private final Set<String> writtenIndices = ConcurrentHashMap.newKeySet();
+    private final String gaugePrefix;
+
+    private BulkBuffer buffer;
+    private boolean closed;
+
+    /**
+     * @param name                prefix of the gauges registered in {@code metrics} until {@link #close()},
+     *                            {@code bulk} by default, see {@link IngestMetrics#reserveGaugePrefix(String)}
+     * @param targetLatencyMillis bulk latency the {@link AdaptiveBulkController} aims at, {@code null} for
+     *                            requests of {@code maxOperations} with {@code maxConcurrentRequests} in flight
+     */
+    @Builder
+    private BulkIngester(ElasticsearchClient client,
+                         Integer maxOperations,
+                         Long maxBytes,
+                         Long flushIntervalMillis,
+                         Integer maxConcurrentRequests,
+                         Integer maxRetries,
+                         Long initialBackoffMillis,
+                         IngestMetrics metrics,
+                         String name,
+                         Long targetLatencyMillis) {
+        this.restClient = ((RestClientTransport) client._transport()).restClient();
+        this.mapper = client._transport().jsonpMapper();
+        this.maxOperations = maxOperations != null ? maxOperations : DEFAULT_MAX_OPERATIONS;
+        this.maxBytes = maxBytes != null ? maxBytes : DEFAULT_MAX_BYTES;
+        this.maxConcurrentRequests = maxConcurrentRequests != null ? maxConcurrentRequests : DEFAULT_MAX_CONCURRENT_REQUESTS;
+        this.maxRetries = maxRetries != null ? maxRetries : DEFAULT_MAX_RETRIES;
+        this.initialBackoffMillis = initialBackoffMillis != null ? initialBackoffMillis : DEFAULT_INITIAL_BACKOFF_MILLIS;
+        this.metrics = metrics != null ? metrics : new IngestMetrics();
+
+        this.controller = targetLatencyMillis != null
+                ? new AdaptiveBulkController(this.maxOperations, this.maxBytes, this.maxConcurrentRequests, targetLatencyMillis)
+                : null;
+        this.senders = Executors.newFixedThreadPool(this.maxConcurrentRequests, daemon("bulk-sender"));
+        this.buffer = newBuffer();
+        this.gaugePrefix = this.metrics.reserveGaugePrefix(name != null ? name : "bulk");
+        this.metrics.registerGauge(gaugePrefix + ".inFlightRequests", inFlightRequests::count);
+        this.metrics.registerGauge(gaugePrefix + ".bufferedOperations", this::bufferedOperations);
+        this.metrics.registerGauge(gaugePrefix + ".batchOperations", this::batchOperations);
+        this.metrics.registerGauge(gaugePrefix + ".concurrency", this::concurrency);
+
+        if (flushIntervalMillis != null && flushIntervalMillis > 0) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(daemon("bulk-flush"));
+            this.scheduler.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * Writes a bulk source line straight into the request body, see {@link MovieSerializer}.
+     */
+    public interface DocumentWriter {
+        void write(BulkBuffer out);
+    }
+
+    /**
+     * <pre>
+     * { "index": { "_index": index, "_id": id } }
+     * document
+     * </pre>
+     */
+    public void index(String index, String id, Object document) {
+        add(INDEX, ACTION_END, index, id, out -> serialize(document, out));
+    }
+
+    /**
+     * Same as {@link #index(String, String, Object)}, the document is written by {@code document}
+     * instead of the client's JSON mapper.
+     */
+    public void index(String index, String id, DocumentWriter document) {
+        add(INDEX, ACTION_END, index, id, document);
+    }
+
+    /**
+     * <pre>
+     * { "update": { "_index": index, "_id": id, "retry_on_conflict": 3 } }
+     * action
+     * </pre>
+     */
+    public void update(String index, String id, UpdateAction<?, ?> action) {
+        add(UPDATE, UPDATE_END, index, id, out -> serialize(action, out));
+    }
+
+    /**
+     * Same as {@link #update(String, String, UpdateAction)}, the action is written by {@code action}.
+     */
+    public void update(String index, String id, DocumentWriter action) {
+        add(UPDATE, UPDATE_END, index, id, action);
+    }
+
+    /**
+     * Sends the buffered operations without waiting for the response.
+     */
+    public void flush() {
+        BulkBuffer batch;
+        synchronized (this) {
+            batch = takeBuffer();
+        }
+        send(batch);
+    }
+
+    /**
+     * Sends the buffered operations and waits until every request in flight is answered, retries included.
+     * Operations added after this returns are applied after the ones added before.
+     */
+    public void flushAndWait() {
+        flush();
+        inFlightRequests.awaitNone();
+    }
+
+    public long getFailedOperations() {
+        return failedOperations.get();
+    }
+
+    public IngestMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Sends the buffered operations and waits for all in-flight requests.
+     *
+     * @throws BulkIngestException if some operations failed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        try {
+            flush();
+            // also waits for batches another thread has taken but not handed to a sender yet
+            inFlightRequests.awaitNone();
+            senders.shutdown();
+        } finally {
+            unregisterGauges();
+        }
+
+        if (failedOperations.get() > 0) {
+            throw new BulkIngestException(failedOperations.get(), new ArrayList<>(failureReasons));
+        }
+    }
+
+    private void add(byte[] action, byte[] actionEnd, String index, String id, DocumentWriter body) {
+        // serialize outside of the lock, so several producer threads can build documents in parallel
+        BulkBuffer operation = scratch.get();
+        operation.reset();
+        operation.startOperation();
+        operation.write(action);
+        JsonBytes.writeString(operation, index);
+        operation.write(ID);
+        JsonBytes.writeString(operation, id);
+        operation.write(actionEnd);
+        body.write(operation);
+        operation.write('\n');
+        metrics.serialized(1, operation.size());
+        if (!writtenIndices.contains(index)) {
+            writtenIndices.add(index);
+        }
+
+        BulkBuffer batch = null;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Bulk ingester is closed");
+            }
+            buffer.copyOperation(operation, 0);
+            if (buffer.operations() >= batchOperations() || buffer.size() >= maxBytes) {
+                batch = takeBuffer();
+            }
+        }
+        send(batch);
+    }
+
+    private void serialize(Object body, BulkBuffer out) {
+        JsonGenerator generator = mapper.jsonProvider().createGenerator(out);
+        mapper.serialize(body, generator);
+        generator.close();
+    }
+
+    private void unregisterGauges() {
+        metrics.unregisterGauge(gaugePrefix + ".inFlightRequests");
+        metrics.unregisterGauge(gaugePrefix + ".bufferedOperations");
+        metrics.unregisterGauge(gaugePrefix + ".batchOperations");
+        metrics.unregisterGauge(gaugePrefix + ".concurrency");
+        metrics.releaseGaugePrefix(gaugePrefix);
+    }
+
+    private synchronized long bufferedOperations() {
+        return buffer.operations();
+    }
+
+    private int batchOperations() {
+        return controller != null ? controller.operations() : maxOperations;
+    }
+
+    private int concurrency() {
+        return controller != null ? controller.concurrency() : maxConcurrentRequests;
+    }
+
+    private BulkBuffer takeBuffer() {
+        if (buffer.isEmpty()) {
+            return null;
+        }
+        BulkBuffer batch = buffer;
+        buffer = newBuffer();
+        inFlightRequests.take();
+        return batch;
+    }
+
+    private void send(BulkBuffer batch) {
+        if (batch == null) {
+            return;
+        }
+        inFlightRequests.acquire(this::concurrency);
+        try {
+            senders.execute(() -> {
+                try {
+                    execute(batch);
+                } finally {
+                    writtenIndices.forEach(IndexGenerations::written); // invalidates cached searches
+                    release(batch);
+                    inFlightRequests.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlightRequests.release();
+            throw e;
+        }
+    }
+
+    private void execute(BulkBuffer first) {
+        BulkBuffer batch = first;
+        int attempt = 0;
+        while (batch != null) {
+            BulkResponse response;
+            try {
+                response = perform(batch);
+            } catch (ResponseException e) {
+                if (e.getResponse().getStatusLine().getStatusCode() == TOO_MANY_REQUESTS) {
+                    if (controller != null) {
+                        controller.rejected();
+                    }
+                    metrics.rejected(batch.operations());
+                    if (attempt < maxRetries) {
+                        metrics.retried(batch.operations());
+                        backoff(attempt++);
+                        continue;
+                    }
+                }
+                fail(batch.operations(), e.getMessage());
+                break;
+            } catch (IOException | RuntimeException e) {
+                fail(batch.operations(), e.toString());
+                break;
+            }
+
+            if (!response.errors()) {
+                break;
+            }
+
+            BulkBuffer retry = null;
+            List<BulkResponseItem> items = response.items();
+            for (int i = 0; i < items.size(); i++) {
+                BulkResponseItem item = items.get(i);
+                if (item.error() == null) {
+                    continue;
+                }
+                if (item.status() == TOO_MANY_REQUESTS) {
+                    metrics.rejected(1);
+                }
+                if (item.status() == TOO_MANY_REQUESTS && attempt < maxRetries) {
+                    if (retry == null) {
+                        retry = newBuffer();
+                    }
+                    retry.copyOperation(batch, i);
+                    metrics.retried(1);
+                } else {
+                    fail(1, item.id() + ": " + item.error().reason());
+                }
+            }
+            if (retry != null) {
+                backoff(attempt++);
+            }
+            if (batch != first) {
+                release(batch);
+            }
+            batch = retry;
+        }
+        if (batch != null && batch != first) {
+            release(batch);
+        }
+    }
+
+    private BulkResponse perform(BulkBuffer batch) throws IOException {
+        Request request = new Request("POST", "/_bulk");
+        request.setEntity(new ByteArrayEntity(batch.bytes(), 0, batch.size(), NDJSON));
+        long start = System.nanoTime();
+        Response response = restClient.performRequest(request);
+        try (InputStream body = response.getEntity().getContent();
+             JsonParser parser = mapper.jsonProvider().createParser(body)) {
+            BulkResponse bulkResponse = BulkResponse._DESERIALIZER.deserialize(parser, mapper);
+            long latencyNanos = System.nanoTime() - start;
+            metrics.bulkCompleted(batch.operations(), batch.size(), latencyNanos);
+            if (controller != null) {
+                controller.completed(batch.operations(), batch.size(), latencyNanos, rejectedItems(bulkResponse));
+            }
+            return bulkResponse;
+        }
+    }
+
+    private static int rejectedItems(BulkResponse response) {
+        if (!response.errors()) {
+            return 0;
+        }
+        int rejected = 0;
+        for (BulkResponseItem item : response.items()) {
+            if (item.status() == TOO_MANY_REQUESTS) {
+                rejected++;
+            }
+        }
+        return rejected;
+    }
+
+    private void backoff(int attempt) {
+        try {
+            Thread.sleep(initialBackoffMillis << attempt);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void fail(long operations, String reason) {
+        failedOperations.addAndGet(operations);
+        metrics.failed(operations);
+        synchronized (failureReasons) {
+            if (failureReasons.size() < MAX_REPORTED_FAILURES) {
+                failureReasons.add(reason);
+            }
+        }
+    }
+
+    /**
+     * Buffers are reused, so after warm-up request bodies are built without allocating new byte arrays.
+     */
+    private BulkBuffer newBuffer() {
+        BulkBuffer buffer = pool.poll();
+        return buffer != null ? buffer : new BulkBuffer((int) Math.min(maxBytes, 1024 * 1024));
+    }
+
+    private void release(BulkBuffer buffer) {
+        buffer.reset();
+        pool.offer(buffer);
+    }
+
+    /**
+     * Counts the requests in flight, unlike a semaphore its limit may change between two requests.
+     * Batches are counted from the moment they are taken from the buffer, so {@link #close()} cannot
+     * shut the senders down while a batch is on its way to them.
+     */
+    private static final class InFlightRequests {
+        private int count;
+        private int taken;
+
+        /**
+         * Called under the ingester's lock together with {@link #takeBuffer()}.
+         */
+        synchronized void take() {
+            taken++;
+        }
+
+        /**
+         * Waits until fewer than {@code limit} requests are in flight, the taken batch then counts as one.
+         */
+        synchronized void acquire(IntSupplier limit) {
+            boolean interrupted = false;
+            while (count >= limit.getAsInt()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            taken--;
+            count++;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized void release() {
+            count--;
+            notifyAll();
+        }
+
+        synchronized void awaitNone() {
+            boolean interrupted = false;
+            while (count > 0 || taken > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized long count() {
+            return count;
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -1,50 +1,19 @@
 package com.alehpranovich;
 
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
-import co.elastic.clients.json.jackson.JacksonJsonpMapper;
-import co.elastic.clients.transport.ElasticsearchTransport;
-import co.elastic.clients.transport.rest_client.RestClientTransport;
-import org.apache.http.HttpHost;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.CredentialsProvider;
-import org.apache.http.impl.client.BasicCredentialsProvider;
-import org.apache.http.ssl.SSLContexts;
-import org.elasticsearch.client.RestClient;
-
-import javax.net.ssl.SSLContext;
-import java.io.InputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.security.KeyStore;
-import java.security.cert.Certificate;
-import java.security.cert.CertificateFactory;
 
 public class ClientBuilder {
 
+    /**
+     * Client of a single local node, see {@link TransportFactory} for clusters and pool settings.
+     */
     public static ElasticsearchClient createClient(String certPath, String userName, String password, Integer elasticPort) throws Exception {
-        Path caCertificatePath = Paths.get(certPath);
-        CertificateFactory factory = CertificateFactory.getInstance("X.509");
-        Certificate trustedCa;
-        try (InputStream is = Files.newInputStream(caCertificatePath)) {
-            trustedCa = factory.generateCertificate(is);
-        }
-        KeyStore trustStore = KeyStore.getInstance("pkcs12");
-        trustStore.load(null, null);
-        trustStore.setCertificateEntry("ca", trustedCa);
-
-        final SSLContext sslContext = SSLContexts.custom().loadTrustMaterial(trustStore, null).build();
-
-        final CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
-        credentialsProvider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(userName, password));
-
-        RestClient restClient = RestClient.builder(new HttpHost("localhost", elasticPort, "https"))
-                .setHttpClientConfigCallback(httpClientBuilder -> httpClientBuilder.setSSLContext(sslContext)
-                        .setDefaultCredentialsProvider(credentialsProvider))
-                .build();
-
-        ElasticsearchTransport transport = new RestClientTransport(restClient, new JacksonJsonpMapper());
-        return new ElasticsearchClient(transport);
+        return TransportFactory.builder()
+                .port(elasticPort)
+                .certPath(certPath)
+                .userName(userName)
+                .password(password)
+                .build()
+                .createClient();
     }
 }
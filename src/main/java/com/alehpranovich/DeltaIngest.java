@@ -0,0 +1,77 @@
+package com.alehpranovich;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Incremental ingest: merges the ratings and tags rows appended since the last {@link IngestCheckpoint}
+ * into the existing movie documents, with one {@link AppendScript} update per movie.
+ * <p>
+ * The range of a run is saved as pending before anything is sent and committed once all updates are acknowledged.
+ * A run that crashed is resumed with exactly the same range. Every document keeps the end offset of the rows
+ * merged into it ({@code ratingsOffset}, {@code tagsOffset}) and the name of their file, so updates already applied
+ * before the crash turn into no-ops instead of adding the rows twice. Offsets are only compared within a file,
+ * like the checkpoint is kept per file name.
+ */
+public class DeltaIngest {
+
+    private final ElasticsearchClient client;
+    private final IngestConfig config;
+    private final IngestMetrics metrics;
+
+    public DeltaIngest(ElasticsearchClient client, IngestConfig config, IngestMetrics metrics) {
+        this.client = client;
+        this.config = config;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Ingests the complete lines appended to both files since the checkpoint, or resumes the pending run.
+     */
+    public void run(Path ratingsPath, Path tagsPath, Path checkpointFile, String index) throws IOException {
+        IngestCheckpoint checkpoint = IngestCheckpoint.load(checkpointFile);
+        long ratingsFrom = checkpoint.committed(ratingsPath);
+        long ratingsTo = end(checkpoint, ratingsPath);
+        long tagsFrom = checkpoint.committed(tagsPath);
+        long tagsTo = end(checkpoint, tagsPath);
+        if (ratingsFrom == ratingsTo && tagsFrom == tagsTo) {
+            System.out.println("No new ratings or tags since the checkpoint");
+            return;
+        }
+
+        checkpoint.setPending(ratingsPath, ratingsTo);
+        checkpoint.setPending(tagsPath, tagsTo);
+        checkpoint.save(checkpointFile);
+
+        MovieColumnStore delta = IndexUtil.readRatingsAndTags(ratingsPath, ratingsFrom, ratingsTo,
+                tagsPath, tagsFrom, tagsTo, config.getParseThreads(), metrics);
+        long[] movieIds = delta.movieIds();
+        String ratingsFile = ratingsPath.getFileName().toString();
+        String tagsFile = tagsPath.getFileName().toString();
+        AppendScript.store(client);
+        try (ShardedIngester ingester = config.createIndexIngester(client, metrics, index)) {
+            for (long movieId : movieIds) {
+                ingester.update(index, Long.toString(movieId),
+                        out -> AppendScript.writeUpdate(out, delta, movieId, ratingsFile, ratingsTo, tagsFile, tagsTo));
+            }
+        }
+
+        checkpoint.commit(ratingsPath);
+        checkpoint.commit(tagsPath);
+        checkpoint.save(checkpointFile);
+        System.out.println(delta.ratingRows() + " ratings and " + delta.tagRows() + " tags were merged into "
+                + movieIds.length + " movies");
+    }
+
+    private static long end(IngestCheckpoint checkpoint, Path csv) throws IOException {
+        long committed = checkpoint.committed(csv);
+        long pending = checkpoint.pending(csv);
+        long end = pending >= 0 ? pending : MappedCsvParser.completeLinesEnd(csv);
+        if (end < committed) {
+            throw new IOException(csv + " is shorter than its checkpoint " + committed + ", it was replaced?");
+        }
+        return end;
+    }
+}
@@ -0,0 +1,194 @@
+package com.alehpranovich;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch._types.ErrorResponse;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.SortOptions;
+import co.elastic.clients.elasticsearch._types.Time;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.elasticsearch.core.search.SourceConfig;
+import co.elastic.clients.transport.Endpoint;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads every document of an index with a point in time and {@code search_after}, sorted by {@code _shard_doc}.
+ * The next page is requested as soon as the current one arrives, so it is usually ready when the caller
+ * has consumed the current one. The point in time is closed when the last page is read or on {@link #close()}.
+ * <pre>
+ * try (Stream&lt;Movie&gt; movies = searchClient.streamAllByIndex(index, 1000, "ratings", "tags")) {
+ *     movies.forEach(...);
+ * }
+ * </pre>
+ * Pages are decoded by the generated deserializer of a {@link MovieProjection}, {@link MovieProjection#FULL} for movies.
+ */
+public class IndexExport<T> implements Iterator<T>, AutoCloseable {
+
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+
+    private static final Time KEEP_ALIVE = Time.of(t -> t.time("1m"));
+    private static final SortOptions SHARD_DOC = SortOptions.of(s -> s.field(f -> f.field("_shard_doc")));
+
+    private final ElasticsearchAsyncClient client;
+    private final int pageSize;
+    private final SourceConfig source;
+    private final Endpoint<SearchRequest, SearchResponse<T>, ErrorResponse> endpoint;
+
+    private String pitId;
+    private CompletableFuture<SearchResponse<T>> nextPage;
+    private Iterator<Hit<T>> page = Collections.emptyIterator();
+    private boolean closed;
+
+    private IndexExport(ElasticsearchAsyncClient client, String pitId, int pageSize, SourceConfig source,
+                        Endpoint<SearchRequest, SearchResponse<T>, ErrorResponse> endpoint) {
+        this.client = client;
+        this.pitId = pitId;
+        this.pageSize = pageSize;
+        this.source = source;
+        this.endpoint = endpoint;
+        this.nextPage = search(client, pageRequest(pitId, pageSize, source, null), endpoint);
+    }
+
+    /**
+     * @param excludes fields left out of {@code _source}, e.g. the nested {@code ratings}
+     */
+    public static IndexExport<Movie> open(ElasticsearchAsyncClient client, String index, int pageSize, String... excludes) {
+        String pitId = join(client.openPointInTime(o -> o.index(index).keepAlive(KEEP_ALIVE))).id();
+        return new IndexExport<>(client, pitId, pageSize, sourceConfig(excludes), MovieProjection.FULL.endpoint());
+    }
+
+    /**
+     * Reads only the fields of {@code projection}.
+     */
+    public static <T> IndexExport<T> open(ElasticsearchAsyncClient client, String index, int pageSize,
+                                          MovieProjection<T> projection) {
+        String pitId = join(client.openPointInTime(o -> o.index(index).keepAlive(KEEP_ALIVE))).id();
+        return new IndexExport<>(client, pitId, pageSize, projection.source(), projection.endpoint());
+    }
+
+    /**
+     * Reads all pages without blocking, pages are requested one after another.
+     */
+    public static CompletableFuture<List<Movie>> readAll(ElasticsearchAsyncClient client, String index, int pageSize,
+                                                         String... excludes) {
+        SourceConfig source = sourceConfig(excludes);
+        return client.openPointInTime(o -> o.index(index).keepAlive(KEEP_ALIVE))
+                .thenCompose(pit -> readPages(client, pit.id(), pageSize, source, null, new ArrayList<>()));
+    }
+
+    public Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(this::close);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!page.hasNext()) {
+            if (nextPage == null) {
+                close();
+                return false;
+            }
+            SearchResponse<T> response = join(nextPage);
+            if (response.pitId() != null) {
+                pitId = response.pitId();
+            }
+            List<Hit<T>> hits = response.hits().hits();
+            nextPage = hits.size() < pageSize
+                    ? null
+                    : search(client, pageRequest(pitId, pageSize, source, hits.get(hits.size() - 1).sort()), endpoint);
+            page = hits.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.next().source();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (nextPage != null) {
+            nextPage.cancel(false);
+            nextPage = null;
+        }
+        page = Collections.emptyIterator();
+        join(client.closePointInTime(c -> c.id(pitId)));
+    }
+
+    private static CompletableFuture<List<Movie>> readPages(ElasticsearchAsyncClient client, String pitId, int pageSize,
+                                                            SourceConfig source, List<FieldValue> searchAfter,
+                                                            List<Movie> movies) {
+        return search(client, pageRequest(pitId, pageSize, source, searchAfter), MovieProjection.FULL.endpoint())
+                .thenCompose(response -> {
+                    String nextPitId = response.pitId() != null ? response.pitId() : pitId;
+                    List<Hit<Movie>> hits = response.hits().hits();
+                    hits.forEach(hit -> movies.add(hit.source()));
+                    if (hits.size() < pageSize) {
+                        return client.closePointInTime(c -> c.id(nextPitId)).thenApply(closed -> movies);
+                    }
+                    return readPages(client, nextPitId, pageSize, source, hits.get(hits.size() - 1).sort(), movies);
+                });
+    }
+
+    private static <T> CompletableFuture<SearchResponse<T>> search(ElasticsearchAsyncClient client, SearchRequest request,
+                                                                    Endpoint<SearchRequest, SearchResponse<T>, ErrorResponse> endpoint) {
+        return client._transport().performRequestAsync(request, endpoint, client._transportOptions());
+    }
+
+    private static SearchRequest pageRequest(String pitId, int pageSize, SourceConfig source, List<FieldValue> searchAfter) {
+        return SearchRequest.of(s -> {
+            s.pit(p -> p.id(pitId).keepAlive(KEEP_ALIVE))
+                    .size(pageSize)
+                    .sort(SHARD_DOC)
+                    .trackTotalHits(t -> t.enabled(false));
+            if (source != null) {
+                s.source(source);
+            }
+            if (searchAfter != null) {
+                s.searchAfter(searchAfter);
+            }
+            return s;
+        });
+    }
+
+    private static SourceConfig sourceConfig(String... excludes) {
+        return excludes.length == 0 ? null : SourceConfig.of(c -> c.filter(f -> f.excludes(Arrays.asList(excludes))));
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof IOException) {
+                throw new UncheckedIOException((IOException) e.getCause());
+            }
+            throw e;
+        }
+    }
+}
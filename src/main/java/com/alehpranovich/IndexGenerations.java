@@ -0,0 +1,96 @@
+package com.alehpranovich;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write generation of every index, moved on by {@link IndexUtil} and {@link BulkIngester} whenever they change
+ * an index. {@link QueryCache} entries remember the generations they were read at and are dropped once one moves on.
+ * <p>
+ * A write only becomes visible to searches with the next refresh. A search between the write and that refresh
+ * would cache the old documents at the new generation, so {@link #written(String)} moves the generation on again
+ * once {@link #REFRESH_DELAY_MILLIS} passed after the last write. After an explicit refresh
+ * {@link #refreshed(String)} does that right away.
+ */
+public final class IndexGenerations {
+
+    /**
+     * The default {@code index.refresh_interval} of 1 second, plus the time the refresh takes.
+     */
+    public static final long REFRESH_DELAY_MILLIS = 1_500;
+
+    private static final ConcurrentMap<String, Generation> GENERATIONS = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService REFRESHES = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "index-generations");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private IndexGenerations() {
+    }
+
+    public static long current(String index) {
+        Generation generation = GENERATIONS.get(index);
+        return generation != null ? generation.value.get() : 0;
+    }
+
+    /**
+     * @return sum of the generations of {@code indices}, it grows whenever any of them is written
+     */
+    public static long current(Iterable<String> indices) {
+        long sum = 0;
+        for (String index : indices) {
+            sum += current(index);
+        }
+        return sum;
+    }
+
+    public static void written(String index) {
+        Generation generation = generation(index);
+        generation.lastWriteNanos = System.nanoTime();
+        generation.value.incrementAndGet();
+        if (generation.refreshPending.compareAndSet(false, true)) {
+            REFRESHES.schedule(generation::refreshed, REFRESH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Called once an explicit {@code _refresh} of {@code index} returned.
+     */
+    public static void refreshed(String index) {
+        generation(index).value.incrementAndGet();
+    }
+
+    private static Generation generation(String index) {
+        return GENERATIONS.computeIfAbsent(index, name -> new Generation());
+    }
+
+    private static final class Generation {
+        private final AtomicLong value = new AtomicLong();
+        private final AtomicBoolean refreshPending = new AtomicBoolean();
+        private volatile long lastWriteNanos;
+
+        /**
+         * One scheduled task per index, it waits until {@link #REFRESH_DELAY_MILLIS} passed after the last write.
+         */
+        private void refreshed() {
+            long lastWrite = lastWriteNanos;
+            long remainingNanos = lastWrite + TimeUnit.MILLISECONDS.toNanos(REFRESH_DELAY_MILLIS) - System.nanoTime();
+            if (remainingNanos > 0) {
+                REFRESHES.schedule(this::refreshed, remainingNanos, TimeUnit.NANOSECONDS);
+                return;
+            }
+            refreshPending.set(false);
+            value.incrementAndGet();
+            // a write that still saw the pending task
+            if (lastWriteNanos != lastWrite && refreshPending.compareAndSet(false, true)) {
+                REFRESHES.schedule(this::refreshed, REFRESH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+}
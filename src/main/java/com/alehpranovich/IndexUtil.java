@@ -1,35 +1,101 @@
 package com.alehpranovich;
 
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
-import co.elastic.clients.elasticsearch._types.mapping.Property;
-import co.elastic.clients.elasticsearch.core.BulkRequest;
-import co.elastic.clients.elasticsearch.core.BulkResponse;
-import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
 import co.elastic.clients.elasticsearch.indices.CreateIndexRequest;
 import co.elastic.clients.elasticsearch.indices.DeleteIndexRequest;
-import co.elastic.clients.json.JsonData;
+import co.elastic.clients.elasticsearch.indices.TranslogDurability;
 import co.elastic.clients.transport.endpoints.BooleanResponse;
 import com.opencsv.CSVReader;
 import com.opencsv.bean.CsvToBeanBuilder;
-import com.opencsv.exceptions.CsvValidationException;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class IndexUtil {
 
     public static final String RESOURCES_PATH = "src/main/resources/";
 
+    /**
+     * Rows buffered by {@link #indexRatings(BulkIngester, Path, String)} before they are sent per movie.
+     */
+    public static final int DEFAULT_UPDATE_WINDOW = 100_000;
+
+    private static final DateTimeFormatter INDEX_VERSION_FORMAT =
+            DateTimeFormatter.ofPattern("yyyyMMddHHmmssSSS").withZone(ZoneOffset.UTC);
+    private static final AtomicLong LAST_INDEX_VERSION = new AtomicLong();
+
+    /**
+     * Reads a CSV file from the classpath. Prefer {@link #streamCSVFile(Path, Class)} for big files.
+     */
     public static <T> List<T> readCSVFile(String filePath, Class<T> type) throws IOException {
-        File file = new File(IndexUtil.class.getClassLoader().getResource(filePath).getFile());
-        InputStream inputStream = new FileInputStream(file);
-        InputStreamReader streamReader = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
-        return new CsvToBeanBuilder<T>(streamReader)
+        InputStream inputStream = IndexUtil.class.getClassLoader().getResourceAsStream(filePath);
+        if (inputStream == null) {
+            throw new FileNotFoundException(filePath);
+        }
+        try (Stream<T> rows = streamCSVFile(Channels.newChannel(inputStream), type)) {
+            return rows.collect(Collectors.toList());
+        }
+    }
+
+    public static <T> Stream<T> streamCSVFile(Path path, Class<T> type) throws IOException {
+        return streamCSVFile(Files.newByteChannel(path), type);
+    }
+
+    /**
+     * Lazily parses CSV rows into beans, only the current row is kept in memory.
+     * The channel is closed when the returned stream is closed.
+     */
+    public static <T> Stream<T> streamCSVFile(ReadableByteChannel channel, Class<T> type) {
+        Reader reader = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), -1));
+        Iterator<T> rows = new CsvToBeanBuilder<T>(reader)
                 .withType(type)
-                .build().parse();
+                .build().iterator();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(rows, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(() -> closeQuietly(reader));
+    }
+
+    /**
+     * Lazily parses a ratings file, the header line is skipped.
+     */
+    public static Stream<Movie.Rating> streamRatings(Path path) throws IOException {
+        return streamCSVLines(path).map(IndexUtil::toRating);
+    }
+
+    /**
+     * Lazily parses a tags file, the header line is skipped.
+     */
+    public static Stream<Movie.Tag> streamTags(Path path) throws IOException {
+        return streamCSVLines(path).map(IndexUtil::toTag);
+    }
+
+    private static Stream<String[]> streamCSVLines(Path path) throws IOException {
+        CSVReader reader = new CSVReader(Files.newBufferedReader(path, StandardCharsets.UTF_8));
+        reader.skip(1); // skip header
+        return StreamSupport.stream(reader.spliterator(), false)
+                .onClose(() -> closeQuietly(reader));
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     public static void createIndexIfNotExists(ElasticsearchClient client, String index) throws IOException {
@@ -37,195 +103,427 @@ public class IndexUtil {
         if (!existsResponse.value()) {
             client.indices().create(CreateIndexRequest.of(
                     builder -> builder.index(index)));
+            IndexGenerations.written(index);
         }
     }
 
+    /**
+     * When {@code index} is an alias, as left by the rebuild mode, the indices it points to are deleted,
+     * Elasticsearch rejects deleting through an alias.
+     */
     public static void deleteIndexIfExists(ElasticsearchClient client, String index) throws IOException {
+        if (client.indices().existsAlias(builder -> builder.name(index)).value()) {
+            List<String> concreteIndices = new ArrayList<>(
+                    client.indices().getAlias(builder -> builder.name(index)).result().keySet());
+            client.indices().delete(DeleteIndexRequest.of(
+                    builder -> builder.index(concreteIndices)));
+            concreteIndices.forEach(IndexGenerations::written);
+            IndexGenerations.written(index);
+            return;
+        }
         BooleanResponse existsResponse = client.indices().exists(builder -> builder.index(index));
         if (existsResponse.value()) {
             client.indices().delete(DeleteIndexRequest.of(
                     builder -> builder.index(index)));
+            IndexGenerations.written(index);
         }
     }
 
     public static void indexMovies(ElasticsearchClient client, List<Movie> movies, String index) throws IOException {
-        BulkRequest.Builder br = new BulkRequest.Builder();
-        for (Movie movie : movies) {
-            br.operations(op -> op
-                    .index(idx -> idx
-                            .index(index)
-                            .id(movie.getMovieId().toString())
-                            .document(movie)
-                    )
-            );
-        }
-
-        BulkResponse result = client.bulk(br.build());
-
-        if (result.errors()) {
-            System.out.println("Bulk had errors");
-            for (BulkResponseItem item : result.items()) {
-                if (item.error() != null) {
-                    System.out.println(item.error().reason());
-                }
-            }
+        try (BulkIngester ingester = BulkIngester.builder().client(client).build()) {
+            indexMovies(ingester, movies, index);
+        }
+    }
+
+    public static void indexMovies(BulkIngester ingester, List<Movie> movies, String index) {
+        indexMovies(ingester, movies.stream(), index);
+    }
+
+    public static void indexMovies(BulkIngester ingester, Stream<Movie> movies, String index) {
+        movies.forEach(movie -> {
+            ingester.metrics().parsed(1, 0);
+            ingester.index(index, movie.getMovieId().toString(), out -> MovieSerializer.writeMovie(out, movie));
+        });
+    }
+
+    /**
+     * Indexes every movie with its ratings and tags written straight from the column store.
+     */
+    public static void indexMovies(BulkIngester ingester, Stream<Movie> movies, MovieColumnStore store, String index) {
+        movies.forEach(movie -> {
+            ingester.metrics().parsed(1, 0);
+            ingester.index(index, movie.getMovieId().toString(), store.document(movie));
+        });
+    }
+
+    public static void indexRatings(ElasticsearchClient client, String fileName, String index) throws IOException {
+        AppendScript.store(client);
+        try (BulkIngester ingester = BulkIngester.builder().client(client).build()) {
+            indexRatings(ingester, Paths.get(RESOURCES_PATH, fileName), index);
         }
     }
 
+    public static void indexRatings(BulkIngester ingester, Path path, String index) throws IOException {
+        indexRatings(ingester, path, index, DEFAULT_UPDATE_WINDOW);
+    }
+
     /**
+     * Reads {@code windowRows} ratings at a time, then appends them with one {@link AppendScript} update per movie
+     * in the window, the script has to be stored already. A window is sent once the previous one is acknowledged,
+     * so the rows of a movie are appended in file order even with several requests in flight and retried 429s.
+     * The updates carry no offsets: running it again appends the rows again, {@link DeltaIngest} is the resumable
+     * way to merge new rows.
      * <pre>
-     * POST movie_lens_nested_index/_update/{movieId}
-     * {
-     *   "script": {
-     *     "source": "ctx._source.ratings.add(params.user)",
-     *     "params": {"ratings": {"movieId": 1, "userId": 3,  "rating": 4.5}}
-     *   }
-     * }
+     * POST _bulk
+     * {"update": {"_index": "movie_full_nested_index", "_id": "1", "retry_on_conflict": 3}}
+     * {"script": {"id": "movie-append-ratings-tags", "params": {"ratings": [{"movieId": 1, "userId": 3, "rating": 4.5}, ...], "tags": []}},
+     *  "scripted_upsert": true, "upsert": {"movieId": 1}}
      * </pre>
      */
-    public static void indexRatings(ElasticsearchClient client, String fileName, String index) throws IOException, CsvValidationException {
-        long i = 0;
-        CSVReader reader = new CSVReader(new FileReader(RESOURCES_PATH + fileName));
-        String[] line;
-        while ((line = reader.readNext()) != null) {
-            if (i == 0) { // skip header
-                i++;
-                continue;
-            }
-            Movie.Rating rating = Movie.Rating.builder()
-                    .userId(Long.valueOf(line[0]))
-                    .movieId(Long.valueOf(line[1]))
-                    .rating(Double.valueOf(line[2]))
-                    .build();
-
-            BulkResponse response = client.bulk(
-                    BulkRequest.of(bulkRequest -> bulkRequest
-                            .index(index)
-                            .operations(bulkOperation -> bulkOperation
-                                    .update(updateOperation -> updateOperation
-                                            .id(String.valueOf(rating.getMovieId()))
-                                            .action(action -> action
-                                                    .script(script -> script
-                                                            .inline(inlineScript -> inlineScript
-                                                                    .lang("painless")
-                                                                    .source("ctx._source.ratings.add(params.rating)")
-                                                                    .params("rating", JsonData.of(rating))
-                                                            )
-                                                    )
-                                            )
-                                    )
-                            )
-                    )
-            );
-
-            if (i % 1000 == 0) {
-                System.out.println("row = " + i + " " + rating);
-            }
-            i++;
-            if (response.errors()) {
-                System.out.println("response.errors: " + response);
-            }
+    public static void indexRatings(BulkIngester ingester, Path path, String index, int windowRows) throws IOException {
+        UpdateWindow window = new UpdateWindow(ingester, index);
+        long size = Files.size(path);
+        for (long from = 0; from < size; ) {
+            long to = MappedCsvParser.linesEnd(path, from, windowRows);
+            MappedCsvParser.parseRatings(path, from, to, 1, () -> (userId, movieId, rating, timestamp) -> {
+                ingester.metrics().parsed(1, 0);
+                window.rating(userId, movieId, rating, timestamp);
+            });
+            window.flush();
+            from = to;
         }
     }
 
-    public static void indexTags(ElasticsearchClient client, String fileName, String index) throws IOException, CsvValidationException {
-        long i = 0;
-        CSVReader reader = new CSVReader(new FileReader("src/main/resources/" + fileName));
-        String[] line;
-        while ((line = reader.readNext()) != null) {
-            if (i == 0) { // skip header
-                i++;
-                continue;
-            }
-            Movie.Tag tag = Movie.Tag.builder()
-                    .userId(Long.valueOf(line[0]))
-                    .movieId(Long.valueOf(line[1]))
-                    .tag(line[2])
-                    .build();
-
-            BulkResponse response = client.bulk(
-                    BulkRequest.of(bulkRequest -> bulkRequest
-                            .index(index)
-                            .operations(bulkOperation -> bulkOperation
-                                    .update(updateOperation -> updateOperation
-                                            .id(String.valueOf(tag.getMovieId()))
-                                            .action(action -> action
-                                                    .script(script -> script
-                                                            .inline(inlineScript -> inlineScript
-                                                                    .lang("painless")
-                                                                    .source("ctx._source.tags.add(params.tag)")
-                                                                    .params("tag", JsonData.of(tag))
-                                                            )
-                                                    )
-                                            )
-                                    )
-                            )
-                    )
-            );
-
-            if (i % 1000 == 0) {
-                System.out.println("row = " + i + " " + tag);
+    public static void indexTags(ElasticsearchClient client, String fileName, String index) throws IOException {
+        AppendScript.store(client);
+        try (BulkIngester ingester = BulkIngester.builder().client(client).build()) {
+            indexTags(ingester, Paths.get(RESOURCES_PATH, fileName), index);
+        }
+    }
+
+    public static void indexTags(BulkIngester ingester, Path path, String index) throws IOException {
+        indexTags(ingester, path, index, DEFAULT_UPDATE_WINDOW);
+    }
+
+    /**
+     * Same as {@link #indexRatings(BulkIngester, Path, String, int)} for tags. Tags are parsed straight into
+     * dictionary ids, a repeated tag is neither allocated nor escaped again.
+     */
+    public static void indexTags(BulkIngester ingester, Path path, String index, int windowRows) throws IOException {
+        UpdateWindow window = new UpdateWindow(ingester, index);
+        long size = Files.size(path);
+        for (long from = 0; from < size; ) {
+            long to = MappedCsvParser.linesEnd(path, from, windowRows);
+            MappedCsvParser.parseTags(path, from, to, 1, window.dictionary,
+                    () -> (userId, movieId, tagId, timestamp) -> {
+                        ingester.metrics().parsed(1, 0);
+                        window.tag(userId, movieId, tagId, timestamp);
+                    });
+            window.flush();
+            from = to;
+        }
+    }
+
+    /**
+     * Reads the whole ratings file and groups the rows by movieId, so they can be joined into
+     * {@link Movie} documents on the client side instead of being appended one by one with a script.
+     */
+    public static Map<Long, List<Movie.Rating>> readRatings(Path path) throws IOException {
+        try (Stream<Movie.Rating> ratings = streamRatings(path)) {
+            return ratings.collect(Collectors.groupingBy(Movie.Rating::getMovieId));
+        }
+    }
+
+    /**
+     * Reads the whole tags file and groups the rows by movieId, see {@link #readRatings(Path)}.
+     */
+    public static Map<Long, List<Movie.Tag>> readTags(Path path) throws IOException {
+        try (Stream<Movie.Tag> tags = streamTags(path)) {
+            return tags.collect(Collectors.groupingBy(Movie.Tag::getMovieId));
+        }
+    }
+
+    /**
+     * Same as {@link #readRatings(Path)}, but the file is memory-mapped and parsed by {@code parallelism} threads,
+     * see {@link MappedCsvParser}.
+     */
+    public static Map<Long, List<Movie.Rating>> readRatingsParallel(Path path, int parallelism) throws IOException {
+        List<GroupedRatings> chunks = MappedCsvParser.parseRatings(path, parallelism, GroupedRatings::new);
+        Map<Long, List<Movie.Rating>> ratings = new HashMap<>();
+        for (GroupedRatings chunk : chunks) {
+            chunk.ratings.forEach((movieId, rows) ->
+                    ratings.computeIfAbsent(movieId, id -> new ArrayList<>()).addAll(rows));
+        }
+        return ratings;
+    }
+
+    /**
+     * Same as {@link #readTags(Path)}, but the file is memory-mapped and parsed by {@code parallelism} threads,
+     * see {@link MappedCsvParser}.
+     */
+    public static Map<Long, List<Movie.Tag>> readTagsParallel(Path path, int parallelism) throws IOException {
+        List<GroupedTags> chunks = MappedCsvParser.parseTags(path, parallelism, GroupedTags::new);
+        Map<Long, List<Movie.Tag>> tags = new HashMap<>();
+        for (GroupedTags chunk : chunks) {
+            chunk.tags.forEach((movieId, rows) ->
+                    tags.computeIfAbsent(movieId, id -> new ArrayList<>()).addAll(rows));
+        }
+        return tags;
+    }
+
+    /**
+     * Parses both files in parallel into primitive columns grouped by movieId, see {@link MovieColumnStore}.
+     * Needs a fraction of the heap of {@link #readRatingsParallel(Path, int)} on the full MovieLens dataset.
+     */
+    public static MovieColumnStore readRatingsAndTags(Path ratingsPath, Path tagsPath, int parallelism) throws IOException {
+        return readRatingsAndTags(ratingsPath, tagsPath, parallelism, new IngestMetrics());
+    }
+
+    public static MovieColumnStore readRatingsAndTags(Path ratingsPath, Path tagsPath, int parallelism,
+                                                      IngestMetrics metrics) throws IOException {
+        return readRatingsAndTags(ratingsPath, 0, Files.size(ratingsPath), tagsPath, 0, Files.size(tagsPath),
+                parallelism, metrics);
+    }
+
+    /**
+     * Reads the rows between the given byte offsets only, see {@link MappedCsvParser#parseRatings(Path, long, long, int, java.util.function.Supplier)}.
+     */
+    public static MovieColumnStore readRatingsAndTags(Path ratingsPath, long ratingsFrom, long ratingsTo,
+                                                      Path tagsPath, long tagsFrom, long tagsTo,
+                                                      int parallelism, IngestMetrics metrics) throws IOException {
+        StringDictionary dictionary = new StringDictionary();
+        // both files are parsed at the same time, each one by its own pool of parser threads
+        CompletableFuture<List<MovieColumnStore.Appender>> tags = CompletableFuture.supplyAsync(() -> {
+            try {
+                return MappedCsvParser.parseTags(tagsPath, tagsFrom, tagsTo, parallelism, dictionary,
+                        () -> new MovieColumnStore.Appender(dictionary));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
-            i++;
-            if (response.errors()) {
-                System.out.println("response.errors: " + response);
+        });
+        List<MovieColumnStore.Appender> appenders = new ArrayList<>(MappedCsvParser.parseRatings(ratingsPath,
+                ratingsFrom, ratingsTo, parallelism, () -> new MovieColumnStore.Appender(dictionary)));
+        try {
+            appenders.addAll(tags.join());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
             }
+            throw e;
         }
+        MovieColumnStore store = MovieColumnStore.merge(appenders, dictionary);
+        metrics.parsed(store.ratingRows() + store.tagRows(), (ratingsTo - ratingsFrom) + (tagsTo - tagsFrom));
+        return store;
     }
 
+    /**
+     * Fills {@link Movie#getRatings()} and {@link Movie#getTags()} from the grouped rows, so every movie
+     * is written once with all of its nested documents by {@link #indexMovies(BulkIngester, Stream, String)}.
+     */
+    public static Movie joinRatingsAndTags(Movie movie,
+                                           Map<Long, List<Movie.Rating>> ratings,
+                                           Map<Long, List<Movie.Tag>> tags) {
+        movie.setRatings(ratings.getOrDefault(movie.getMovieId(), Collections.emptyList()));
+        movie.setTags(tags.getOrDefault(movie.getMovieId(), Collections.emptyList()));
+        return MovieAggregates.of(movie).applyTo(movie);
+    }
+
+    private static Movie.Rating toRating(String[] line) {
+        return Movie.Rating.builder()
+                .userId(Long.valueOf(line[0]))
+                .movieId(Long.valueOf(line[1]))
+                .rating(Double.valueOf(line[2]))
+                .build();
+    }
+
+    private static Movie.Tag toTag(String[] line) {
+        return Movie.Tag.builder()
+                .userId(Long.valueOf(line[0]))
+                .movieId(Long.valueOf(line[1]))
+                .tag(line[2])
+                .build();
+    }
 
     /**
-     * Document Mapping
+     * Document Mapping, generated from the {@link MappedField} annotations of {@link Movie} into {@link MovieMapping}:
      *
      * <pre>
      * {
-     *   "mappings": {
-     *     "properties": {
-     *       "movieId": {"type": "long"},
-     *       "title": {"type": "text"},
-     *       "genres": {"type": "keyword"},
-     *       "rating": {
-     *         "type": "nested",
-     *         "properties": {
-     *           "userId": {"type": "long"},
-     *           "movieId": {"type": "long"},
-     *           "rating": {"type": "double"}
-     *         }
-     *       },
-     *       "tags": {
-     *         "type": "nested",
-     *         "properties": {
-     *               "userId": {"type": "long"},
-     *           "movieId": {"type": "long"},
-     *           "tag": {"type": "keyword"}
-     *         }
+     *   "properties": {
+     *     "movieId": {"type": "long"},
+     *     "title": {"type": "text"},
+     *     "genres": {"type": "keyword"},
+     *     "ratings": {
+     *       "type": "nested",
+     *       "properties": {
+     *         "movieId": {"type": "long"},
+     *         "userId": {"type": "long"},
+     *         "rating": {"type": "double"}
+     *       }
+     *     },
+     *     "tags": {
+     *       "type": "nested",
+     *       "properties": {
+     *         "userId": {"type": "long"},
+     *         "movieId": {"type": "long"},
+     *         "tag": {"type": "keyword"}
      *       }
-     *     }
+     *     },
+     *     "ratingCount": {"type": "long"},
+     *     ...
      *   }
      * }
      * </pre>
      */
     public static void addMapping(ElasticsearchClient client, String index) throws IOException {
-        Map<String, Property> ratingProps = new HashMap<>();
-        ratingProps.put("userId", Property.of(p -> p.long_(v -> v)));
-        ratingProps.put("movieId", Property.of(p -> p.long_(v -> v)));
-        ratingProps.put("rating", Property.of(p -> p.double_(v -> v)));
-
-        Map<String, Property> tagsProps = new HashMap<>();
-        tagsProps.put("userId", Property.of(p -> p.long_(v -> v)));
-        tagsProps.put("movieId", Property.of(p -> p.long_(v -> v)));
-        tagsProps.put("tag", Property.of(p -> p.keyword(v -> v)));
-
-        Map<String, Property> props = new HashMap<>();
-        props.put("movieId", Property.of(p -> p.long_(v -> v)));
-        props.put("title", Property.of(p -> p.text(v -> v)));
-        props.put("genres", Property.of(p -> p.keyword(v -> v)));
-        props.put("ratings", Property.of(p -> p.nested(v -> v.properties(ratingProps))));
-        props.put("tags", Property.of(p -> p.nested(v -> v.properties(tagsProps))));
-
         client.indices().putMapping(m -> m
                 .index(index)
-                .properties(props)
+                .properties(MovieMapping.properties())
         );
+        IndexGenerations.written(index);
+    }
+
+    /**
+     * Creates an index tuned for a bulk load into it, with the mapping of {@link #addMapping(ElasticsearchClient, String)}:
+     * no periodic refresh, no replicas and a translog fsynced every 30 seconds instead of on every request.
+     * {@link #finishBulkLoad(ElasticsearchClient, String, String)} makes it ready for search.
+     */
+    public static void createIndexForBulkLoad(ElasticsearchClient client, String index) throws IOException {
+        createIndexForBulkLoad(client, index, null);
+    }
+
+    /**
+     * @param shards primary shards of the index, {@code null} for the cluster default
+     */
+    public static void createIndexForBulkLoad(ElasticsearchClient client, String index, String shards) throws IOException {
+        client.indices().create(c -> c
+                .index(index)
+                .settings(s -> s
+                        .numberOfShards(shards)
+                        .refreshInterval(t -> t.time("-1"))
+                        .numberOfReplicas("0")
+                        .translog(t -> t
+                                .durability(TranslogDurability.Async)
+                                .syncInterval(i -> i.time("30s"))))
+                .mappings(m -> m.properties(MovieMapping.properties())));
+        IndexGenerations.written(index);
+    }
+
+    /**
+     * Restores search settings after a bulk load: refresh every second, {@code replicas} replicas and
+     * a translog fsynced on every request. Then refreshes the index and force-merges it into one segment.
+     */
+    public static void finishBulkLoad(ElasticsearchClient client, String index, String replicas) throws IOException {
+        client.indices().putSettings(p -> p
+                .index(index)
+                .settings(s -> s
+                        .refreshInterval(t -> t.time("1s"))
+                        .numberOfReplicas(replicas)
+                        .translog(t -> t.durability(TranslogDurability.Request))));
+        client.indices().refresh(r -> r.index(index));
+        client.indices().forcemerge(f -> f.index(index).maxNumSegments(1L));
+        IndexGenerations.refreshed(index);
+    }
+
+    /**
+     * @return {@code alias} followed by the current UTC time in milliseconds,
+     * e.g. {@code movie_full_nested_index_20240131235959123}. A name is never handed out twice, a call within
+     * the same millisecond or after the clock went back takes the millisecond after the last name.
+     */
+    public static String versionedIndexName(String alias) {
+        long version = LAST_INDEX_VERSION.updateAndGet(last -> Math.max(System.currentTimeMillis(), last + 1));
+        return alias + "_" + INDEX_VERSION_FORMAT.format(Instant.ofEpochMilli(version));
+    }
+
+    /**
+     * Points {@code alias} to {@code index} in one atomic request, readers see either the old or the new index.
+     * A concrete index still named like the alias, left by the delete-and-reload mode, is deleted by the same request.
+     *
+     * @return indices the alias pointed to before, to be deleted once they are not needed anymore
+     */
+    public static List<String> swapAlias(ElasticsearchClient client, String alias, String index) throws IOException {
+        boolean aliasExists = client.indices().existsAlias(e -> e.name(alias)).value();
+        List<String> previous = new ArrayList<>();
+        if (aliasExists) {
+            previous.addAll(client.indices().getAlias(g -> g.name(alias)).result().keySet());
+            previous.remove(index);
+        }
+        boolean concreteIndex = !aliasExists && client.indices().exists(e -> e.index(alias)).value();
+
+        client.indices().updateAliases(u -> {
+            u.actions(a -> a.add(add -> add.index(index).alias(alias)));
+            for (String old : previous) {
+                u.actions(a -> a.remove(remove -> remove.index(old).alias(alias)));
+            }
+            if (concreteIndex) {
+                u.actions(a -> a.removeIndex(remove -> remove.index(alias)));
+            }
+            return u;
+        });
+        IndexGenerations.written(alias);
+        return previous;
+    }
+
+    /**
+     * Rows of one window of a file, sent as one update per movie.
+     */
+    private static class UpdateWindow implements MappedCsvParser.RatingHandler, MappedCsvParser.TagIdHandler {
+        private final BulkIngester ingester;
+        private final String index;
+        private final StringDictionary dictionary = new StringDictionary();
+        private MovieColumnStore.Appender rows;
+        private int size;
+
+        UpdateWindow(BulkIngester ingester, String index) {
+            this.ingester = ingester;
+            this.index = index;
+            this.rows = new MovieColumnStore.Appender(dictionary);
+        }
+
+        @Override
+        public void rating(long userId, long movieId, double rating, long timestamp) {
+            rows.rating(userId, movieId, rating, timestamp);
+            size++;
+        }
+
+        @Override
+        public void tag(long userId, long movieId, int tagId, long timestamp) {
+            rows.tag(userId, movieId, tagId, timestamp);
+            size++;
+        }
+
+        /**
+         * Sends one update per movie of the window and waits for them, so the next window cannot overtake it.
+         */
+        void flush() {
+            if (size == 0) {
+                return;
+            }
+            MovieColumnStore window = MovieColumnStore.merge(Collections.singletonList(rows), dictionary);
+            for (long movieId : window.movieIds()) {
+                ingester.update(index, Long.toString(movieId), out -> AppendScript.writeUpdate(out, window, movieId));
+            }
+            ingester.flushAndWait();
+            rows = new MovieColumnStore.Appender(dictionary);
+            size = 0;
+        }
+    }
+
+    private static class GroupedRatings implements MappedCsvParser.RatingHandler {
+        private final Map<Long, List<Movie.Rating>> ratings = new HashMap<>();
+
+        @Override
+        public void rating(long userId, long movieId, double rating, long timestamp) {
+            ratings.computeIfAbsent(movieId, id -> new ArrayList<>()).add(new Movie.Rating(movieId, userId, rating));
+        }
+    }
+
+    private static class GroupedTags implements MappedCsvParser.TagHandler {
+        private final Map<Long, List<Movie.Tag>> tags = new HashMap<>();
+
+        @Override
+        public void tag(long userId, long movieId, String tag, long timestamp) {
+            tags.computeIfAbsent(movieId, id -> new ArrayList<>()).add(new Movie.Tag(userId, movieId, tag));
+        }
     }
 }
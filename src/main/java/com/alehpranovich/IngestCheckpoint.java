@@ -0,0 +1,93 @@
+package com.alehpranovich;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Byte offsets of the CSV files already ingested, kept in a properties file:
+ * <pre>
+ * ratings.csv.committed=1048576
+ * ratings.csv.pending=1050112
+ * </pre>
+ * {@code committed} is the end of the rows acknowledged by Elasticsearch. {@code pending} is the end of the rows
+ * of a run that has not finished, a resumed run ingests exactly the same rows again, so the per-movie offsets
+ * checked by {@link DeltaIngest} can tell which updates were already applied.
+ */
+public class IngestCheckpoint {
+
+    private static final String COMMITTED = ".committed";
+    private static final String PENDING = ".pending";
+
+    private final Properties offsets;
+
+    private IngestCheckpoint(Properties offsets) {
+        this.offsets = offsets;
+    }
+
+    public static IngestCheckpoint empty() {
+        return new IngestCheckpoint(new Properties());
+    }
+
+    /**
+     * @return the saved checkpoint, or an empty one if the file does not exist
+     */
+    public static IngestCheckpoint load(Path file) throws IOException {
+        Properties offsets = new Properties();
+        if (Files.exists(file)) {
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                offsets.load(reader);
+            }
+        }
+        return new IngestCheckpoint(offsets);
+    }
+
+    /**
+     * Writes a temporary file and moves it over {@code file}, so a crash never leaves a half-written checkpoint.
+     */
+    public void save(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            offsets.store(writer, "Ingested byte offsets");
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return 0 if nothing of the file was ingested yet
+     */
+    public long committed(Path csv) {
+        return Long.parseLong(offsets.getProperty(csv.getFileName() + COMMITTED, "0"));
+    }
+
+    /**
+     * @return -1 if there is no unfinished run
+     */
+    public long pending(Path csv) {
+        return Long.parseLong(offsets.getProperty(csv.getFileName() + PENDING, "-1"));
+    }
+
+    public void setPending(Path csv, long offset) {
+        offsets.setProperty(csv.getFileName() + PENDING, Long.toString(offset));
+    }
+
+    public void setCommitted(Path csv, long offset) {
+        offsets.setProperty(csv.getFileName() + COMMITTED, Long.toString(offset));
+        offsets.remove(csv.getFileName() + PENDING);
+    }
+
+    /**
+     * Moves the pending offset of {@code csv}, if any, to committed.
+     */
+    public void commit(Path csv) {
+        long pending = pending(csv);
+        if (pending >= 0) {
+            setCommitted(csv, pending);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.alehpranovich;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.IOException;
+import java.util.function.Function;
+
+/**
+ * Concurrency and batching settings of {@link IngestPipeline}.
+ * {@link #fromEnv()} overrides the defaults with {@code INGEST_*} environment variables.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class IngestConfig {
+
+    /**
+     * Threads parsing the ratings and tags files, each file gets its own pool of this size.
+     */
+    @Builder.Default
+    private int parseThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Threads serializing documents into bulk request bodies.
+     */
+    @Builder.Default
+    private int builderThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Bulk requests in flight at the same time, per shard when {@link #sharded}.
+     */
+    @Builder.Default
+    private int senders = 2;
+
+    /**
+     * Capacity of the queue between the movies parser and the document builders.
+     */
+    @Builder.Default
+    private int queueCapacity = 10_000;
+
+    @Builder.Default
+    private int maxOperations = BulkIngester.DEFAULT_MAX_OPERATIONS;
+
+    @Builder.Default
+    private long maxBytes = BulkIngester.DEFAULT_MAX_BYTES;
+
+    @Builder.Default
+    private long flushIntervalMillis = 1000;
+
+    /**
+     * Partitions documents by the shard they route to, each shard gets its own bulk requests, see {@link ShardedIngester}.
+     */
+    private boolean sharded;
+
+    /**
+     * Sizes bulk requests and their concurrency from response latency and 429s, see {@link AdaptiveBulkController}.
+     * {@link #maxSenders} and {@link #maxOperations} become upper bounds, {@link #senders} is not used.
+     */
+    private boolean adaptive;
+
+    /**
+     * Bulk requests the {@link #adaptive} ingester may have in flight, per shard when {@link #sharded}.
+     * It starts with one and adds more while the cluster keeps up.
+     */
+    @Builder.Default
+    private int maxSenders = 8;
+
+    /**
+     * Bulk latency the {@link #adaptive} ingester aims at.
+     */
+    @Builder.Default
+    private long targetLatencyMillis = 1000;
+
+    /**
+     * Rating and tag rows held in heap together while a {@link MovieSnapshot} is written, more are spilled to sorted
+     * runs on disk.
+     */
+    @Builder.Default
+    private int spillRows = SortedRuns.defaultMaxRows();
+
+    public static IngestConfig fromEnv() {
+        IngestConfig defaults = IngestConfig.builder().build();
+        return IngestConfig.builder()
+                .parseThreads(env("INGEST_PARSE_THREADS", Integer::valueOf, defaults.getParseThreads()))
+                .builderThreads(env("INGEST_BUILDER_THREADS", Integer::valueOf, defaults.getBuilderThreads()))
+                .senders(env("INGEST_SENDERS", Integer::valueOf, defaults.getSenders()))
+                .queueCapacity(env("INGEST_QUEUE_CAPACITY", Integer::valueOf, defaults.getQueueCapacity()))
+                .maxOperations(env("INGEST_BULK_MAX_OPERATIONS", Integer::valueOf, defaults.getMaxOperations()))
+                .maxBytes(env("INGEST_BULK_MAX_BYTES", Long::valueOf, defaults.getMaxBytes()))
+                .flushIntervalMillis(env("INGEST_BULK_FLUSH_INTERVAL_MS", Long::valueOf, defaults.getFlushIntervalMillis()))
+                .sharded(env("INGEST_SHARDED", Boolean::valueOf, defaults.isSharded()))
+                .adaptive(env("INGEST_ADAPTIVE", Boolean::valueOf, defaults.isAdaptive()))
+                .maxSenders(env("INGEST_MAX_SENDERS", Integer::valueOf, defaults.getMaxSenders()))
+                .targetLatencyMillis(env("INGEST_TARGET_LATENCY_MS", Long::valueOf, defaults.getTargetLatencyMillis()))
+                .spillRows(env("INGEST_SPILL_ROWS", Integer::valueOf, defaults.getSpillRows()))
+                .build();
+    }
+
+    public BulkIngester createIngester(ElasticsearchClient client, IngestMetrics metrics) {
+        return createIngester(client, metrics, null);
+    }
+
+    /**
+     * @param name prefix of the ingester's gauges, {@code null} for the default
+     */
+    public BulkIngester createIngester(ElasticsearchClient client, IngestMetrics metrics, String name) {
+        return BulkIngester.builder()
+                .client(client)
+                .maxOperations(maxOperations)
+                .maxBytes(maxBytes)
+                .flushIntervalMillis(flushIntervalMillis)
+                .maxConcurrentRequests(adaptive ? maxSenders : senders)
+                .targetLatencyMillis(adaptive ? targetLatencyMillis : null)
+                .metrics(metrics)
+                .name(name)
+                .build();
+    }
+
+    /**
+     * Ingester of documents bound for {@code index}: one per shard of the index when {@link #sharded},
+     * otherwise a single one.
+     */
+    public ShardedIngester createIndexIngester(ElasticsearchClient client, IngestMetrics metrics, String index)
+            throws IOException {
+        if (!sharded) {
+            return new ShardedIngester(ShardRouting.of(1, 1), shard -> createIngester(client, metrics));
+        }
+        ShardRouting routing = ShardRouting.forIndex(client, index);
+        System.out.println("Ingesting into " + routing.numberOfShards() + " shards of " + index + " separately");
+        return new ShardedIngester(routing, shard -> createIngester(client, metrics, "bulk.shard" + shard));
+    }
+
+    private static <T> T env(String name, Function<String, T> parser, T defaultValue) {
+        String value = System.getenv(name);
+        return value != null ? parser.apply(value) : defaultValue;
+    }
+}
@@ -0,0 +1,308 @@
+package com.alehpranovich;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters of the ingest pipeline: docs and bytes per stage (parse, serialize, bulk), an HDR histogram of bulk
+ * request latency, retry, rejection and failure counts, and gauges such as queue depths.
+ * <p>
+ * Exposed via JMX ({@link #registerMBean(String)}), as a periodic summary line ({@link #startReporting(long)})
+ * and as a flat snapshot pushed to any metrics registry added with {@link #addSink(Consumer)}.
+ */
+public class IngestMetrics implements IngestMetricsMXBean {
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final LongAdder parsedDocs = new LongAdder();
+    private final LongAdder parsedBytes = new LongAdder();
+    private final LongAdder serializedDocs = new LongAdder();
+    private final LongAdder serializedBytes = new LongAdder();
+    private final LongAdder bulkRequests = new LongAdder();
+    private final LongAdder bulkDocs = new LongAdder();
+    private final LongAdder bulkBytes = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder failedOperations = new LongAdder();
+
+    /**
+     * Bulk request latency in microseconds.
+     */
+    private final Recorder bulkLatency = new Recorder(SIGNIFICANT_DIGITS);
+    private final Histogram totalBulkLatency = new Histogram(SIGNIFICANT_DIGITS);
+    private Histogram intervalBulkLatency;
+
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final Set<String> gaugePrefixes = ConcurrentHashMap.newKeySet();
+    private final List<Consumer<Map<String, Number>>> sinks = new CopyOnWriteArrayList<>();
+
+    public void parsed(long docs, long bytes) {
+        parsedDocs.add(docs);
+        parsedBytes.add(bytes);
+    }
+
+    public void serialized(long docs, long bytes) {
+        serializedDocs.add(docs);
+        serializedBytes.add(bytes);
+    }
+
+    public void bulkCompleted(long docs, long bytes, long latencyNanos) {
+        bulkRequests.increment();
+        bulkDocs.add(docs);
+        bulkBytes.add(bytes);
+        bulkLatency.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(latencyNanos)));
+    }
+
+    public void retried(long operations) {
+        retries.add(operations);
+    }
+
+    public void rejected(long operations) {
+        rejections.add(operations);
+    }
+
+    public void failed(long operations) {
+        failedOperations.add(operations);
+    }
+
+    public void registerGauge(String name, LongSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    public void unregisterGauge(String name) {
+        gauges.remove(name);
+    }
+
+    /**
+     * Reserves {@code prefix} for the gauges of one component, or {@code prefix-2}, {@code prefix-3}, ... while
+     * other components hold it, so components open at the same time never overwrite each other's gauges.
+     *
+     * @return the reserved prefix, free it with {@link #releaseGaugePrefix(String)}
+     */
+    public String reserveGaugePrefix(String prefix) {
+        String reserved = prefix;
+        for (int i = 2; !gaugePrefixes.add(reserved); i++) {
+            reserved = prefix + "-" + i;
+        }
+        return reserved;
+    }
+
+    public void releaseGaugePrefix(String prefix) {
+        gaugePrefixes.remove(prefix);
+    }
+
+    public void addSink(Consumer<Map<String, Number>> sink) {
+        sinks.add(sink);
+    }
+
+    /**
+     * Registers this instance as {@code com.alehpranovich:type=IngestMetrics,name=<name>}.
+     */
+    public void registerMBean(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(this, new ObjectName("com.alehpranovich:type=IngestMetrics,name=" + name));
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register ingest metrics MBean " + name, e);
+        }
+    }
+
+    /**
+     * Prints a summary line every {@code intervalMillis} and pushes a snapshot to the sinks.
+     * Closing the reporter prints the last line.
+     */
+    public Reporter startReporting(long intervalMillis) {
+        return new Reporter(intervalMillis);
+    }
+
+    /**
+     * Cumulative values, latencies in milliseconds.
+     */
+    public Map<String, Number> snapshot() {
+        Map<String, Number> snapshot = new LinkedHashMap<>();
+        snapshot.put("parse.docs", getParsedDocs());
+        snapshot.put("parse.bytes", getParsedBytes());
+        snapshot.put("serialize.docs", getSerializedDocs());
+        snapshot.put("serialize.bytes", getSerializedBytes());
+        snapshot.put("bulk.requests", getBulkRequests());
+        snapshot.put("bulk.docs", getBulkDocs());
+        snapshot.put("bulk.bytes", getBulkBytes());
+        snapshot.put("bulk.retries", getRetries());
+        snapshot.put("bulk.rejections", getRejections());
+        snapshot.put("bulk.failed", getFailedOperations());
+        Histogram latency = latency();
+        snapshot.put("bulk.latency.p50.ms", millis(latency.getValueAtPercentile(50)));
+        snapshot.put("bulk.latency.p99.ms", millis(latency.getValueAtPercentile(99)));
+        snapshot.put("bulk.latency.max.ms", millis(latency.getMaxValue()));
+        getGauges().forEach(snapshot::put);
+        return snapshot;
+    }
+
+    @Override
+    public long getParsedDocs() {
+        return parsedDocs.sum();
+    }
+
+    @Override
+    public long getParsedBytes() {
+        return parsedBytes.sum();
+    }
+
+    @Override
+    public long getSerializedDocs() {
+        return serializedDocs.sum();
+    }
+
+    @Override
+    public long getSerializedBytes() {
+        return serializedBytes.sum();
+    }
+
+    @Override
+    public long getBulkRequests() {
+        return bulkRequests.sum();
+    }
+
+    @Override
+    public long getBulkDocs() {
+        return bulkDocs.sum();
+    }
+
+    @Override
+    public long getBulkBytes() {
+        return bulkBytes.sum();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    @Override
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    @Override
+    public long getFailedOperations() {
+        return failedOperations.sum();
+    }
+
+    @Override
+    public double getBulkLatencyP50Millis() {
+        return millis(latency().getValueAtPercentile(50));
+    }
+
+    @Override
+    public double getBulkLatencyP99Millis() {
+        return millis(latency().getValueAtPercentile(99));
+    }
+
+    @Override
+    public double getBulkLatencyMaxMillis() {
+        return millis(latency().getMaxValue());
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+        Map<String, Long> values = new TreeMap<>();
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        return values;
+    }
+
+    /**
+     * @return copy of the cumulative bulk latency histogram
+     */
+    private synchronized Histogram latency() {
+        intervalBulkLatency = bulkLatency.getIntervalHistogram(intervalBulkLatency);
+        totalBulkLatency.add(intervalBulkLatency);
+        return totalBulkLatency.copy();
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    public class Reporter implements AutoCloseable {
+        private final ScheduledExecutorService scheduler;
+        private long lastNanos = System.nanoTime();
+        private Map<String, Number> last = snapshot();
+        private Histogram lastLatency = latency();
+
+        private Reporter(long intervalMillis) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "ingest-metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleAtFixedRate(this::report, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * <pre>
+         * ingest 10.0s: parse 1200 docs/s 0.1 MB/s | serialize 1100 docs/s 5.3 MB/s |
+         * bulk 3.0 req/s 1100 docs/s 5.3 MB/s p50=12.1ms p99=40.0ms max=55.2ms |
+         * retries=0 rejections=0 failed=0 | bulk.inFlightRequests=1 bulk.bufferedOperations=20
+         * </pre>
+         */
+        private synchronized void report() {
+            long nanos = System.nanoTime();
+            double seconds = Math.max(1e-9, (nanos - lastNanos) / 1e9);
+            Map<String, Number> current = snapshot();
+            Histogram latency = latency();
+            Histogram interval = latency.copy();
+            interval.subtract(lastLatency);
+
+            StringBuilder line = new StringBuilder()
+                    .append(String.format("ingest %.1fs:", seconds))
+                    .append(String.format(" parse %.0f docs/s %.1f MB/s |",
+                            rate(current, "parse.docs", seconds), rate(current, "parse.bytes", seconds) / 1e6))
+                    .append(String.format(" serialize %.0f docs/s %.1f MB/s |",
+                            rate(current, "serialize.docs", seconds), rate(current, "serialize.bytes", seconds) / 1e6))
+                    .append(String.format(" bulk %.1f req/s %.0f docs/s %.1f MB/s p50=%.1fms p99=%.1fms max=%.1fms |",
+                            rate(current, "bulk.requests", seconds), rate(current, "bulk.docs", seconds),
+                            rate(current, "bulk.bytes", seconds) / 1e6,
+                            millis(interval.getValueAtPercentile(50)), millis(interval.getValueAtPercentile(99)),
+                            millis(interval.getMaxValue())))
+                    .append(String.format(" retries=%d rejections=%d failed=%d |",
+                            current.get("bulk.retries").longValue(), current.get("bulk.rejections").longValue(),
+                            current.get("bulk.failed").longValue()));
+            getGauges().forEach((name, value) -> line.append(' ').append(name).append('=').append(value));
+            System.out.println(line);
+
+            for (Consumer<Map<String, Number>> sink : sinks) {
+                sink.accept(current);
+            }
+            lastNanos = nanos;
+            last = current;
+            lastLatency = latency;
+        }
+
+        private double rate(Map<String, Number> current, String name, double seconds) {
+            return (current.get(name).longValue() - last.get(name).longValue()) / seconds;
+        }
+
+        @Override
+        public void close() {
+            scheduler.shutdownNow();
+            report();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.alehpranovich;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link IngestMetrics}, registered by {@link IngestMetrics#registerMBean(String)}.
+ */
+public interface IngestMetricsMXBean {
+
+    long getParsedDocs();
+
+    long getParsedBytes();
+
+    long getSerializedDocs();
+
+    long getSerializedBytes();
+
+    long getBulkRequests();
+
+    long getBulkDocs();
+
+    long getBulkBytes();
+
+    long getRetries();
+
+    long getRejections();
+
+    long getFailedOperations();
+
+    double getBulkLatencyP50Millis();
+
+    double getBulkLatencyP99Millis();
+
+    double getBulkLatencyMaxMillis();
+
+    Map<String, Long> getGauges();
+}
@@ -0,0 +1,201 @@
+package com.alehpranovich;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Staged ingest of movies joined with ratings and tags:
+ *
+ * <pre>
+ * ratings.csv + tags.csv --(parallel parse)--> MovieColumnStore --+
+ *                                                                 |
+ * movies.csv --(parser)--> [bounded queue] --> N builders --------+--> BulkIngester --> M concurrent bulk senders
+ * </pre>
+ *
+ * A {@link MovieSnapshot} replaces both parsers and the column store, see {@link #run(Path, String)}.
+ *
+ * With {@link IngestConfig#isSharded()} every shard of the index gets its own {@link BulkIngester}, see {@link ShardedIngester}.
+ *
+ * Ratings, tags and movies are parsed at the same time. Builders start as soon as the column store is ready,
+ * the movies parser blocks when the queue is full and builders block when all senders are busy.
+ */
+public class IngestPipeline {
+
+    private static final Movie END = new Movie();
+
+    private final ElasticsearchClient client;
+    private final IngestConfig config;
+    private final IngestMetrics metrics;
+    private final StringDictionary genres = new StringDictionary();
+
+    public IngestPipeline(ElasticsearchClient client, IngestConfig config, IngestMetrics metrics) {
+        this.client = client;
+        this.config = config;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Ingests the complete lines of the ratings and tags files, a line still being appended is left for
+     * {@link DeltaIngest} like it does itself.
+     *
+     * @return offsets of the ingested ratings and tags, the starting point of {@link DeltaIngest}
+     */
+    public IngestCheckpoint run(Path moviesPath, Path ratingsPath, Path tagsPath, String index) throws IOException {
+        long ratingsEnd = MappedCsvParser.completeLinesEnd(ratingsPath);
+        long tagsEnd = MappedCsvParser.completeLinesEnd(tagsPath);
+        BlockingQueue<Movie> movies = new ArrayBlockingQueue<>(config.getQueueCapacity());
+        String gauges = metrics.reserveGaugePrefix("pipeline");
+        metrics.registerGauge(gauges + ".movieQueue", movies::size);
+        try {
+            ExecutorService executor = Executors.newFixedThreadPool(2 + config.getBuilderThreads(), runnable -> {
+                Thread thread = new Thread(runnable, "ingest-pipeline");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try (ShardedIngester ingester = config.createIndexIngester(client, metrics, index)) {
+                try {
+                    CompletableFuture<MovieColumnStore> store = CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return IndexUtil.readRatingsAndTags(ratingsPath, 0, ratingsEnd, tagsPath, 0, tagsEnd,
+                                    config.getParseThreads(), metrics);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }, executor);
+
+                    List<CompletableFuture<Void>> stages = new ArrayList<>();
+                    stages.add(stage(executor, () -> parseMovies(moviesPath, movies)));
+                    for (int i = 0; i < config.getBuilderThreads(); i++) {
+                        stages.add(stage(executor, () -> buildDocuments(movies, store.join(), ingester, index)));
+                    }
+                    await(stages);
+                } finally {
+                    executor.shutdownNow(); // interrupts stages blocked on a queue after a failure
+                }
+            }
+        } finally {
+            metrics.unregisterGauge(gauges + ".movieQueue");
+            metrics.releaseGaugePrefix(gauges);
+        }
+
+        IngestCheckpoint checkpoint = IngestCheckpoint.empty();
+        checkpoint.setCommitted(ratingsPath, ratingsEnd);
+        checkpoint.setCommitted(tagsPath, tagsEnd);
+        return checkpoint;
+    }
+
+    /**
+     * Indexes the movies of a snapshot, the builders decode its blocks in parallel.
+     *
+     * @return the offsets of the ratings and tags the snapshot was written from
+     */
+    public IngestCheckpoint run(Path snapshotPath, String index) throws IOException {
+        try (MovieSnapshot snapshot = MovieSnapshot.open(snapshotPath)) {
+            AtomicInteger nextBlock = new AtomicInteger();
+            ExecutorService executor = Executors.newFixedThreadPool(config.getBuilderThreads(), runnable -> {
+                Thread thread = new Thread(runnable, "ingest-pipeline");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try (ShardedIngester ingester = config.createIndexIngester(client, metrics, index)) {
+                try {
+                    List<CompletableFuture<Void>> stages = new ArrayList<>();
+                    for (int i = 0; i < config.getBuilderThreads(); i++) {
+                        stages.add(stage(executor, () -> buildDocuments(snapshot, nextBlock, ingester, index)));
+                    }
+                    await(stages);
+                } finally {
+                    executor.shutdownNow();
+                }
+            }
+            return snapshot.checkpoint();
+        }
+    }
+
+    private void buildDocuments(MovieSnapshot snapshot, AtomicInteger nextBlock, ShardedIngester ingester,
+                                String index) throws IOException {
+        for (int block = nextBlock.getAndIncrement(); block < snapshot.blockCount(); block = nextBlock.getAndIncrement()) {
+            MovieSnapshot.Block movies = snapshot.block(block);
+            metrics.parsed(movies.movies().size(), movies.compressedBytes());
+            for (Movie movie : movies.movies()) {
+                ingester.index(index, movie.getMovieId().toString(), movies.store().document(movie));
+            }
+        }
+    }
+
+    private void parseMovies(Path moviesPath, BlockingQueue<Movie> movies) throws IOException, InterruptedException {
+        try (Stream<Movie.MovieRaw> moviesRaw = IndexUtil.streamCSVFile(moviesPath, Movie.MovieRaw.class)) {
+            for (Iterator<Movie.MovieRaw> it = moviesRaw.iterator(); it.hasNext(); ) {
+                movies.put(Movie.fromRaw(it.next(), genres));
+                metrics.parsed(1, 0);
+            }
+        } finally {
+            movies.put(END);
+        }
+    }
+
+    private void buildDocuments(BlockingQueue<Movie> movies, MovieColumnStore store, ShardedIngester ingester,
+                                String index) throws InterruptedException {
+        while (true) {
+            Movie movie = movies.take();
+            if (movie == END) {
+                movies.put(END); // let the other builders finish too
+                return;
+            }
+            ingester.index(index, movie.getMovieId().toString(), store.document(movie));
+        }
+    }
+
+    private interface Stage {
+        void run() throws Exception;
+    }
+
+    private static CompletableFuture<Void> stage(ExecutorService executor, Stage stage) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                stage.run();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Waits for all stages, returns on the first failure.
+     */
+    private static void await(List<CompletableFuture<Void>> stages) throws IOException {
+        CompletableFuture<Void> all = CompletableFuture.allOf(stages.toArray(new CompletableFuture[0]));
+        stages.forEach(stage -> stage.whenComplete((result, e) -> {
+            if (e != null) {
+                all.completeExceptionally(e);
+            }
+        }));
+        try {
+            all.join();
+        } catch (CompletionException e) {
+            Throwable cause = e;
+            while ((cause instanceof CompletionException || cause instanceof UncheckedIOException)
+                    && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Ingest failed", cause);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.alehpranovich;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes JSON tokens as UTF-8 straight into a {@link BulkBuffer}, without intermediate Strings or char arrays.
+ * Callers are responsible for the structure (braces, commas), output matches what Jackson writes for the same values.
+ */
+public final class JsonBytes {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+
+    private JsonBytes() {
+    }
+
+    /**
+     * Encodes a constant fragment once, so it can be copied with {@link BulkBuffer#write(byte[])}.
+     */
+    public static byte[] ascii(String fragment) {
+        return fragment.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public static void writeLong(BulkBuffer out, long value) {
+        if (value == Long.MIN_VALUE) {
+            out.write(MIN_LONG, 0, MIN_LONG.length);
+            return;
+        }
+        if (value < 0) {
+            out.write('-');
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        out.ensureCapacity(out.size() + digits);
+        byte[] bytes = out.bytes();
+        int end = out.size() + digits;
+        for (int i = end - 1; i >= out.size(); i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        out.skip(digits);
+    }
+
+    /**
+     * Whole and half values below 10^7 (MovieLens ratings) are written without allocating,
+     * everything else falls back to {@link Double#toString(double)}.
+     */
+    public static void writeDouble(BulkBuffer out, double value) {
+        double halves = value * 2;
+        if (value >= 0 && value < 1e7 && halves == Math.rint(halves)) {
+            long whole = (long) halves;
+            writeLong(out, whole / 2);
+            out.write('.');
+            out.write(whole % 2 == 0 ? '0' : '5');
+            return;
+        }
+        writeAscii(out, Double.toString(value));
+    }
+
+    public static void writeString(BulkBuffer out, String value) {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    out.write(c);
+                } else {
+                    writeEscaped(out, c);
+                }
+            } else if (c < 0x800) {
+                out.write(0xc0 | c >> 6);
+                out.write(0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out.write(0xf0 | codePoint >> 18);
+                out.write(0x80 | codePoint >> 12 & 0x3f);
+                out.write(0x80 | codePoint >> 6 & 0x3f);
+                out.write(0x80 | codePoint & 0x3f);
+            } else {
+                out.write(0xe0 | c >> 12);
+                out.write(0x80 | c >> 6 & 0x3f);
+                out.write(0x80 | c & 0x3f);
+            }
+        }
+        out.write('"');
+    }
+
+    private static void writeAscii(BulkBuffer out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            out.write(value.charAt(i));
+        }
+    }
+
+    private static void writeEscaped(BulkBuffer out, char c) {
+        out.write('\\');
+        switch (c) {
+            case '"':
+                out.write('"');
+                break;
+            case '\\':
+                out.write('\\');
+                break;
+            case '\b':
+                out.write('b');
+                break;
+            case '\f':
+                out.write('f');
+                break;
+            case '\n':
+                out.write('n');
+                break;
+            case '\r':
+                out.write('r');
+                break;
+            case '\t':
+                out.write('t');
+                break;
+            default:
+                out.write('u');
+                out.write('0');
+                out.write('0');
+                out.write(HEX[c >> 4]);
+                out.write(HEX[c & 0xf]);
+        }
+    }
+}
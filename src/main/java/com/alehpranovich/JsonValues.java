@@ -0,0 +1,101 @@
+package com.alehpranovich;
+
+import jakarta.json.stream.JsonParser;
+import jakarta.json.stream.JsonParsingException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads single JSON values with a {@link JsonParser}, used by the readers {@link MappingProcessor} generates.
+ * Every method gets the event of the value, already returned by {@link JsonParser#next()}, and accepts
+ * the same input as Jackson: {@code null}, and numbers given as strings.
+ */
+public final class JsonValues {
+
+    private JsonValues() {
+    }
+
+    public interface ValueReader<T> {
+        T read(JsonParser parser, JsonParser.Event event);
+    }
+
+    public static Long readLong(JsonParser parser, JsonParser.Event event) {
+        switch (event) {
+            case VALUE_NUMBER:
+                return parser.isIntegralNumber() ? parser.getLong() : parser.getBigDecimal().longValue();
+            case VALUE_STRING:
+                return Long.valueOf(parser.getString());
+            case VALUE_NULL:
+                return null;
+            default:
+                throw unexpected(parser, event, "a number");
+        }
+    }
+
+    public static Integer readInteger(JsonParser parser, JsonParser.Event event) {
+        Long value = readLong(parser, event);
+        return value != null ? Math.toIntExact(value) : null;
+    }
+
+    public static Double readDouble(JsonParser parser, JsonParser.Event event) {
+        switch (event) {
+            case VALUE_NUMBER:
+                return parser.isIntegralNumber() ? (double) parser.getLong() : parser.getBigDecimal().doubleValue();
+            case VALUE_STRING:
+                return Double.valueOf(parser.getString());
+            case VALUE_NULL:
+                return null;
+            default:
+                throw unexpected(parser, event, "a number");
+        }
+    }
+
+    public static String readString(JsonParser parser, JsonParser.Event event) {
+        switch (event) {
+            case VALUE_STRING:
+            case VALUE_NUMBER:
+                return parser.getString();
+            case VALUE_NULL:
+                return null;
+            default:
+                throw unexpected(parser, event, "a string");
+        }
+    }
+
+    /**
+     * @return a mutable list, or {@code null}
+     */
+    public static <T> List<T> readList(JsonParser parser, JsonParser.Event event, ValueReader<T> elements) {
+        if (event == JsonParser.Event.VALUE_NULL) {
+            return null;
+        }
+        if (event != JsonParser.Event.START_ARRAY) {
+            throw unexpected(parser, event, "an array");
+        }
+        List<T> values = new ArrayList<>();
+        while ((event = parser.next()) != JsonParser.Event.END_ARRAY) {
+            values.add(elements.read(parser, event));
+        }
+        return values;
+    }
+
+    /**
+     * Checks that an object starts, before its fields are read.
+     *
+     * @return {@code false} for {@code null}
+     */
+    public static boolean startObject(JsonParser parser, JsonParser.Event event) {
+        if (event == JsonParser.Event.VALUE_NULL) {
+            return false;
+        }
+        if (event != JsonParser.Event.START_OBJECT) {
+            throw unexpected(parser, event, "an object");
+        }
+        return true;
+    }
+
+    private static JsonParsingException unexpected(JsonParser parser, JsonParser.Event event, String expected) {
+        return new JsonParsingException("Expected " + expected + " but found " + event, parser.getLocation());
+    }
+}
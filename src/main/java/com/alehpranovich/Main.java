@@ -3,12 +3,11 @@ package com.alehpranovich;
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
 
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.Collections;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Optional;
 
-import static com.alehpranovich.ClientBuilder.createClient;
 import static com.alehpranovich.IndexUtil.*;
 
 /**
@@ -20,45 +19,86 @@ public class Main {
     public static final String MOVIES_INDEX_NAME = "movie_full_nested_index";
 
     public static void main(String[] args) throws Exception {
-        String certPath = System.getenv("ELASTIC_CERT_PATH");
-        String userName = System.getenv("ELASTIC_USERNAME");
-        String password = System.getenv("ELASTIC_PASSWORD");
-        Integer elasticPort = Integer.valueOf(System.getenv("ELASTIC_PORT"));
+        Path dataDir = Paths.get(Optional.ofNullable(System.getenv("MOVIELENS_DATA_DIR")).orElse(RESOURCES_PATH));
 
-        ElasticsearchClient client = createClient(certPath, userName, password, elasticPort);
+        ElasticsearchClient client = TransportFactory.fromEnv().createClient();
 
-        List<Movie.MovieRaw> moviesRaw = readCSVFile("movies.csv", Movie.MovieRaw.class);
+        IngestMetrics metrics = new IngestMetrics();
+        metrics.registerMBean(MOVIES_INDEX_NAME);
+        IngestMetrics.Reporter reporter = metrics.startReporting(10_000);
 
-        List<Movie> movies = moviesRaw.stream()
-                .map(movieRaw -> Movie.builder()
-                        .movieId(movieRaw.getMovieId())
-                        .title(movieRaw.getTitle())
-                        .genres(Arrays.asList(movieRaw.getGenres().split("\\|")))
-                        .tags(Collections.emptyList())
-                        .ratings(Collections.emptyList())
-                        .build())
-                .collect(Collectors.toList());
+        Path checkpointFile = Paths.get(Optional.ofNullable(System.getenv("INGEST_CHECKPOINT_FILE"))
+                .orElse("ingest-checkpoint.properties"));
+        Path snapshotFile = Optional.ofNullable(System.getenv("INGEST_SNAPSHOT_FILE")).map(Paths::get).orElse(null);
+        String mode = Optional.ofNullable(System.getenv("INGEST_MODE")).orElse("full");
+        ingest(client, IngestConfig.fromEnv(), metrics, mode, dataDir, checkpointFile, snapshotFile);
+        reporter.close();
 
-        deleteIndexIfExists(client, MOVIES_INDEX_NAME);
-        createIndexIfNotExists(client, MOVIES_INDEX_NAME);
-        System.out.println("Index was created");
-
-        addMapping(client, MOVIES_INDEX_NAME);
-        System.out.println("Mapping was added");
-
-        indexMovies(client, movies, MOVIES_INDEX_NAME);
-        System.out.println("Movies were indexed");
-
-        indexRatings(client, "ratings_10k.csv", MOVIES_INDEX_NAME);
-        System.out.println("Ratings were indexed");
+        closeClient(client);
+    }
 
-        indexTags(client, "tags_10k.csv", MOVIES_INDEX_NAME);
-        System.out.println("Tags were indexed");
+    /**
+     * Runs one ingest {@code mode} ({@code full}, {@code rebuild}, {@code incremental} or {@code snapshot})
+     * of the files in {@code dataDir}, see {@code LocalIngestHarness} in the tests for running it without a cluster.
+     * {@code snapshot} writes {@code snapshotFile} from the files, {@code full} and {@code rebuild} index
+     * {@code snapshotFile} instead of the files when it is given, see {@link MovieSnapshot}.
+     *
+     * @param snapshotFile {@code null} to index the CSV files
+     */
+    public static void ingest(ElasticsearchClient client, IngestConfig config, IngestMetrics metrics, String mode,
+                              Path dataDir, Path checkpointFile, Path snapshotFile) throws IOException {
+        Path ratings = dataDir.resolve("ratings_10k.csv");
+        Path tags = dataDir.resolve("tags_10k.csv");
+        if ("snapshot".equals(mode)) {
+            if (snapshotFile == null) {
+                throw new IllegalArgumentException("INGEST_SNAPSHOT_FILE is required by the snapshot mode");
+            }
+            MovieSnapshot.write(dataDir.resolve("movies.csv"), ratings, tags, snapshotFile, config, metrics);
+            System.out.println("Snapshot " + snapshotFile + " was written");
+        } else if ("incremental".equals(mode)) {
+            new DeltaIngest(client, config, metrics).run(ratings, tags, checkpointFile, MOVIES_INDEX_NAME);
+        } else if ("rebuild".equals(mode)) {
+            String index = versionedIndexName(MOVIES_INDEX_NAME);
+            createIndexForBulkLoad(client, index, System.getenv("INDEX_SHARDS"));
+            System.out.println("Index " + index + " was created");
+
+            IngestCheckpoint checkpoint = run(new IngestPipeline(client, config, metrics), dataDir, ratings, tags,
+                    snapshotFile, index);
+            finishBulkLoad(client, index, Optional.ofNullable(System.getenv("INDEX_REPLICAS")).orElse("1"));
+            System.out.println("Movies with ratings and tags were indexed into " + index);
+
+            List<String> previous = swapAlias(client, MOVIES_INDEX_NAME, index);
+            checkpoint.save(checkpointFile);
+            System.out.println("Alias " + MOVIES_INDEX_NAME + " was moved to " + index);
+            for (String old : previous) {
+                deleteIndexIfExists(client, old);
+                System.out.println("Index " + old + " was deleted");
+            }
+        } else {
+            deleteIndexIfExists(client, MOVIES_INDEX_NAME);
+            createIndexIfNotExists(client, MOVIES_INDEX_NAME);
+            System.out.println("Index was created");
+
+            addMapping(client, MOVIES_INDEX_NAME);
+            System.out.println("Mapping was added");
+
+            IngestCheckpoint checkpoint = run(new IngestPipeline(client, config, metrics), dataDir, ratings, tags,
+                    snapshotFile, MOVIES_INDEX_NAME);
+            checkpoint.save(checkpointFile);
+            System.out.println("Movies with ratings and tags were indexed");
+        }
+    }
 
-        closeClient(client);
+    private static IngestCheckpoint run(IngestPipeline pipeline, Path dataDir, Path ratings, Path tags,
+                                        Path snapshotFile, String index) throws IOException {
+        if (snapshotFile != null) {
+            System.out.println("Indexing snapshot " + snapshotFile);
+            return pipeline.run(snapshotFile, index);
+        }
+        return pipeline.run(dataDir.resolve("movies.csv"), ratings, tags, index);
     }
 
     private static void closeClient(ElasticsearchClient client) throws IOException {
         client._transport().close();
     }
-}
\ No newline at end of file
+}
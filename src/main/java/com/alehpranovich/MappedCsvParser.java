@@ -0,0 +1,436 @@
+package com.alehpranovich;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Parses MovieLens {@code ratings*.csv} and {@code tags*.csv} files on several threads.
+ * <p>
+ * The file is memory-mapped and split at newline boundaries into chunks, every chunk is parsed by its own
+ * thread into its own handler. Numeric columns are read straight from the bytes into primitives,
+ * only the tag column becomes a {@link String}, or just a {@link StringDictionary} id with a {@link TagIdHandler}. Quoted fields ({@code "sci-fi, classic"}, {@code ""} escapes)
+ * are supported, line breaks inside quoted fields are not, MovieLens data files do not contain them.
+ *
+ * <pre>
+ * ratings: userId,movieId,rating,timestamp
+ * tags:    userId,movieId,tag,timestamp
+ * </pre>
+ */
+public class MappedCsvParser {
+
+    /**
+     * A chunk is mapped as a single {@link MappedByteBuffer}, so it has to stay below 2 GB.
+     */
+    private static final long MAX_CHUNK_SIZE = 1L << 30;
+
+    /**
+     * Digits of a decimal whose digits and power of ten are both exact doubles (below 2^53), so a single
+     * division rounds it correctly, the same as {@link Double#parseDouble(String)}.
+     */
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    public interface RatingHandler {
+        void rating(long userId, long movieId, double rating, long timestamp);
+    }
+
+    public interface TagHandler {
+        void tag(long userId, long movieId, String tag, long timestamp);
+    }
+
+    /**
+     * Gets the tag as an id of the {@link StringDictionary} passed to the parser.
+     */
+    public interface TagIdHandler {
+        void tag(long userId, long movieId, int tagId, long timestamp);
+    }
+
+    /**
+     * @return one handler per chunk, in file order
+     */
+    public static <H extends RatingHandler> List<H> parseRatings(Path path, int parallelism, Supplier<H> handlers) throws IOException {
+        return parseRatings(path, 0, Files.size(path), parallelism, handlers);
+    }
+
+    /**
+     * Parses the lines between the byte offsets {@code from} and {@code to}, both have to be line starts
+     * (or the end of the file). The header is skipped when {@code from} is 0.
+     *
+     * @return one handler per chunk, in file order
+     */
+    public static <H extends RatingHandler> List<H> parseRatings(Path path, long from, long to, int parallelism,
+                                                                 Supplier<H> handlers) throws IOException {
+        return parse(path, from, to, parallelism, handlers, (line, handler) -> handler.rating(
+                line.nextLong(),
+                line.nextLong(),
+                line.nextDouble(),
+                line.nextLong()));
+    }
+
+    /**
+     * @return one handler per chunk, in file order
+     */
+    public static <H extends TagHandler> List<H> parseTags(Path path, int parallelism, Supplier<H> handlers) throws IOException {
+        return parseTags(path, 0, Files.size(path), parallelism, handlers);
+    }
+
+    /**
+     * Same as {@link #parseRatings(Path, long, long, int, Supplier)} for tags.
+     *
+     * @return one handler per chunk, in file order
+     */
+    public static <H extends TagHandler> List<H> parseTags(Path path, long from, long to, int parallelism,
+                                                           Supplier<H> handlers) throws IOException {
+        return parse(path, from, to, parallelism, handlers, (line, handler) -> handler.tag(
+                line.nextLong(),
+                line.nextLong(),
+                line.nextString(),
+                line.nextLong()));
+    }
+
+    /**
+     * Same as {@link #parseTags(Path, long, long, int, Supplier)}, tags are looked up in {@code dictionary}
+     * straight from the bytes, so only tags seen for the first time become a {@link String}.
+     *
+     * @return one handler per chunk, in file order
+     */
+    public static <H extends TagIdHandler> List<H> parseTags(Path path, long from, long to, int parallelism,
+                                                             StringDictionary dictionary, Supplier<H> handlers)
+            throws IOException {
+        return parse(path, from, to, parallelism, handlers, (line, handler) -> handler.tag(
+                line.nextLong(),
+                line.nextLong(),
+                line.nextId(dictionary),
+                line.nextLong()));
+    }
+
+    /**
+     * @return offset right after the last line break, a line still being appended is left for the next run
+     */
+    public static long completeLinesEnd(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+            long end = channel.size();
+            while (end > 0) {
+                int length = (int) Math.min(buffer.capacity(), end);
+                buffer.clear().limit(length);
+                channel.read(buffer, end - length);
+                for (int i = length - 1; i >= 0; i--) {
+                    if (buffer.get(i) == '\n') {
+                        return end - length + i + 1;
+                    }
+                }
+                end -= length;
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * @return offset right after {@code lines} more lines starting at {@code from}, the header not counted
+     * when {@code from} is 0, or the file size when the file ends before
+     */
+    public static long linesEnd(Path path, long from, int lines) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long remaining = from == 0 ? lines + 1L : lines;
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            long position = from;
+            long size = channel.size();
+            while (position < size) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                for (int i = 0; i < read; i++) {
+                    if (buffer.get(i) == '\n' && --remaining == 0) {
+                        return position + i + 1;
+                    }
+                }
+                position += read;
+            }
+            return size;
+        }
+    }
+
+    private interface LineParser<H> {
+        void parse(Line line, H handler);
+    }
+
+    private static <H> List<H> parse(Path path, long from, long to, int parallelism, Supplier<H> handlers,
+                                     LineParser<H> parser) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = Math.min(to, channel.size());
+            long start = from == 0 ? nextLineStart(channel, 0) : from; // skip header
+            List<Long> boundaries = split(channel, Math.min(start, size), size, parallelism);
+
+            List<H> results = new ArrayList<>();
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int i = 0; i + 1 < boundaries.size(); i++) {
+                long chunkStart = boundaries.get(i);
+                long chunkEnd = boundaries.get(i + 1);
+                H handler = handlers.get();
+                results.add(handler);
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, chunkStart, chunkEnd - chunkStart);
+                tasks.add(() -> {
+                    Line line = new Line(chunk, chunkStart);
+                    while (line.next()) {
+                        parser.parse(line, handler);
+                    }
+                    return null;
+                });
+            }
+            invokeAll(tasks, parallelism);
+            return results;
+        }
+    }
+
+    private static List<Long> split(FileChannel channel, long start, long size, int parallelism) throws IOException {
+        int chunks = (int) Math.max(parallelism, (size - start + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+        long chunkSize = Math.max(1, (size - start) / chunks);
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(start);
+        long position = start;
+        while (position < size) {
+            long next = position + chunkSize >= size ? size : Math.min(size, nextLineStart(channel, position + chunkSize));
+            boundaries.add(next);
+            position = next;
+        }
+        return boundaries;
+    }
+
+    private static long nextLineStart(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long size = channel.size();
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private static void invokeAll(List<Callable<Void>> tasks, int parallelism) throws IOException {
+        int threads = Math.min(parallelism, tasks.size());
+        if (threads <= 1) {
+            // e.g. the windows of IndexUtil.indexRatings, parsed on the calling thread without starting a pool
+            for (Callable<Void> task : tasks) {
+                try {
+                    task.call();
+                } catch (Exception e) {
+                    throw new IOException("CSV parsing failed", e);
+                }
+            }
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("CSV parsing was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("CSV parsing failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Cursor over the lines of a chunk, fields are consumed left to right.
+     */
+    private static final class Line {
+        private final ByteBuffer chunk;
+        private final long fileOffset;
+        private final int limit;
+        private int position;
+        private int lineStart;
+        private boolean started;
+        private byte[] scratch = new byte[64];
+
+        Line(ByteBuffer chunk, long fileOffset) {
+            this.chunk = chunk;
+            this.fileOffset = fileOffset;
+            this.limit = chunk.limit();
+        }
+
+        /**
+         * Moves to the start of the next non-empty line.
+         */
+        boolean next() {
+            if (started) {
+                while (position < limit && chunk.get(position) != '\n') {
+                    position++;
+                }
+                position++;
+            }
+            started = true;
+            while (position < limit && (chunk.get(position) == '\n' || chunk.get(position) == '\r')) {
+                position++;
+            }
+            lineStart = position;
+            return position < limit;
+        }
+
+        long nextLong() {
+            boolean negative = false;
+            if (position < limit && chunk.get(position) == '-') {
+                negative = true;
+                position++;
+            }
+            long value = 0;
+            int digits = 0;
+            byte b;
+            while (position < limit && (b = chunk.get(position)) >= '0' && b <= '9') {
+                int digit = b - '0';
+                if (value > (Long.MAX_VALUE - digit) / 10) {
+                    throw malformed("number out of range");
+                }
+                value = value * 10 + digit;
+                position++;
+                digits++;
+            }
+            if (digits == 0) {
+                throw malformed("number expected");
+            }
+            endField();
+            return negative ? -value : value;
+        }
+
+        /**
+         * Plain decimals like {@code 3.5} of up to {@value #MAX_EXACT_DIGITS} digits are read straight from the bytes,
+         * anything else (a sign, an exponent, more digits) falls back to {@link Double#parseDouble(String)}.
+         */
+        double nextDouble() {
+            int fieldStart = position;
+            long digits = 0;
+            long scale = 1;
+            int digitCount = 0;
+            byte b;
+            while (position < limit && (b = chunk.get(position)) >= '0' && b <= '9') {
+                digits = digits * 10 + (b - '0');
+                position++;
+                digitCount++;
+            }
+            if (position < limit && chunk.get(position) == '.') {
+                position++;
+                while (position < limit && (b = chunk.get(position)) >= '0' && b <= '9'
+                        && digitCount <= MAX_EXACT_DIGITS) {
+                    digits = digits * 10 + (b - '0');
+                    scale *= 10;
+                    position++;
+                    digitCount++;
+                }
+            }
+            if (digitCount == 0 || digitCount > MAX_EXACT_DIGITS
+                    || position < limit && !isFieldEnd(chunk.get(position))) {
+                position = fieldStart;
+                return parseDouble();
+            }
+            endField();
+            // both are exact, the division is the only rounding
+            return digits / (double) scale;
+        }
+
+        private double parseDouble() {
+            int fieldStart = position;
+            while (position < limit && !isFieldEnd(chunk.get(position))) {
+                position++;
+            }
+            byte[] field = new byte[position - fieldStart];
+            for (int i = 0; i < field.length; i++) {
+                field[i] = chunk.get(fieldStart + i);
+            }
+            try {
+                double value = Double.parseDouble(new String(field, StandardCharsets.US_ASCII));
+                endField();
+                return value;
+            } catch (NumberFormatException e) {
+                position = fieldStart;
+                throw malformed("decimal number expected");
+            }
+        }
+
+        String nextString() {
+            int length = nextField();
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        int nextId(StringDictionary dictionary) {
+            int length = nextField();
+            return dictionary.id(scratch, 0, length);
+        }
+
+        /**
+         * Reads the field into {@code scratch}, without quotes and with {@code ""} unescaped.
+         *
+         * @return length of the field
+         */
+        private int nextField() {
+            int length = 0;
+            if (position < limit && chunk.get(position) == '"') {
+                position++;
+                while (position < limit) {
+                    byte b = chunk.get(position++);
+                    if (b == '"') {
+                        if (position < limit && chunk.get(position) == '"') {
+                            position++;
+                        } else {
+                            break;
+                        }
+                    }
+                    length = append(length, b);
+                }
+            } else {
+                byte b;
+                while (position < limit && (b = chunk.get(position)) != ',' && b != '\n' && b != '\r') {
+                    length = append(length, b);
+                    position++;
+                }
+            }
+            endField();
+            return length;
+        }
+
+        private int append(int length, byte b) {
+            if (length == scratch.length) {
+                scratch = Arrays.copyOf(scratch, length * 2);
+            }
+            scratch[length] = b;
+            return length + 1;
+        }
+
+        private static boolean isFieldEnd(byte b) {
+            return b == ',' || b == '\n' || b == '\r';
+        }
+
+        private void endField() {
+            if (position < limit && chunk.get(position) == ',') {
+                position++;
+            }
+        }
+
+        private IllegalArgumentException malformed(String message) {
+            return new IllegalArgumentException(message + " at byte " + (fileOffset + position)
+                    + " in line starting at byte " + (fileOffset + lineStart));
+        }
+    }
+}
@@ -1,23 +1,80 @@
 package com.alehpranovich;
 
+import co.elastic.clients.json.JsonpDeserializable;
+import co.elastic.clients.json.JsonpDeserializer;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.JsonpSerializable;
 import com.opencsv.bean.CsvBindByName;
+import jakarta.json.stream.JsonGenerator;
 import lombok.*;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import static com.alehpranovich.MappedField.FieldType.*;
+
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
 @Builder
 @ToString()
-public class Movie {
+@MappedType
+@JsonpDeserializable
+public class Movie implements JsonpSerializable {
+    /**
+     * Used by the client's JSON mapper instead of Jackson, see {@link MappingProcessor}.
+     */
+    public static final JsonpDeserializer<Movie> _DESERIALIZER = MovieMapping.DESERIALIZER;
+
+    @MappedField(LONG)
     private Long movieId;
+    @MappedField(TEXT)
     private String title;
+    @MappedField(KEYWORD)
     private List<String> genres;
+    @MappedField(NESTED)
     private List<Rating> ratings = Collections.emptyList();
+    @MappedField(NESTED)
     private List<Tag> tags = Collections.emptyList();
+    // precomputed from ratings and tags, see MovieAggregates
+    @MappedField(LONG)
+    private Long ratingCount;
+    @MappedField(DOUBLE)
+    private Double ratingSum;
+    @MappedField(DOUBLE)
+    private Double avgRating;
+    @MappedField(value = LONG, index = false)
+    private List<Long> ratingHistogram;
+    @MappedField(KEYWORD)
+    private List<String> topTags;
+    // end of the ratings and tags rows merged by DeltaIngest, and the files they are offsets in
+    @MappedField(value = LONG, index = false)
+    private Long ratingsOffset;
+    @MappedField(value = LONG, index = false)
+    private Long tagsOffset;
+    @MappedField(value = KEYWORD, index = false)
+    private String ratingsFile;
+    @MappedField(value = KEYWORD, index = false)
+    private String tagsFile;
+
+    /**
+     * @param genres dictionary of the pipeline, shared by the movies it reads, a few dozen values
+     */
+    public static Movie fromRaw(MovieRaw movieRaw, StringDictionary genres) {
+        return Movie.builder()
+                .movieId(movieRaw.getMovieId())
+                .title(movieRaw.getTitle())
+                .genres(genres.split(movieRaw.getGenres(), '|'))
+                .tags(Collections.emptyList())
+                .ratings(Collections.emptyList())
+                .build();
+    }
+
+    @Override
+    public void serialize(JsonGenerator generator, JsonpMapper mapper) {
+        MovieMapping.serialize(generator, this);
+    }
 
     @Data
     @AllArgsConstructor
@@ -36,9 +93,13 @@ public class Movie {
     @AllArgsConstructor
     @NoArgsConstructor
     @Builder
+    @MappedType
     public static class Rating {
+        @MappedField(LONG)
         private Long movieId;
+        @MappedField(LONG)
         private Long userId;
+        @MappedField(DOUBLE)
         private Double rating;
     }
 
@@ -46,9 +107,13 @@ public class Movie {
     @AllArgsConstructor
     @NoArgsConstructor
     @Builder
+    @MappedType
     public static class Tag {
+        @MappedField(LONG)
         private Long userId;
+        @MappedField(LONG)
         private Long movieId;
+        @MappedField(KEYWORD)
         private String tag;
     }
 }
@@ -0,0 +1,92 @@
+package com.alehpranovich;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rating statistics and most frequent tags of one movie, stored as top-level fields
+ * ({@code ratingCount}, {@code ratingSum}, {@code avgRating}, {@code ratingHistogram}, {@code topTags}),
+ * so searches sort and filter on doc values instead of running nested aggregations over {@code ratings}.
+ * {@link AppendScript} keeps them up to date when rows are appended.
+ */
+public class MovieAggregates {
+
+    /**
+     * One bucket per half star, from 0.5 to 5.0.
+     */
+    public static final int HISTOGRAM_BUCKETS = 10;
+    public static final int TOP_TAGS = 5;
+
+    private long ratingCount;
+    private double ratingSum;
+    private final long[] histogram = new long[HISTOGRAM_BUCKETS];
+    private final Map<String, Integer> tagCounts = new LinkedHashMap<>();
+
+    public static MovieAggregates of(Movie movie) {
+        MovieAggregates aggregates = new MovieAggregates();
+        if (movie.getRatings() != null) {
+            movie.getRatings().forEach(rating -> aggregates.rating(rating.getRating()));
+        }
+        if (movie.getTags() != null) {
+            movie.getTags().forEach(tag -> aggregates.tag(tag.getTag()));
+        }
+        return aggregates;
+    }
+
+    public void rating(double rating) {
+        ratingCount++;
+        ratingSum += rating;
+        histogram[bucket(rating)]++;
+    }
+
+    public void tag(String tag) {
+        tagCounts.merge(tag, 1, Integer::sum);
+    }
+
+    public long getRatingCount() {
+        return ratingCount;
+    }
+
+    public double getRatingSum() {
+        return ratingSum;
+    }
+
+    /**
+     * @return {@code null} for a movie without ratings
+     */
+    public Double getAvgRating() {
+        return ratingCount > 0 ? ratingSum / ratingCount : null;
+    }
+
+    public List<Long> getRatingHistogram() {
+        List<Long> buckets = new ArrayList<>(HISTOGRAM_BUCKETS);
+        for (long count : histogram) {
+            buckets.add(count);
+        }
+        return buckets;
+    }
+
+    /**
+     * @return up to {@link #TOP_TAGS} most frequent tags, equally frequent ones in the order they were first seen
+     */
+    public List<String> getTopTags() {
+        List<String> tags = new ArrayList<>(tagCounts.keySet());
+        tags.sort((a, b) -> tagCounts.get(b) - tagCounts.get(a));
+        return new ArrayList<>(tags.subList(0, Math.min(TOP_TAGS, tags.size())));
+    }
+
+    public Movie applyTo(Movie movie) {
+        movie.setRatingCount(ratingCount);
+        movie.setRatingSum(ratingSum);
+        movie.setAvgRating(getAvgRating());
+        movie.setRatingHistogram(getRatingHistogram());
+        movie.setTopTags(getTopTags());
+        return movie;
+    }
+
+    static int bucket(double rating) {
+        return (int) Math.max(0, Math.min(HISTOGRAM_BUCKETS - 1, Math.round(rating * 2) - 1));
+    }
+}
@@ -0,0 +1,358 @@
+package com.alehpranovich;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Ratings and tags of all movies kept in primitive columns, grouped by movieId.
+ * <p>
+ * Rows are appended by one {@link Appender} per parser chunk and merged by {@link #merge(List, StringDictionary)}.
+ * Within a movie, rows keep their file order. Tag strings are stored as ids of a shared {@link StringDictionary}.
+ * {@link #document(Movie)} writes the nested {@code ratings} and {@code tags} arrays straight from the columns
+ * with {@link MovieSerializer}, no {@link Movie.Rating} or {@link Movie.Tag} objects are created.
+ * The {@link MovieAggregates} fields of a movie are computed from the same rows while it is written,
+ * tags are counted by id and only the top ones are written, from their cached JSON.
+ */
+public class MovieColumnStore {
+
+    private static final ThreadLocal<AggregateCounts> AGGREGATE_COUNTS = ThreadLocal.withInitial(AggregateCounts::new);
+
+    private final Columns ratings;
+    private final Columns tags;
+    private final StringDictionary dictionary;
+
+    private MovieColumnStore(Columns ratings, Columns tags, StringDictionary dictionary) {
+        this.ratings = ratings;
+        this.tags = tags;
+        this.dictionary = dictionary;
+    }
+
+    public static MovieColumnStore merge(List<Appender> appenders, StringDictionary dictionary) {
+        int ratingRows = 0;
+        int tagRows = 0;
+        for (Appender appender : appenders) {
+            ratingRows = Math.addExact(ratingRows, appender.ratingRows);
+            tagRows = Math.addExact(tagRows, appender.tagRows);
+        }
+
+        long[] ratingMovieIds = new long[ratingRows];
+        long[] ratingUserIds = new long[ratingRows];
+        double[] ratingValues = new double[ratingRows];
+        long[] tagMovieIds = new long[tagRows];
+        long[] tagUserIds = new long[tagRows];
+        int[] tagIds = new int[tagRows];
+        int ratingOffset = 0;
+        int tagOffset = 0;
+        for (Appender appender : appenders) {
+            System.arraycopy(appender.ratingMovieIds, 0, ratingMovieIds, ratingOffset, appender.ratingRows);
+            System.arraycopy(appender.ratingUserIds, 0, ratingUserIds, ratingOffset, appender.ratingRows);
+            System.arraycopy(appender.ratingValues, 0, ratingValues, ratingOffset, appender.ratingRows);
+            ratingOffset += appender.ratingRows;
+            System.arraycopy(appender.tagMovieIds, 0, tagMovieIds, tagOffset, appender.tagRows);
+            System.arraycopy(appender.tagUserIds, 0, tagUserIds, tagOffset, appender.tagRows);
+            System.arraycopy(appender.tagIds, 0, tagIds, tagOffset, appender.tagRows);
+            tagOffset += appender.tagRows;
+        }
+
+        int[] ratingOrder = sortByMovieId(ratingMovieIds);
+        int[] tagOrder = sortByMovieId(tagMovieIds);
+        return new MovieColumnStore(
+                new Columns(ratingMovieIds, permute(ratingUserIds, ratingOrder), null, permute(ratingValues, ratingOrder)),
+                new Columns(tagMovieIds, permute(tagUserIds, tagOrder), permute(tagIds, tagOrder), null),
+                dictionary);
+    }
+
+    public int ratingRows() {
+        return ratings.movieIds.length;
+    }
+
+    public int tagRows() {
+        return tags.movieIds.length;
+    }
+
+    public int ratingCount(long movieId) {
+        return ratings.count(movieId);
+    }
+
+    public int tagCount(long movieId) {
+        return tags.count(movieId);
+    }
+
+    /**
+     * @return distinct movieIds having ratings or tags, in ascending order
+     */
+    public long[] movieIds() {
+        long[] ids = new long[ratings.movieIds.length + tags.movieIds.length];
+        int count = 0;
+        int r = 0;
+        int t = 0;
+        while (r < ratings.movieIds.length || t < tags.movieIds.length) {
+            long next;
+            if (t == tags.movieIds.length || (r < ratings.movieIds.length && ratings.movieIds[r] <= tags.movieIds[t])) {
+                next = ratings.movieIds[r++];
+            } else {
+                next = tags.movieIds[t++];
+            }
+            if (count == 0 || ids[count - 1] != next) {
+                ids[count++] = next;
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * @return the movie as a bulk document source, with ratings and tags taken from this store
+     */
+    public BulkIngester.DocumentWriter document(Movie movie) {
+        return out -> MovieSerializer.writeMovie(out, movie, this);
+    }
+
+    /**
+     * Writes the {@link MovieAggregates} fields of the movie, computed over its rows in this store,
+     * the same values {@link MovieAggregates#of(Movie)} computes from the objects.
+     */
+    public void writeAggregates(long movieId, BulkBuffer out) {
+        AggregateCounts counts = AGGREGATE_COUNTS.get();
+        Arrays.fill(counts.histogram, 0);
+        double sum = 0;
+        int from = ratings.from(movieId);
+        int to = ratings.to(from, movieId);
+        for (int row = from; row < to; row++) {
+            double rating = ratings.values[row];
+            sum += rating;
+            counts.histogram[MovieAggregates.bucket(rating)]++;
+        }
+        MovieSerializer.writeRatingAggregates(out, to - from, sum, counts.histogram);
+
+        from = tags.from(movieId);
+        for (int row = from, end = tags.to(from, movieId); row < end; row++) {
+            counts.tag(tags.ids[row]);
+        }
+        MovieSerializer.writeTopTags(out, counts.topTags, counts.selectTopTags(), dictionary);
+    }
+
+    /**
+     * Writes the elements of the nested {@code ratings} array, see {@link MovieSerializer#writeRating}.
+     */
+    public void writeRatings(long movieId, BulkBuffer out) {
+        int from = ratings.from(movieId);
+        for (int row = from, to = ratings.to(from, movieId); row < to; row++) {
+            MovieSerializer.writeRating(out, row - from, movieId, ratings.userIds[row], ratings.values[row]);
+        }
+    }
+
+    /**
+     * Writes the elements of the nested {@code tags} array, see {@link MovieSerializer#writeTag}.
+     */
+    public void writeTags(long movieId, BulkBuffer out) {
+        int from = tags.from(movieId);
+        for (int row = from, to = tags.to(from, movieId); row < to; row++) {
+            MovieSerializer.writeTag(out, row - from, tags.userIds[row], movieId, dictionary.json(tags.ids[row]));
+        }
+    }
+
+    /**
+     * Sorts {@code movieIds} in place, the sort is stable.
+     *
+     * @return the original row of every sorted row
+     */
+    private static int[] sortByMovieId(long[] movieIds) {
+        long[] keys = new long[movieIds.length];
+        for (int row = 0; row < movieIds.length; row++) {
+            if (movieIds[row] < 0 || movieIds[row] > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("movieId out of range: " + movieIds[row]);
+            }
+            keys[row] = movieIds[row] << 32 | row;
+        }
+        Arrays.parallelSort(keys);
+        int[] order = new int[keys.length];
+        for (int row = 0; row < keys.length; row++) {
+            movieIds[row] = keys[row] >>> 32;
+            order[row] = (int) keys[row];
+        }
+        return order;
+    }
+
+    private static long[] permute(long[] column, int[] order) {
+        long[] sorted = new long[order.length];
+        for (int row = 0; row < order.length; row++) {
+            sorted[row] = column[order[row]];
+        }
+        return sorted;
+    }
+
+    private static int[] permute(int[] column, int[] order) {
+        int[] sorted = new int[order.length];
+        for (int row = 0; row < order.length; row++) {
+            sorted[row] = column[order[row]];
+        }
+        return sorted;
+    }
+
+    private static double[] permute(double[] column, int[] order) {
+        double[] sorted = new double[order.length];
+        for (int row = 0; row < order.length; row++) {
+            sorted[row] = column[order[row]];
+        }
+        return sorted;
+    }
+
+    /**
+     * Rows sorted by movieId, {@code ids} holds tag ids and {@code values} rating values.
+     */
+    private static final class Columns {
+        private final long[] movieIds;
+        private final long[] userIds;
+        private final int[] ids;
+        private final double[] values;
+
+        Columns(long[] movieIds, long[] userIds, int[] ids, double[] values) {
+            this.movieIds = movieIds;
+            this.userIds = userIds;
+            this.ids = ids;
+            this.values = values;
+        }
+
+        /**
+         * @return the first row of the movie, or the row it would be inserted at
+         */
+        int from(long movieId) {
+            int low = 0;
+            int high = movieIds.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (movieIds[middle] < movieId) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        int to(int from, long movieId) {
+            int to = from;
+            while (to < movieIds.length && movieIds[to] == movieId) {
+                to++;
+            }
+            return to;
+        }
+
+        int count(long movieId) {
+            int from = from(movieId);
+            return to(from, movieId) - from;
+        }
+    }
+
+    /**
+     * Per-thread scratch of {@link #writeAggregates(long, BulkBuffer)}, tag counts are indexed by dictionary id.
+     */
+    private static final class AggregateCounts {
+        private final long[] histogram = new long[MovieAggregates.HISTOGRAM_BUCKETS];
+        private final int[] topTags = new int[MovieAggregates.TOP_TAGS];
+        private int[] tagCounts = new int[64];
+        private int[] seenTags = new int[16];
+        private int seen;
+
+        void tag(int id) {
+            if (id >= tagCounts.length) {
+                tagCounts = Arrays.copyOf(tagCounts, Math.max(id + 1, tagCounts.length * 2));
+            }
+            if (tagCounts[id]++ == 0) {
+                if (seen == seenTags.length) {
+                    seenTags = Arrays.copyOf(seenTags, seen * 2);
+                }
+                seenTags[seen++] = id;
+            }
+        }
+
+        /**
+         * Moves the most frequent tags to {@link #topTags}, equally frequent ones in the order they were first seen,
+         * and clears the counts.
+         *
+         * @return number of top tags
+         */
+        int selectTopTags() {
+            int selected = 0;
+            for (; selected < topTags.length; selected++) {
+                int best = -1;
+                int bestCount = 0;
+                for (int i = 0; i < seen; i++) {
+                    int count = tagCounts[seenTags[i]];
+                    if (count > bestCount) {
+                        best = seenTags[i];
+                        bestCount = count;
+                    }
+                }
+                if (best < 0) {
+                    break;
+                }
+                topTags[selected] = best;
+                tagCounts[best] = 0;
+            }
+            for (int i = 0; i < seen; i++) {
+                tagCounts[seenTags[i]] = 0;
+            }
+            seen = 0;
+            return selected;
+        }
+    }
+
+    /**
+     * Collects the rows of one parser chunk.
+     */
+    public static class Appender implements MappedCsvParser.RatingHandler, MappedCsvParser.TagHandler,
+            MappedCsvParser.TagIdHandler {
+        private final StringDictionary dictionary;
+
+        private long[] ratingMovieIds = new long[1024];
+        private long[] ratingUserIds = new long[1024];
+        private double[] ratingValues = new double[1024];
+        private int ratingRows;
+
+        private long[] tagMovieIds = new long[1024];
+        private long[] tagUserIds = new long[1024];
+        private int[] tagIds = new int[1024];
+        private int tagRows;
+
+        public Appender(StringDictionary dictionary) {
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        public void rating(long userId, long movieId, double rating, long timestamp) {
+            if (ratingRows == ratingMovieIds.length) {
+                int capacity = ratingRows * 2;
+                ratingMovieIds = Arrays.copyOf(ratingMovieIds, capacity);
+                ratingUserIds = Arrays.copyOf(ratingUserIds, capacity);
+                ratingValues = Arrays.copyOf(ratingValues, capacity);
+            }
+            ratingMovieIds[ratingRows] = movieId;
+            ratingUserIds[ratingRows] = userId;
+            ratingValues[ratingRows] = rating;
+            ratingRows++;
+        }
+
+        @Override
+        public void tag(long userId, long movieId, String tag, long timestamp) {
+            tag(userId, movieId, dictionary.id(tag), timestamp);
+        }
+
+        /**
+         * @param tagId id in the dictionary of this appender
+         */
+        @Override
+        public void tag(long userId, long movieId, int tagId, long timestamp) {
+            if (tagRows == tagMovieIds.length) {
+                int capacity = tagRows * 2;
+                tagMovieIds = Arrays.copyOf(tagMovieIds, capacity);
+                tagUserIds = Arrays.copyOf(tagUserIds, capacity);
+                tagIds = Arrays.copyOf(tagIds, capacity);
+            }
+            tagMovieIds[tagRows] = movieId;
+            tagUserIds[tagRows] = userId;
+            tagIds[tagRows] = tagId;
+            tagRows++;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.alehpranovich;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.alehpranovich.JsonBytes.*;
+
+/**
+ * Serializer of {@link Movie}, {@link Movie.Rating} and {@link Movie.Tag} bulk sources.
+ * Writes the same JSON as {@link co.elastic.clients.json.jackson.JacksonJsonpMapper} does for the Lombok getters,
+ * (null fields are omitted), but straight into a {@link BulkBuffer} and without reflection.
+ * Movie objects are written by the generated {@link MovieMapping}, the methods taking primitives
+ * write rows of a {@link MovieColumnStore} with the same field order and the generated field names.
+ */
+public final class MovieSerializer {
+
+    private static final byte[] MOVIE_ID = key('{', MovieMapping.MOVIE_ID_KEY, "");
+    private static final byte[] TITLE = key(',', MovieMapping.TITLE_KEY, "");
+    private static final byte[] GENRES = key(',', MovieMapping.GENRES_KEY, "");
+    private static final byte[] RATINGS = key(',', MovieMapping.RATINGS_KEY, "[");
+    private static final byte[] TAGS = key(',', MovieMapping.TAGS_KEY, "[");
+    private static final byte[] RATING_COUNT = key(',', MovieMapping.RATING_COUNT_KEY, "");
+    private static final byte[] RATING_SUM = key(',', MovieMapping.RATING_SUM_KEY, "");
+    private static final byte[] AVG_RATING = key(',', MovieMapping.AVG_RATING_KEY, "");
+    private static final byte[] RATING_HISTOGRAM = key(',', MovieMapping.RATING_HISTOGRAM_KEY, "[");
+    private static final byte[] TOP_TAGS = key(',', MovieMapping.TOP_TAGS_KEY, "[");
+    private static final byte[] RATING_MOVIE_ID = key('{', MovieRatingMapping.MOVIE_ID_KEY, "");
+    private static final byte[] RATING_USER_ID = key(',', MovieRatingMapping.USER_ID_KEY, "");
+    private static final byte[] RATING_RATING = key(',', MovieRatingMapping.RATING_KEY, "");
+    private static final byte[] TAG_USER_ID = key('{', MovieTagMapping.USER_ID_KEY, "");
+    private static final byte[] TAG_MOVIE_ID = key(',', MovieTagMapping.MOVIE_ID_KEY, "");
+    private static final byte[] TAG_TAG = key(',', MovieTagMapping.TAG_KEY, "");
+
+    private MovieSerializer() {
+    }
+
+    /**
+     * Key generated from the {@link MappedField} of the same name, so the field names cannot drift apart.
+     */
+    private static byte[] key(char before, byte[] key, String after) {
+        BulkBuffer out = new BulkBuffer(key.length + 2);
+        out.write(before);
+        out.write(key);
+        out.write(ascii(after));
+        return Arrays.copyOf(out.bytes(), out.size());
+    }
+
+    public static void writeMovie(BulkBuffer out, Movie movie) {
+        MovieMapping.write(out, movie);
+    }
+
+    /**
+     * Writes the movie with ratings, tags and their aggregates taken from {@code store}, the ones of {@code movie}
+     * are ignored.
+     */
+    public static void writeMovie(BulkBuffer out, Movie movie, MovieColumnStore store) {
+        writeMovieStart(out, movie);
+        out.write(RATINGS);
+        store.writeRatings(movie.getMovieId(), out);
+        out.write(']');
+        out.write(TAGS);
+        store.writeTags(movie.getMovieId(), out);
+        out.write(']');
+        store.writeAggregates(movie.getMovieId(), out);
+        out.write('}');
+    }
+
+    /**
+     * <pre>
+     * {"movieId": 1, "userId": 3, "rating": 4.5}
+     * </pre>
+     *
+     * @param index position in the enclosing array, a comma is written before every element but the first
+     */
+    public static void writeRating(BulkBuffer out, int index, long movieId, long userId, double rating) {
+        if (index > 0) {
+            out.write(',');
+        }
+        out.write(RATING_MOVIE_ID);
+        writeLong(out, movieId);
+        out.write(RATING_USER_ID);
+        writeLong(out, userId);
+        out.write(RATING_RATING);
+        writeDouble(out, rating);
+        out.write('}');
+    }
+
+    /**
+     * <pre>
+     * {"userId": 3, "movieId": 1, "tag": "classic"}
+     * </pre>
+     *
+     * @param index position in the enclosing array, a comma is written before every element but the first
+     */
+    public static void writeTag(BulkBuffer out, int index, long userId, long movieId, String tag) {
+        writeTagStart(out, index, userId, movieId);
+        writeString(out, tag);
+        out.write('}');
+    }
+
+    /**
+     * @param tagJson the tag as a JSON string, see {@link StringDictionary#json(int)}
+     */
+    public static void writeTag(BulkBuffer out, int index, long userId, long movieId, byte[] tagJson) {
+        writeTagStart(out, index, userId, movieId);
+        out.write(tagJson);
+        out.write('}');
+    }
+
+    private static void writeTagStart(BulkBuffer out, int index, long userId, long movieId) {
+        if (index > 0) {
+            out.write(',');
+        }
+        out.write(TAG_USER_ID);
+        writeLong(out, userId);
+        out.write(TAG_MOVIE_ID);
+        writeLong(out, movieId);
+        out.write(TAG_TAG);
+    }
+
+    /**
+     * <pre>
+     * ,"ratingCount": 2, "ratingSum": 7.5, "avgRating": 3.75, "ratingHistogram": [0, 0, 0, 0, 0, 0, 1, 1, 0, 0]
+     * </pre>
+     * {@code avgRating} is left out without ratings.
+     */
+    public static void writeRatingAggregates(BulkBuffer out, long ratingCount, double ratingSum, long[] ratingHistogram) {
+        out.write(RATING_COUNT);
+        writeLong(out, ratingCount);
+        out.write(RATING_SUM);
+        writeDouble(out, ratingSum);
+        if (ratingCount > 0) {
+            out.write(AVG_RATING);
+            writeDouble(out, ratingSum / ratingCount);
+        }
+        out.write(RATING_HISTOGRAM);
+        for (int i = 0; i < ratingHistogram.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            writeLong(out, ratingHistogram[i]);
+        }
+        out.write(']');
+    }
+
+    /**
+     * <pre>
+     * ,"topTags": ["classic", "sci-fi"]
+     * </pre>
+     *
+     * @param tagIds ids of the top tags in {@code dictionary}, the first {@code count} are written
+     */
+    public static void writeTopTags(BulkBuffer out, int[] tagIds, int count, StringDictionary dictionary) {
+        out.write(TOP_TAGS);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write(dictionary.json(tagIds[i]));
+        }
+        out.write(']');
+    }
+
+    private static void writeMovieStart(BulkBuffer out, Movie movie) {
+        out.write(MOVIE_ID);
+        writeLong(out, movie.getMovieId());
+        if (movie.getTitle() != null) {
+            out.write(TITLE);
+            writeString(out, movie.getTitle());
+        }
+        List<String> genres = movie.getGenres();
+        if (genres == null) {
+            return;
+        }
+        out.write(GENRES);
+        if (genres instanceof StringDictionary.Values) {
+            ((StringDictionary.Values) genres).writeJson(out);
+            return;
+        }
+        out.write('[');
+        for (int i = 0; i < genres.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            writeString(out, genres.get(i));
+        }
+        out.write(']');
+    }
+}
@@ -0,0 +1,555 @@
+package com.alehpranovich;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Binary snapshot of the joined dataset: every movie of {@code movies.csv} with its genres, ratings and tags,
+ * so a reindex streams documents from one file instead of parsing and joining the CSV files again.
+ * <pre>
+ * MVSNAP02 | block 0 | block 1 | ... | dictionary block | index | index offset | MVSNAP02
+ * </pre>
+ * A block holds {@value #MOVIES_PER_BLOCK} movies in movieId order and is deflated on its own, so blocks
+ * are decoded in parallel. Every movie of a block is a sequence of {@link Varint}s:
+ * <pre>
+ * movieId delta, title length + 1 (0 for null), title UTF-8, genre count + 1 (0 for null), genre ids,
+ * rating count, (userId delta, rating) per rating, tag count, (userId delta, tag id) per tag
+ * </pre>
+ * userId deltas are zigzag encoded. A rating is its number of half stars + 1, or 0 followed by its double bits
+ * when it is not a multiple of 0.5. Genres and tags are ids of the dictionary block. The index holds the offset
+ * and sizes of every block and the ratings and tags offsets the snapshot was taken at, see {@link #checkpoint()}.
+ * <p>
+ * {@link #write} joins the CSV files through {@link SortedRuns}, rows beyond {@link IngestConfig#getSpillRows()}
+ * are spilled next to the snapshot. {@link #open(Path)} memory-maps the file. Aggregates are not stored,
+ * they are computed again from the rows of a {@link Block}, see {@link MovieColumnStore#document(Movie)}.
+ */
+public class MovieSnapshot implements Closeable {
+
+    public static final int MOVIES_PER_BLOCK = 256;
+
+    private static final long MAGIC = 0x4D56534E41503032L; // MVSNAP02
+    private static final int TRAILER_SIZE = 16;
+    private static final int MAX_HALF_STARS = 1 << 20;
+
+    /**
+     * Blocks are mapped in segments, a single {@link MappedByteBuffer} has to stay below 2 GB.
+     */
+    private static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+
+    private final FileChannel channel;
+    private final BlockRef[] blocks;
+    private final List<MappedByteBuffer> segments;
+    private final StringDictionary dictionary;
+    private final IngestCheckpoint checkpoint;
+
+    private MovieSnapshot(FileChannel channel, BlockRef[] blocks, List<MappedByteBuffer> segments,
+                          BlockRef dictionaryBlock, IngestCheckpoint checkpoint) throws IOException {
+        this.channel = channel;
+        this.blocks = blocks;
+        this.segments = segments;
+        this.dictionary = readDictionary(inflate(dictionaryBlock));
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Parses and joins the CSV files into a new snapshot at {@code snapshotPath}. The snapshot is written
+     * to a temporary file first and moved over {@code snapshotPath} once complete. Only the complete lines of
+     * the ratings and tags files are read, their ends become the {@link #checkpoint()}.
+     */
+    public static void write(Path moviesPath, Path ratingsPath, Path tagsPath, Path snapshotPath,
+                             IngestConfig config, IngestMetrics metrics) throws IOException {
+        long ratingsEnd = MappedCsvParser.completeLinesEnd(ratingsPath);
+        long tagsEnd = MappedCsvParser.completeLinesEnd(tagsPath);
+        int spillRows = config.getSpillRows();
+        Path spillDirectory = Files.createTempDirectory(snapshotPath.toAbsolutePath().getParent(), "snapshot-spill");
+        StringDictionary dictionary = new StringDictionary();
+        try {
+            int ratingChunkRows = chunkRows(spillRows, config);
+            List<SortedRuns> ratings = MappedCsvParser.parseRatings(ratingsPath, 0, ratingsEnd, config.getParseThreads(),
+                    () -> new SortedRuns(spillDirectory, ratingChunkRows));
+            // the ratings kept for the merge stay in heap while the tags are parsed, they share the budget
+            spillIfOver(ratings, spillRows / 2);
+            long tagBudget = spillRows - bufferedRows(ratings);
+            int tagChunkRows = chunkRows(tagBudget, config);
+            List<SortedRuns> tags = MappedCsvParser.parseTags(tagsPath, 0, tagsEnd, config.getParseThreads(), dictionary,
+                    () -> new SortedRuns(spillDirectory, tagChunkRows));
+            spillIfOver(tags, tagBudget);
+            int runs = ratings.stream().mapToInt(SortedRuns::spilledRuns).sum()
+                    + tags.stream().mapToInt(SortedRuns::spilledRuns).sum();
+            if (runs > 0) {
+                System.out.println("Spilled " + runs + " sorted runs to " + spillDirectory);
+            }
+
+            List<Movie> movies;
+            try (Stream<Movie.MovieRaw> moviesRaw = IndexUtil.streamCSVFile(moviesPath, Movie.MovieRaw.class)) {
+                movies = moviesRaw.map(movieRaw -> Movie.fromRaw(movieRaw, dictionary))
+                        .sorted(Comparator.comparing(Movie::getMovieId))
+                        .collect(Collectors.toList());
+            }
+
+            Path temp = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+            try (SortedRuns.Cursor ratingRows = SortedRuns.merge(ratings);
+                 SortedRuns.Cursor tagRows = SortedRuns.merge(tags);
+                 Writer writer = new Writer(Files.newOutputStream(temp), dictionary)) {
+                writer.join(movies, ratingRows, tagRows);
+                writer.finish(ratingsPath, ratingsEnd, tagsPath, tagsEnd);
+                metrics.parsed(movies.size() + writer.rows, ratingsEnd + tagsEnd);
+            }
+            Files.move(temp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            // also removes the runs of chunks a failed parse did not return
+            try (Stream<Path> runs = Files.list(spillDirectory)) {
+                for (Path run : (Iterable<Path>) runs::iterator) {
+                    Files.deleteIfExists(run);
+                }
+            }
+            Files.deleteIfExists(spillDirectory);
+        }
+    }
+
+    private static int chunkRows(long rows, IngestConfig config) {
+        return (int) Math.max(1, rows / config.getParseThreads());
+    }
+
+    private static long bufferedRows(List<SortedRuns> chunks) {
+        return chunks.stream().mapToLong(SortedRuns::bufferedRows).sum();
+    }
+
+    /**
+     * The buffered rows of all chunks are kept for the merge unless there are more than {@code maxRows} of them.
+     */
+    private static void spillIfOver(List<SortedRuns> chunks, long maxRows) throws IOException {
+        if (bufferedRows(chunks) > maxRows) {
+            for (SortedRuns chunk : chunks) {
+                chunk.spill();
+            }
+        }
+    }
+
+    public static MovieSnapshot open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < 8 + TRAILER_SIZE || readLong(channel, 0) != MAGIC || readLong(channel, size - 8) != MAGIC) {
+                throw new IOException("Not a movie snapshot: " + path);
+            }
+            long indexOffset = readLong(channel, size - TRAILER_SIZE);
+            ByteBuffer index = ByteBuffer.allocate(Math.toIntExact(size - TRAILER_SIZE - indexOffset));
+            readFully(channel, index, indexOffset);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(index.array()));
+
+            BlockRef[] blocks = new BlockRef[in.readInt()];
+            for (int block = 0; block < blocks.length; block++) {
+                blocks[block] = new BlockRef(in.readLong(), in.readInt(), in.readInt(), in.readInt());
+            }
+            BlockRef dictionaryBlock = new BlockRef(in.readLong(), in.readInt(), in.readInt(), 0);
+            IngestCheckpoint checkpoint = IngestCheckpoint.empty();
+            checkpoint.setCommitted(Paths.get(in.readUTF()), in.readLong());
+            checkpoint.setCommitted(Paths.get(in.readUTF()), in.readLong());
+
+            List<BlockRef> all = new ArrayList<>();
+            Collections.addAll(all, blocks);
+            all.add(dictionaryBlock);
+            return new MovieSnapshot(channel, blocks, map(channel, all), dictionaryBlock, checkpoint);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Maps consecutive blocks into as few segments as possible, a block never spans two segments.
+     */
+    private static List<MappedByteBuffer> map(FileChannel channel, List<BlockRef> blocks) throws IOException {
+        List<Long> starts = new ArrayList<>();
+        List<Long> ends = new ArrayList<>();
+        for (BlockRef block : blocks) {
+            int segment = starts.size() - 1;
+            long end = block.offset + block.compressedLength;
+            if (segment < 0 || end - starts.get(segment) > MAX_SEGMENT_SIZE) {
+                starts.add(block.offset);
+                ends.add(end);
+                segment++;
+            }
+            ends.set(segment, Math.max(ends.get(segment), end));
+            block.segment = segment;
+            block.position = (int) (block.offset - starts.get(segment));
+        }
+        List<MappedByteBuffer> segments = new ArrayList<>();
+        for (int segment = 0; segment < starts.size(); segment++) {
+            segments.add(channel.map(FileChannel.MapMode.READ_ONLY, starts.get(segment),
+                    ends.get(segment) - starts.get(segment)));
+        }
+        return segments;
+    }
+
+    public int blockCount() {
+        return blocks.length;
+    }
+
+    public long movieCount() {
+        long movies = 0;
+        for (BlockRef block : blocks) {
+            movies += block.movies;
+        }
+        return movies;
+    }
+
+    /**
+     * @return ends of the ratings and tags files the snapshot was written from, the starting point of {@link DeltaIngest}
+     */
+    public IngestCheckpoint checkpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Decodes a block, safe to call from several threads.
+     */
+    public Block block(int block) throws IOException {
+        BlockRef ref = blocks[block];
+        byte[] raw = inflate(ref);
+        Varint.Reader in = new Varint.Reader(raw);
+        MovieColumnStore.Appender rows = new MovieColumnStore.Appender(dictionary);
+        List<Movie> movies = new ArrayList<>(ref.movies);
+        long movieId = 0;
+        for (int i = 0; i < ref.movies; i++) {
+            movieId += in.next();
+            String title = null;
+            int titleLength = in.nextInt() - 1;
+            if (titleLength >= 0) {
+                title = new String(raw, in.position(), titleLength, StandardCharsets.UTF_8);
+                in.skip(titleLength);
+            }
+            List<String> genres = null;
+            int genreCount = in.nextInt() - 1;
+            if (genreCount >= 0) {
+                int[] ids = new int[genreCount];
+                for (int genre = 0; genre < genreCount; genre++) {
+                    ids[genre] = in.nextInt();
+                }
+                genres = dictionary.values(ids);
+            }
+            long userId = 0;
+            for (int rating = 0, count = in.nextInt(); rating < count; rating++) {
+                userId += in.nextSigned();
+                rows.rating(userId, movieId, readRating(in), 0);
+            }
+            userId = 0;
+            for (int tag = 0, count = in.nextInt(); tag < count; tag++) {
+                userId += in.nextSigned();
+                rows.tag(userId, movieId, in.nextInt(), 0);
+            }
+            movies.add(Movie.builder()
+                    .movieId(movieId)
+                    .title(title)
+                    .genres(genres)
+                    .tags(Collections.emptyList())
+                    .ratings(Collections.emptyList())
+                    .build());
+        }
+        return new Block(movies, MovieColumnStore.merge(Collections.singletonList(rows), dictionary),
+                ref.compressedLength);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private byte[] inflate(BlockRef ref) throws IOException {
+        byte[] compressed = new byte[ref.compressedLength];
+        ByteBuffer segment = segments.get(ref.segment).duplicate();
+        segment.position(ref.position);
+        segment.get(compressed);
+        byte[] raw = new byte[ref.rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < raw.length && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, length, raw.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != raw.length) {
+                throw new IOException("Corrupt snapshot block at offset " + ref.offset);
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt snapshot block at offset " + ref.offset, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static StringDictionary readDictionary(byte[] raw) throws IOException {
+        StringDictionary dictionary = new StringDictionary();
+        Varint.Reader in = new Varint.Reader(raw);
+        for (int id = 0, size = in.nextInt(); id < size; id++) {
+            int length = in.nextInt();
+            if (dictionary.id(raw, in.position(), length) != id) {
+                throw new IOException("Corrupt snapshot dictionary, duplicate value " + id);
+            }
+            in.skip(length);
+        }
+        return dictionary;
+    }
+
+    private static void writeRating(BulkBuffer out, double rating) {
+        double halfStars = rating * 2;
+        if (Double.doubleToLongBits(rating) >= 0 && halfStars < MAX_HALF_STARS && halfStars == (int) halfStars) {
+            Varint.write(out, (int) halfStars + 1);
+        } else {
+            Varint.write(out, 0);
+            Varint.write(out, Double.doubleToLongBits(rating));
+        }
+    }
+
+    private static double readRating(Varint.Reader in) {
+        long halfStars = in.next();
+        return halfStars == 0 ? Double.longBitsToDouble(in.next()) : (halfStars - 1) / 2d;
+    }
+
+    private static long readLong(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        readFully(channel, buffer, position);
+        return buffer.getLong(0);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    /**
+     * Movies of a block and their ratings and tags, written as bulk documents by {@link MovieColumnStore#document(Movie)}.
+     */
+    public static final class Block {
+        private final List<Movie> movies;
+        private final MovieColumnStore store;
+        private final int compressedBytes;
+
+        private Block(List<Movie> movies, MovieColumnStore store, int compressedBytes) {
+            this.movies = movies;
+            this.store = store;
+            this.compressedBytes = compressedBytes;
+        }
+
+        public List<Movie> movies() {
+            return movies;
+        }
+
+        public MovieColumnStore store() {
+            return store;
+        }
+
+        public int compressedBytes() {
+            return compressedBytes;
+        }
+    }
+
+    private static final class BlockRef {
+        private final long offset;
+        private final int compressedLength;
+        private final int rawLength;
+        private final int movies;
+        private int segment;
+        private int position;
+
+        BlockRef(long offset, int compressedLength, int rawLength, int movies) {
+            this.offset = offset;
+            this.compressedLength = compressedLength;
+            this.rawLength = rawLength;
+            this.movies = movies;
+        }
+    }
+
+    /**
+     * Writes blocks as they fill up, then the dictionary, the index and the trailer.
+     */
+    private static final class Writer implements Closeable {
+        private final OutputStream out;
+        private final StringDictionary dictionary;
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final byte[] compressed = new byte[64 * 1024];
+        private final List<BlockRef> blocks = new ArrayList<>();
+        private final BulkBuffer block = new BulkBuffer(64 * 1024);
+        private final BulkBuffer ratings = new BulkBuffer(1024);
+        private final BulkBuffer tags = new BulkBuffer(1024);
+        private long position;
+        private int blockMovies;
+        private long previousMovieId;
+        private long rows;
+
+        Writer(OutputStream out, StringDictionary dictionary) throws IOException {
+            this.out = new BufferedOutputStream(out, 64 * 1024);
+            this.dictionary = dictionary;
+            writeLong(MAGIC);
+        }
+
+        /**
+         * Writes every movie with its rows, rows of movieIds missing from {@code movies} are dropped
+         * like {@link IngestPipeline} drops them.
+         */
+        void join(List<Movie> movies, SortedRuns.Cursor ratingRows, SortedRuns.Cursor tagRows) throws IOException {
+            boolean moreRatings = ratingRows.next();
+            boolean moreTags = tagRows.next();
+            for (Movie movie : movies) {
+                long movieId = movie.getMovieId();
+                ratings.reset();
+                tags.reset();
+                int ratingCount = 0;
+                int tagCount = 0;
+                long previousUserId = 0;
+                while (moreRatings && ratingRows.movieId() < movieId) {
+                    moreRatings = ratingRows.next();
+                }
+                while (moreRatings && ratingRows.movieId() == movieId) {
+                    Varint.writeSigned(ratings, ratingRows.userId() - previousUserId);
+                    writeRating(ratings, ratingRows.rating());
+                    previousUserId = ratingRows.userId();
+                    ratingCount++;
+                    moreRatings = ratingRows.next();
+                }
+                previousUserId = 0;
+                while (moreTags && tagRows.movieId() < movieId) {
+                    moreTags = tagRows.next();
+                }
+                while (moreTags && tagRows.movieId() == movieId) {
+                    Varint.writeSigned(tags, tagRows.userId() - previousUserId);
+                    Varint.write(tags, tagRows.tagId());
+                    previousUserId = tagRows.userId();
+                    tagCount++;
+                    moreTags = tagRows.next();
+                }
+                movie(movie, ratingCount, tagCount);
+                rows += ratingCount + tagCount;
+            }
+        }
+
+        private void movie(Movie movie, int ratingCount, int tagCount) throws IOException {
+            Varint.write(block, movie.getMovieId() - previousMovieId);
+            previousMovieId = movie.getMovieId();
+            if (movie.getTitle() == null) {
+                Varint.write(block, 0);
+            } else {
+                byte[] title = movie.getTitle().getBytes(StandardCharsets.UTF_8);
+                Varint.write(block, title.length + 1);
+                block.write(title);
+            }
+            List<String> genres = movie.getGenres();
+            if (genres == null) {
+                Varint.write(block, 0);
+            } else {
+                Varint.write(block, genres.size() + 1);
+                for (String genre : genres) {
+                    Varint.write(block, dictionary.id(genre));
+                }
+            }
+            Varint.write(block, ratingCount);
+            block.write(ratings.bytes(), 0, ratings.size());
+            Varint.write(block, tagCount);
+            block.write(tags.bytes(), 0, tags.size());
+            if (++blockMovies == MOVIES_PER_BLOCK) {
+                flushBlock();
+            }
+        }
+
+        private void flushBlock() throws IOException {
+            if (blockMovies > 0) {
+                blocks.add(deflate(blockMovies));
+            }
+            blockMovies = 0;
+            previousMovieId = 0;
+        }
+
+        private BlockRef deflate(int movies) throws IOException {
+            long offset = position;
+            deflater.reset();
+            deflater.setInput(block.bytes(), 0, block.size());
+            deflater.finish();
+            while (!deflater.finished()) {
+                int length = deflater.deflate(compressed);
+                out.write(compressed, 0, length);
+                position += length;
+            }
+            BlockRef ref = new BlockRef(offset, Math.toIntExact(position - offset), block.size(), movies);
+            block.reset();
+            return ref;
+        }
+
+        void finish(Path ratingsPath, long ratingsEnd, Path tagsPath, long tagsEnd) throws IOException {
+            flushBlock();
+            Varint.write(block, dictionary.size());
+            for (int id = 0; id < dictionary.size(); id++) {
+                byte[] value = dictionary.value(id).getBytes(StandardCharsets.UTF_8);
+                Varint.write(block, value.length);
+                block.write(value);
+            }
+            BlockRef dictionaryBlock = deflate(0);
+
+            long indexOffset = position;
+            ByteArrayOutputStream index = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(index);
+            data.writeInt(blocks.size());
+            for (BlockRef ref : blocks) {
+                data.writeLong(ref.offset);
+                data.writeInt(ref.compressedLength);
+                data.writeInt(ref.rawLength);
+                data.writeInt(ref.movies);
+            }
+            data.writeLong(dictionaryBlock.offset);
+            data.writeInt(dictionaryBlock.compressedLength);
+            data.writeInt(dictionaryBlock.rawLength);
+            data.writeUTF(ratingsPath.getFileName().toString());
+            data.writeLong(ratingsEnd);
+            data.writeUTF(tagsPath.getFileName().toString());
+            data.writeLong(tagsEnd);
+            index.writeTo(out);
+            position += index.size();
+            writeLong(indexOffset);
+            writeLong(MAGIC);
+        }
+
+        private void writeLong(long value) throws IOException {
+            out.write(ByteBuffer.allocate(8).putLong(0, value).array());
+            position += 8;
+        }
+
+        @Override
+        public void close() throws IOException {
+            deflater.end();
+            out.close();
+        }
+    }
+}
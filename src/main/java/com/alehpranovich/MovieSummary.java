@@ -0,0 +1,34 @@
+package com.alehpranovich;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+import static com.alehpranovich.MappedField.FieldType.*;
+
+/**
+ * What a list of movies shows, without the nested ratings and tags, see {@link MovieProjection#SUMMARY}.
+ * Field names and types are those of {@link Movie}.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@MappedType
+public class MovieSummary {
+    @MappedField(LONG)
+    private Long movieId;
+    @MappedField(TEXT)
+    private String title;
+    @MappedField(KEYWORD)
+    private List<String> genres;
+    @MappedField(LONG)
+    private Long ratingCount;
+    @MappedField(DOUBLE)
+    private Double avgRating;
+    @MappedField(KEYWORD)
+    private List<String> topTags;
+}
@@ -0,0 +1,167 @@
+package com.alehpranovich;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Search results of {@link SearchClient} keyed by index and query JSON, bounded by size (least recently used
+ * entries are evicted first) and by age. An entry is dropped as soon as {@link IndexUtil} or {@link BulkIngester}
+ * writes to one of its indices, see {@link IndexGenerations}. Cached lists are shared and must not be modified.
+ * <pre>
+ * SearchClient searchClient = new SearchClient(client, new QueryCache(10_000, 60_000));
+ * </pre>
+ */
+public class QueryCache {
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<Key, Entry> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public QueryCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() > QueryCache.this.maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Takes the current generation of {@code indices}, call it before sending the search,
+     * so results of a search that raced with a write are never served.
+     */
+    public Key key(List<String> indices, String query) {
+        return new Key(String.join(",", indices), query, IndexGenerations.current(indices), indices);
+    }
+
+    /**
+     * @return cached result or {@code null}
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> List<T> get(Key key) {
+        Entry entry = entries.get(key);
+        if (entry != null && !isLive(entry)) {
+            entries.remove(key);
+            evictions.increment();
+            entry = null;
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return (List<T>) entry.results;
+    }
+
+    /**
+     * @return unmodifiable {@code results}
+     */
+    public synchronized <T> List<T> put(Key key, List<T> results) {
+        List<T> cached = Collections.unmodifiableList(results);
+        if (key.generation == IndexGenerations.current(key.indices)) {
+            entries.put(key, new Entry(cached, key.indices, key.generation, System.nanoTime()));
+        }
+        return cached;
+    }
+
+    /**
+     * Drops expired and stale entries.
+     */
+    public synchronized void cleanUp() {
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (!isLive(entry)) {
+                it.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), entries.size());
+    }
+
+    private boolean isLive(Entry entry) {
+        return System.nanoTime() - entry.createdNanos < ttlNanos
+                && entry.generation == IndexGenerations.current(entry.indices);
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class Stats {
+        private long hits;
+        private long misses;
+        private long evictions;
+        private int size;
+    }
+
+    /**
+     * Equal for the same indices and query, whatever generation they were taken at.
+     */
+    public static final class Key {
+        private final String index;
+        private final String query;
+        private final long generation;
+        private final List<String> indices;
+
+        private Key(String index, String query, long generation, List<String> indices) {
+            this.index = index;
+            this.query = query;
+            this.generation = generation;
+            this.indices = indices;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return index.equals(key.index) && query.equals(key.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * index.hashCode() + query.hashCode();
+        }
+    }
+
+    private static final class Entry {
+        private final List<?> results;
+        private final List<String> indices;
+        private final long generation;
+        private final long createdNanos;
+
+        private Entry(List<?> results, List<String> indices, long generation, long createdNanos) {
+            this.results = results;
+            this.indices = indices;
+            this.generation = generation;
+            this.createdNanos = createdNanos;
+        }
+    }
+}
@@ -1,35 +1,30 @@
 package com.alehpranovich;
 
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.SortOrder;
 import co.elastic.clients.elasticsearch._types.query_dsl.*;
+import co.elastic.clients.elasticsearch.core.GetRequest;
+import co.elastic.clients.elasticsearch.core.GetResponse;
+import co.elastic.clients.elasticsearch.core.PutScriptRequest;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
 import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.SearchTemplateRequest;
 import co.elastic.clients.elasticsearch.core.SearchTemplateResponse;
 import co.elastic.clients.elasticsearch.core.search.Hit;
 import co.elastic.clients.json.JsonData;
-import co.elastic.clients.json.jackson.JacksonJsonpMapper;
-import co.elastic.clients.transport.ElasticsearchTransport;
-import co.elastic.clients.transport.rest_client.RestClientTransport;
+import co.elastic.clients.json.JsonpMapper;
+import jakarta.json.stream.JsonGenerator;
 import lombok.SneakyThrows;
-import org.apache.http.HttpHost;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.CredentialsProvider;
-import org.apache.http.impl.client.BasicCredentialsProvider;
-import org.apache.http.ssl.SSLContexts;
-import org.elasticsearch.client.RestClient;
-
-import javax.net.ssl.SSLContext;
+
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.security.KeyStore;
-import java.security.cert.Certificate;
-import java.security.cert.CertificateFactory;
-import java.util.Arrays;
+import java.io.StringWriter;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static com.alehpranovich.IndexUtil.*;
 
@@ -37,83 +32,336 @@ public class SearchClient {
 
     public static final String PRICE_FIELD = "price";
     public static final String NAME_FIELD = "name";
+    public static final String MOVIE_ID_FIELD = "movieId";
+    public static final String AVG_RATING_FIELD = "avgRating";
+    public static final String RATING_COUNT_FIELD = "ratingCount";
+    private static final String QUERY_SCRIPT_ID = "query-script";
     private final ElasticsearchClient client;
+    private final ElasticsearchAsyncClient asyncClient;
+    private final QueryCache cache;
     private final Integer elasticPort;
 
 
     public SearchClient(Integer elasticPort, String certPath, String userName, String password) throws Exception {
         this.elasticPort = elasticPort;
-        this.client = createClient(certPath, userName, password);
+        this.client = ClientBuilder.createClient(certPath, userName, password, elasticPort);
+        this.asyncClient = new ElasticsearchAsyncClient(client._transport(), client._transportOptions());
+        this.cache = null;
     }
 
-    private ElasticsearchClient createClient(String certPath, String userName, String password) throws Exception {
-        Path caCertificatePath = Paths.get(certPath);
-        CertificateFactory factory = CertificateFactory.getInstance("X.509");
-        Certificate trustedCa;
-        try (InputStream is = Files.newInputStream(caCertificatePath)) {
-            trustedCa = factory.generateCertificate(is);
-        }
-        KeyStore trustStore = KeyStore.getInstance("pkcs12");
-        trustStore.load(null, null);
-        trustStore.setCertificateEntry("ca", trustedCa);
-
-        final SSLContext sslContext = SSLContexts.custom().loadTrustMaterial(trustStore, null).build();
-
-        final CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
-        credentialsProvider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(userName, password));
-
-        RestClient restClient = RestClient.builder(new HttpHost("localhost", elasticPort, "https"))
-                .setHttpClientConfigCallback(httpClientBuilder -> httpClientBuilder.setSSLContext(sslContext)
-                        .setDefaultCredentialsProvider(credentialsProvider))
-                .build();
+    /**
+     * Searches through an existing client, the blocking and async methods share its transport and connection pool.
+     */
+    public SearchClient(ElasticsearchClient client) {
+        this(client, null);
+    }
 
-        ElasticsearchTransport transport = new RestClientTransport(restClient, new JacksonJsonpMapper());
-        return new ElasticsearchClient(transport);
+    /**
+     * @param cache results of repeated searches, {@code null} to disable caching
+     */
+    public SearchClient(ElasticsearchClient client, QueryCache cache) {
+        this.elasticPort = null;
+        this.client = client;
+        this.asyncClient = new ElasticsearchAsyncClient(client._transport(), client._transportOptions());
+        this.cache = cache;
     }
 
     @SneakyThrows(IOException.class)
     public void indexDataSample(String index) {
         List<Movie.MovieRaw> moviesRaw = readCSVFile("movies.csv", Movie.MovieRaw.class);
+        StringDictionary genres = new StringDictionary();
         List<Movie> movies = moviesRaw.stream()
-                .map(movieRaw -> Movie.builder()
-                        .movieId(movieRaw.getMovieId())
-                        .title(movieRaw.getTitle())
-                        .genres(Arrays.asList(movieRaw.getGenres().split("|")))
-                        .build())
+                .map(movieRaw -> Movie.fromRaw(movieRaw, genres))
                 .collect(Collectors.toList());
 
         deleteIndexIfExists(client, index);
         indexMovies(client, movies, index);
     }
 
-    @SneakyThrows(IOException.class)
+    /**
+     * @return all documents of the index, see {@link #streamAllByIndex(String, int, String...)} for big indices
+     */
     public List<Movie> findAllByIndex(String index) {
-        SearchResponse<Movie> response = client.search(s -> s
-                        .index(index)
-                        .query(QueryBuilders.matchAll().build()._toQuery()),
-                Movie.class
-        );
+        try (Stream<Movie> movies = streamAllByIndex(index)) {
+            return movies.collect(Collectors.toList());
+        }
+    }
 
-        return response.hits().hits().stream()
-                .map(Hit::source).collect(Collectors.toList());
+    public CompletableFuture<List<Movie>> findAllByIndexAsync(String index) {
+        return IndexExport.readAll(asyncClient, index, IndexExport.DEFAULT_PAGE_SIZE);
+    }
+
+    public Stream<Movie> streamAllByIndex(String index) {
+        return streamAllByIndex(index, IndexExport.DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Lazily reads the whole index page by page, the stream must be closed when not read to the end.
+     *
+     * @param excludes fields left out of the returned movies, e.g. {@code "ratings"} and {@code "tags"}
+     */
+    public Stream<Movie> streamAllByIndex(String index, int pageSize, String... excludes) {
+        return IndexExport.open(asyncClient, index, pageSize, excludes).stream();
+    }
+
+    /**
+     * Lazily reads the {@code projection} of every document, e.g. {@link MovieProjection#SUMMARY} of the whole index.
+     */
+    public <T> Stream<T> streamAllByIndex(String index, int pageSize, MovieProjection<T> projection) {
+        return IndexExport.open(asyncClient, index, pageSize, projection).stream();
+    }
+
+    /**
+     * Reads the movie from the shard its id routes to, see {@link ShardRouting}.
+     *
+     * @return {@code null} if there is no such movie
+     */
+    @SneakyThrows(IOException.class)
+    public Movie findByMovieId(String index, long movieId) {
+        return client.get(findByMovieIdRequest(index, movieId), Movie.class).source();
+    }
+
+    public CompletableFuture<Movie> findByMovieIdAsync(String index, long movieId) {
+        return asyncClient.get(findByMovieIdRequest(index, movieId), Movie.class).thenApply(GetResponse::source);
+    }
+
+    /**
+     * Searches only the shards the movieIds route to, instead of every shard of the index.
+     * No request is sent for an empty list, an empty routing would search every shard.
+     */
+    public List<Movie> findByMovieIds(String index, List<Long> movieIds) {
+        return findByMovieIds(index, movieIds, MovieProjection.FULL);
+    }
+
+    public CompletableFuture<List<Movie>> findByMovieIdsAsync(String index, List<Long> movieIds) {
+        return findByMovieIdsAsync(index, movieIds, MovieProjection.FULL);
     }
 
     @SneakyThrows(IOException.class)
+    public <T> List<T> findByMovieIds(String index, List<Long> movieIds, MovieProjection<T> projection) {
+        if (movieIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return search(findByMovieIdsRequest(index, movieIds, projection), projection);
+    }
+
+    public <T> CompletableFuture<List<T>> findByMovieIdsAsync(String index, List<Long> movieIds, MovieProjection<T> projection) {
+        if (movieIds.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        return searchAsync(findByMovieIdsRequest(index, movieIds, projection), projection);
+    }
+
     public List<Movie> simpleSearch(String index, String field, String searchText) {
-        SearchResponse<Movie> response = client.search(s -> s
-                        .index(index)
-                        .query(q -> q.match(t -> t
-                                .field(field)
-                                .query(searchText))),
-                Movie.class
-        );
+        return simpleSearch(index, field, searchText, MovieProjection.FULL);
+    }
 
-        return response.hits().hits().stream()
-                .map(Hit::source).collect(Collectors.toList());
+    public CompletableFuture<List<Movie>> simpleSearchAsync(String index, String field, String searchText) {
+        return simpleSearchAsync(index, field, searchText, MovieProjection.FULL);
     }
 
     @SneakyThrows(IOException.class)
+    public <T> List<T> simpleSearch(String index, String field, String searchText, MovieProjection<T> projection) {
+        return search(simpleSearchRequest(index, field, searchText, projection), projection);
+    }
+
+    public <T> CompletableFuture<List<T>> simpleSearchAsync(String index, String field, String searchText, MovieProjection<T> projection) {
+        return searchAsync(simpleSearchRequest(index, field, searchText, projection), projection);
+    }
+
     public List<Movie> searchByNameAndMaxPrice(String index, String productName, Double maxPrice) {
+        return searchByNameAndMaxPrice(index, productName, maxPrice, MovieProjection.FULL);
+    }
+
+    public CompletableFuture<List<Movie>> searchByNameAndMaxPriceAsync(String index, String productName, Double maxPrice) {
+        return searchByNameAndMaxPriceAsync(index, productName, maxPrice, MovieProjection.FULL);
+    }
+
+    @SneakyThrows(IOException.class)
+    public <T> List<T> searchByNameAndMaxPrice(String index, String productName, Double maxPrice, MovieProjection<T> projection) {
+        return search(searchByNameAndMaxPriceRequest(index, productName, maxPrice, projection), projection);
+    }
+
+    public <T> CompletableFuture<List<T>> searchByNameAndMaxPriceAsync(String index, String productName, Double maxPrice, MovieProjection<T> projection) {
+        return searchAsync(searchByNameAndMaxPriceRequest(index, productName, maxPrice, projection), projection);
+    }
+
+    @SneakyThrows(IOException.class)
+    public List<Movie> searchByTemplate(String index, String fieldName, Object fieldValue) {
+        client.putScript(queryScriptRequest());
+        return templateSources(client.searchTemplate(searchByTemplateRequest(index, fieldName, fieldValue), Movie.class));
+    }
+
+    public CompletableFuture<List<Movie>> searchByTemplateAsync(String index, String fieldName, Object fieldValue) {
+        return asyncClient.putScript(queryScriptRequest())
+                .thenCompose(r -> asyncClient.searchTemplate(searchByTemplateRequest(index, fieldName, fieldValue), Movie.class))
+                .thenApply(SearchClient::templateSources);
+    }
+
+    public List<Movie> searchByPrefix(String index, String fieldName, String fieldPrefix) {
+        return searchByPrefix(index, fieldName, fieldPrefix, MovieProjection.FULL);
+    }
+
+    public CompletableFuture<List<Movie>> searchByPrefixAsync(String index, String fieldName, String fieldPrefix) {
+        return searchByPrefixAsync(index, fieldName, fieldPrefix, MovieProjection.FULL);
+    }
+
+    @SneakyThrows(IOException.class)
+    public <T> List<T> searchByPrefix(String index, String fieldName, String fieldPrefix, MovieProjection<T> projection) {
+        return search(searchByPrefixRequest(index, fieldName, fieldPrefix, projection), projection);
+    }
+
+    public <T> CompletableFuture<List<T>> searchByPrefixAsync(String index, String fieldName, String fieldPrefix, MovieProjection<T> projection) {
+        return searchAsync(searchByPrefixRequest(index, fieldName, fieldPrefix, projection), projection);
+    }
+
+    public List<Movie> searchByPhrase(String index, String fieldName, String fieldPhrase) {
+        return searchByPhrase(index, fieldName, fieldPhrase, MovieProjection.FULL);
+    }
+
+    public CompletableFuture<List<Movie>> searchByPhraseAsync(String index, String fieldName, String fieldPhrase) {
+        return searchByPhraseAsync(index, fieldName, fieldPhrase, MovieProjection.FULL);
+    }
+
+    @SneakyThrows(IOException.class)
+    public <T> List<T> searchByPhrase(String index, String fieldName, String fieldPhrase, MovieProjection<T> projection) {
+        return search(searchByPhraseRequest(index, fieldName, fieldPhrase, projection), projection);
+    }
+
+    public <T> CompletableFuture<List<T>> searchByPhraseAsync(String index, String fieldName, String fieldPhrase, MovieProjection<T> projection) {
+        return searchAsync(searchByPhraseRequest(index, fieldName, fieldPhrase, projection), projection);
+    }
+
+    public List<Movie> searchByMultipleFields(String index, List<String> fieldNames, String fieldPhrase) {
+        return searchByMultipleFields(index, fieldNames, fieldPhrase, MovieProjection.FULL);
+    }
+
+    public CompletableFuture<List<Movie>> searchByMultipleFieldsAsync(String index, List<String> fieldNames, String fieldPhrase) {
+        return searchByMultipleFieldsAsync(index, fieldNames, fieldPhrase, MovieProjection.FULL);
+    }
+
+    @SneakyThrows(IOException.class)
+    public <T> List<T> searchByMultipleFields(String index, List<String> fieldNames, String fieldPhrase, MovieProjection<T> projection) {
+        return search(searchByMultipleFieldsRequest(index, fieldNames, fieldPhrase, projection), projection);
+    }
+
+    public <T> CompletableFuture<List<T>> searchByMultipleFieldsAsync(String index, List<String> fieldNames, String fieldPhrase, MovieProjection<T> projection) {
+        return searchAsync(searchByMultipleFieldsRequest(index, fieldNames, fieldPhrase, projection), projection);
+    }
+
+    public List<Movie> searchIntervals(String index, String fieldName, String fieldIntervals) {
+        return searchIntervals(index, fieldName, fieldIntervals, MovieProjection.FULL);
+    }
+
+    public CompletableFuture<List<Movie>> searchIntervalsAsync(String index, String fieldName, String fieldIntervals) {
+        return searchIntervalsAsync(index, fieldName, fieldIntervals, MovieProjection.FULL);
+    }
+
+    @SneakyThrows(IOException.class)
+    public <T> List<T> searchIntervals(String index, String fieldName, String fieldIntervals, MovieProjection<T> projection) {
+        return search(searchIntervalsRequest(index, fieldName, fieldIntervals, projection), projection);
+    }
+
+    public <T> CompletableFuture<List<T>> searchIntervalsAsync(String index, String fieldName, String fieldIntervals, MovieProjection<T> projection) {
+        return searchAsync(searchIntervalsRequest(index, fieldName, fieldIntervals, projection), projection);
+    }
+
+    /**
+     * Filters on the precomputed {@code avgRating} and {@code ratingCount} fields instead of a nested
+     * {@code avg} aggregation with a {@code bucket_selector}, best rated movies first.
+     *
+     * @param minRatingCount leaves out movies rated by fewer users, {@code null} for no limit
+     */
+    public List<Movie> searchByMinAvgRating(String index, Double minAvgRating, Long minRatingCount) {
+        return searchByMinAvgRating(index, minAvgRating, minRatingCount, MovieProjection.FULL);
+    }
+
+    public CompletableFuture<List<Movie>> searchByMinAvgRatingAsync(String index, Double minAvgRating, Long minRatingCount) {
+        return searchByMinAvgRatingAsync(index, minAvgRating, minRatingCount, MovieProjection.FULL);
+    }
+
+    @SneakyThrows(IOException.class)
+    public <T> List<T> searchByMinAvgRating(String index, Double minAvgRating, Long minRatingCount, MovieProjection<T> projection) {
+        return search(searchByMinAvgRatingRequest(index, minAvgRating, minRatingCount, projection), projection);
+    }
+
+    public <T> CompletableFuture<List<T>> searchByMinAvgRatingAsync(String index, Double minAvgRating, Long minRatingCount, MovieProjection<T> projection) {
+        return searchAsync(searchByMinAvgRatingRequest(index, minAvgRating, minRatingCount, projection), projection);
+    }
+
+    /**
+     * The {@code size} movies with the highest {@code avgRating}, movies without ratings are never returned.
+     *
+     * @param minRatingCount leaves out movies rated by fewer users, {@code null} for no limit
+     */
+    public List<Movie> findTopRated(String index, int size, Long minRatingCount) {
+        return findTopRated(index, size, minRatingCount, MovieProjection.FULL);
+    }
+
+    public CompletableFuture<List<Movie>> findTopRatedAsync(String index, int size, Long minRatingCount) {
+        return findTopRatedAsync(index, size, minRatingCount, MovieProjection.FULL);
+    }
+
+    @SneakyThrows(IOException.class)
+    public <T> List<T> findTopRated(String index, int size, Long minRatingCount, MovieProjection<T> projection) {
+        return search(findTopRatedRequest(index, size, minRatingCount, projection), projection);
+    }
+
+    public <T> CompletableFuture<List<T>> findTopRatedAsync(String index, int size, Long minRatingCount, MovieProjection<T> projection) {
+        return searchAsync(findTopRatedRequest(index, size, minRatingCount, projection), projection);
+    }
+
+    /**
+     * Runs searches in parallel, e.g. {@code searchAll(Arrays.asList(simpleSearchAsync(...), searchByPhraseAsync(...)))}.
+     * Completes when the slowest search does, or exceptionally as soon as any of them fails.
+     *
+     * @return results in the order of {@code searches}
+     */
+    public static <T> CompletableFuture<List<T>> searchAll(List<CompletableFuture<T>> searches) {
+        CompletableFuture<List<T>> all = CompletableFuture.allOf(searches.toArray(new CompletableFuture[0]))
+                .thenApply(ignored -> searches.stream()
+                        .map(CompletableFuture::join)
+                        .collect(Collectors.toList()));
+        searches.forEach(search -> search.whenComplete((result, e) -> {
+            if (e != null) {
+                all.completeExceptionally(e);
+            }
+        }));
+        return all;
+    }
+
+    private static GetRequest findByMovieIdRequest(String index, long movieId) {
+        String id = Long.toString(movieId);
+        return GetRequest.of(g -> g
+                .index(index)
+                .id(id)
+                .routing(id));
+    }
+
+    /**
+     * The routing of a movie is its id, several comma separated values select several shards.
+     */
+    private static SearchRequest findByMovieIdsRequest(String index, List<Long> movieIds, MovieProjection<?> projection) {
+        return SearchRequest.of(s -> s
+                .index(index)
+                .source(projection.source())
+                .routing(movieIds.stream().map(String::valueOf).collect(Collectors.joining(",")))
+                .size(movieIds.size())
+                .query(q -> q.terms(t -> t
+                        .field(MOVIE_ID_FIELD)
+                        .terms(v -> v.value(movieIds.stream().map(FieldValue::of).collect(Collectors.toList()))))));
+    }
+
+    private static SearchRequest simpleSearchRequest(String index, String field, String searchText, MovieProjection<?> projection) {
+        return SearchRequest.of(s -> s
+                .index(index)
+                .source(projection.source())
+                .query(q -> q.match(t -> t
+                        .field(field)
+                        .query(searchText))));
+    }
+
+    private static SearchRequest searchByNameAndMaxPriceRequest(String index, String productName, Double maxPrice, MovieProjection<?> projection) {
         Query byName = MatchQuery.of(m -> m
                 .field(NAME_FIELD)
                 .query(productName)
@@ -124,98 +372,156 @@ public class SearchClient {
                 .lte(JsonData.of(maxPrice))
         )._toQuery();
 
-        SearchResponse<Movie> response = client.search(s -> s
-                        .index(index)
-                        .query(query -> query
-                                .bool(builder -> builder
-                                        .must(byName)
-                                        .must(byMaxPrice))),
-                Movie.class
-        );
+        return SearchRequest.of(s -> s
+                .index(index)
+                .source(projection.source())
+                .query(query -> query
+                        .bool(builder -> builder
+                                .must(byName)
+                                .must(byMaxPrice))));
+    }
 
-        return response.hits().hits().stream()
-                .map(Hit::source).collect(Collectors.toList());
+    private static SearchRequest searchByMinAvgRatingRequest(String index, Double minAvgRating, Long minRatingCount, MovieProjection<?> projection) {
+        Query byMinAvgRating = RangeQuery.of(r -> r
+                .field(AVG_RATING_FIELD)
+                .gte(JsonData.of(minAvgRating))
+        )._toQuery();
+
+        return SearchRequest.of(s -> s
+                .index(index)
+                .source(projection.source())
+                .query(query -> query
+                        .bool(builder -> builder
+                                .filter(byMinAvgRating)
+                                .filter(byMinRatingCount(minRatingCount))))
+                .sort(o -> o.field(f -> f.field(AVG_RATING_FIELD).order(SortOrder.Desc))));
     }
 
-    @SneakyThrows(IOException.class)
-    public List<Movie> searchByTemplate(String index, String fieldName, Object fieldValue) {
-        // Create a script
-        String queryScriptId = "query-script";
+    private static SearchRequest findTopRatedRequest(String index, int size, Long minRatingCount, MovieProjection<?> projection) {
+        return SearchRequest.of(s -> s
+                .index(index)
+                .source(projection.source())
+                .size(size)
+                .query(query -> query
+                        .bool(builder -> builder
+                                .filter(byMinRatingCount(minRatingCount))))
+                .sort(o -> o.field(f -> f.field(AVG_RATING_FIELD).order(SortOrder.Desc))));
+    }
+
+    /**
+     * Movies having ratings at all when {@code minRatingCount} is {@code null}.
+     */
+    private static Query byMinRatingCount(Long minRatingCount) {
+        return RangeQuery.of(r -> r
+                .field(RATING_COUNT_FIELD)
+                .gte(JsonData.of(minRatingCount != null ? minRatingCount : 1L))
+        )._toQuery();
+    }
 
-        client.putScript(r -> r
-                .id(queryScriptId)
+    private static PutScriptRequest queryScriptRequest() {
+        return PutScriptRequest.of(r -> r
+                .id(QUERY_SCRIPT_ID)
                 .script(s -> s
                         .lang("mustache")
                         .source("{\"query\":{\"match\":{\"{{field}}\":\"{{value}}\"}}}")
                 ));
+    }
 
-        SearchTemplateResponse<Movie> response = client.searchTemplate(r -> r
-                        .index(index)
-                        .id(queryScriptId)
-                        .params("field", JsonData.of(fieldName))
-                        .params("value", JsonData.of(fieldValue)),
-                Movie.class
-        );
+    private static SearchTemplateRequest searchByTemplateRequest(String index, String fieldName, Object fieldValue) {
+        return SearchTemplateRequest.of(r -> r
+                .index(index)
+                .id(QUERY_SCRIPT_ID)
+                .params("field", JsonData.of(fieldName))
+                .params("value", JsonData.of(fieldValue)));
+    }
 
-        return response.hits().hits().stream()
-                .map(Hit::source).collect(Collectors.toList());
+    private static SearchRequest searchByPrefixRequest(String index, String fieldName, String fieldPrefix, MovieProjection<?> projection) {
+        return SearchRequest.of(s -> s
+                .index(index)
+                .source(projection.source())
+                .query(q -> q.matchPhrasePrefix(t -> t
+                        .field(fieldName)
+                        .query(fieldPrefix))));
     }
 
-    @SneakyThrows(IOException.class)
-    public List<Movie> searchByPrefix(String index, String fieldName, String fieldPrefix) {
-        SearchResponse<Movie> response = client.search(s -> s
-                        .index(index)
-                        .query(q -> q.matchPhrasePrefix(t -> t
-                                .field(fieldName)
-                                .query(fieldPrefix))),
-                Movie.class
-        );
+    private static SearchRequest searchByPhraseRequest(String index, String fieldName, String fieldPhrase, MovieProjection<?> projection) {
+        return SearchRequest.of(s -> s
+                .index(index)
+                .source(projection.source())
+                .query(q -> q.matchPhrase(t -> t
+                        .field(fieldName)
+                        .query(fieldPhrase))));
+    }
 
-        return response.hits().hits().stream()
-                .map(Hit::source).collect(Collectors.toList());
+    private static SearchRequest searchByMultipleFieldsRequest(String index, List<String> fieldNames, String fieldPhrase, MovieProjection<?> projection) {
+        return SearchRequest.of(s -> s
+                .index(index)
+                .source(projection.source())
+                .query(q -> q.multiMatch(t -> t
+                        .fields(fieldNames)
+                        .type(TextQueryType.BestFields)
+                        .query(fieldPhrase))));
     }
 
-    @SneakyThrows(IOException.class)
-    public List<Movie> searchByPhrase(String index, String fieldName, String fieldPhrase) {
-        SearchResponse<Movie> response = client.search(s -> s
-                        .index(index)
-                        .query(q -> q.matchPhrase(t -> t
-                                .field(fieldName)
-                                .query(fieldPhrase))),
-                Movie.class
-        );
+    private static SearchRequest searchIntervalsRequest(String index, String fieldName, String fieldIntervals, MovieProjection<?> projection) {
+        return SearchRequest.of(s -> s
+                .index(index)
+                .source(projection.source())
+                .query(q -> q.intervals(t -> t
+                        .field(fieldName)
+                        .match(intervalBuilder -> intervalBuilder.query(fieldIntervals)
+                                .maxGaps(10))
+                )));
+    }
 
-        return response.hits().hits().stream()
-                .map(Hit::source).collect(Collectors.toList());
+    /**
+     * Decodes the hits with the generated deserializer of the projection, not through the mapper.
+     */
+    private <T> List<T> search(SearchRequest request, MovieProjection<T> projection) throws IOException {
+        if (cache == null) {
+            return sources(client._transport().performRequest(request, projection.endpoint(), client._transportOptions()));
+        }
+        QueryCache.Key key = cacheKey(request, projection);
+        List<T> cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        return cache.put(key, sources(client._transport().performRequest(request, projection.endpoint(), client._transportOptions())));
     }
 
-    @SneakyThrows(IOException.class)
-    public List<Movie> searchByMultipleFields(String index, List<String> fieldNames, String fieldPhrase) {
-        SearchResponse<Movie> response = client.search(s -> s
-                        .index(index)
-                        .query(q -> q.multiMatch(t -> t
-                                .fields(fieldNames)
-                                .type(TextQueryType.BestFields)
-                                .query(fieldPhrase))),
-                Movie.class
-        );
+    private <T> CompletableFuture<List<T>> searchAsync(SearchRequest request, MovieProjection<T> projection) {
+        if (cache == null) {
+            return asyncClient._transport().performRequestAsync(request, projection.endpoint(), asyncClient._transportOptions())
+                    .thenApply(SearchClient::sources);
+        }
+        QueryCache.Key key = cacheKey(request, projection);
+        List<T> cached = cache.get(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return asyncClient._transport().performRequestAsync(request, projection.endpoint(), asyncClient._transportOptions())
+                .thenApply(response -> cache.put(key, sources(response)));
+    }
 
+    /**
+     * The request body as JSON is the normalized query, the index is not part of it. The projection name
+     * is, two projections may request the same fields but decode them into different types.
+     */
+    private QueryCache.Key cacheKey(SearchRequest request, MovieProjection<?> projection) {
+        JsonpMapper mapper = client._transport().jsonpMapper();
+        StringWriter query = new StringWriter();
+        try (JsonGenerator generator = mapper.jsonProvider().createGenerator(query)) {
+            request.serialize(generator, mapper);
+        }
+        return cache.key(request.index(), projection.getName() + ":" + query);
+    }
+
+    private static <T> List<T> sources(SearchResponse<T> response) {
         return response.hits().hits().stream()
                 .map(Hit::source).collect(Collectors.toList());
     }
 
-    @SneakyThrows(IOException.class)
-    public List<Movie> searchIntervals(String index, String fieldName, String fieldIntervals) {
-        SearchResponse<Movie> response = client.search(s -> s
-                        .index(index)
-                        .query(q -> q.intervals(t -> t
-                                .field(fieldName)
-                                .match(intervalBuilder -> intervalBuilder.query(fieldIntervals)
-                                        .maxGaps(10))
-                        )),
-                Movie.class
-        );
-
+    private static List<Movie> templateSources(SearchTemplateResponse<Movie> response) {
         return response.hits().hits().stream()
                 .map(Hit::source).collect(Collectors.toList());
     }
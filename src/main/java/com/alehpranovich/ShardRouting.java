@@ -0,0 +1,110 @@
+package com.alehpranovich;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.indices.IndexSettings;
+import co.elastic.clients.elasticsearch.indices.IndexState;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Shard of a document, computed the way Elasticsearch routes it:
+ * <pre>
+ * shard = floorMod(murmur3_x86_32(routing as UTF-16LE, seed 0), routingNumShards) / (routingNumShards / numberOfShards)
+ * </pre>
+ * The routing of a movie is its id, which is also the {@code _id} of the document, so documents indexed
+ * without explicit routing land on the same shard.
+ */
+public final class ShardRouting {
+
+    private final int numberOfShards;
+    private final int routingNumShards;
+
+    private ShardRouting(int numberOfShards, int routingNumShards) {
+        if (numberOfShards < 1 || routingNumShards % numberOfShards != 0) {
+            throw new IllegalArgumentException("routingNumShards " + routingNumShards
+                    + " is not a multiple of numberOfShards " + numberOfShards);
+        }
+        this.numberOfShards = numberOfShards;
+        this.routingNumShards = routingNumShards;
+    }
+
+    public static ShardRouting of(int numberOfShards, int routingNumShards) {
+        return new ShardRouting(numberOfShards, routingNumShards);
+    }
+
+    /**
+     * Routing of an index created without {@code index.number_of_routing_shards}.
+     */
+    public static ShardRouting of(int numberOfShards) {
+        return new ShardRouting(numberOfShards, defaultRoutingNumShards(numberOfShards));
+    }
+
+    /**
+     * Reads the shard counts from the settings of {@code index}, which may be an alias of one index.
+     */
+    public static ShardRouting forIndex(ElasticsearchClient client, String index) throws IOException {
+        Map<String, IndexState> indices = client.indices().getSettings(g -> g.index(index)).result();
+        if (indices.size() != 1) {
+            throw new IOException(index + " resolves to " + indices.keySet() + ", expected exactly one index");
+        }
+        IndexSettings settings = indices.values().iterator().next().settings();
+        if (settings.index() != null) {
+            settings = settings.index();
+        }
+        int numberOfShards = Integer.parseInt(settings.numberOfShards());
+        Integer routingNumShards = settings.numberOfRoutingShards();
+        return routingNumShards != null ? of(numberOfShards, routingNumShards) : of(numberOfShards);
+    }
+
+    public int numberOfShards() {
+        return numberOfShards;
+    }
+
+    public int shardId(String routing) {
+        return Math.floorMod(hash(routing), routingNumShards) / (routingNumShards / numberOfShards);
+    }
+
+    /**
+     * The largest {@code numberOfShards * 2^n <= 1024}, at least {@code numberOfShards * 2},
+     * as chosen by Elasticsearch 7 and later.
+     */
+    static int defaultRoutingNumShards(int numberOfShards) {
+        int log2NumShards = 32 - Integer.numberOfLeadingZeros(numberOfShards - 1);
+        int splits = Math.max(1, 10 - log2NumShards);
+        return numberOfShards << splits;
+    }
+
+    /**
+     * murmur3_x86_32 with seed 0 over the UTF-16LE bytes of {@code routing}.
+     */
+    static int hash(String routing) {
+        int length = routing.length() * 2;
+        int h = 0;
+        int i = 0;
+        // two chars make one 4 byte block
+        for (; i + 1 < routing.length(); i += 2) {
+            int k = routing.charAt(i) | routing.charAt(i + 1) << 16;
+            k *= 0xcc9e2d51;
+            k = Integer.rotateLeft(k, 15);
+            k *= 0x1b873593;
+            h ^= k;
+            h = Integer.rotateLeft(h, 13);
+            h = h * 5 + 0xe6546b64;
+        }
+        if (i < routing.length()) {
+            int k = routing.charAt(i);
+            k *= 0xcc9e2d51;
+            k = Integer.rotateLeft(k, 15);
+            k *= 0x1b873593;
+            h ^= k;
+        }
+        h ^= length;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,74 @@
+package com.alehpranovich;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * One {@link BulkIngester} per shard of the target index: documents are partitioned by the shard
+ * their id routes to ({@link ShardRouting}), so every bulk request is handled by a single shard
+ * instead of being split by the coordinating node, and shards are fed independently of each other.
+ * <pre>
+ * try (ShardedIngester ingester = new ShardedIngester(ShardRouting.forIndex(client, index),
+ *         shard -> config.createIngester(client, metrics, "bulk.shard" + shard))) {
+ *     ingester.index(index, id, document);
+ * }
+ * </pre>
+ */
+public class ShardedIngester implements AutoCloseable {
+
+    private final ShardRouting routing;
+    private final List<BulkIngester> shards;
+
+    /**
+     * @param ingesterFactory creates the ingester of a shard
+     */
+    public ShardedIngester(ShardRouting routing, IntFunction<BulkIngester> ingesterFactory) {
+        this.routing = routing;
+        this.shards = new ArrayList<>(routing.numberOfShards());
+        for (int shard = 0; shard < routing.numberOfShards(); shard++) {
+            shards.add(ingesterFactory.apply(shard));
+        }
+    }
+
+    public void index(String index, String id, BulkIngester.DocumentWriter document) {
+        shards.get(routing.shardId(id)).index(index, id, document);
+    }
+
+    public void update(String index, String id, BulkIngester.DocumentWriter action) {
+        shards.get(routing.shardId(id)).update(index, id, action);
+    }
+
+    public void flush() {
+        shards.forEach(BulkIngester::flush);
+    }
+
+    /**
+     * Closes the ingesters of all shards.
+     *
+     * @throws BulkIngestException with the failures of all shards, if some operations failed
+     */
+    @Override
+    public void close() throws IOException {
+        long failedOperations = 0;
+        List<String> failureReasons = new ArrayList<>();
+        IOException error = null;
+        for (BulkIngester shard : shards) {
+            try {
+                shard.close();
+            } catch (BulkIngestException e) {
+                failedOperations += e.getFailedOperations();
+                failureReasons.addAll(e.getReasons());
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (failedOperations > 0) {
+            throw new BulkIngestException(failedOperations, failureReasons);
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package com.alehpranovich;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Rating or tag rows of one parser chunk, sorted by movieId with a bounded heap footprint.
+ * <p>
+ * Rows are buffered in primitive columns like in {@link MovieColumnStore}. When {@code maxRows} rows are buffered
+ * they are sorted and spilled to a deflated run file of {@code (movieId delta, userId, value)} {@link Varint}s.
+ * {@link #merge(List)} streams all runs of all chunks in movieId order, so the join of {@link MovieSnapshot}
+ * never holds more than the buffers in heap. Rows that were never spilled are merged straight from the buffer.
+ * <p>
+ * Within a movie rows keep their file order: the sort is stable, and runs are merged in chunk order,
+ * the buffered rows of a chunk last. The value is the rating as {@link Double#doubleToLongBits(double)} bits,
+ * or the tag id of the parser's {@link StringDictionary}.
+ */
+public class SortedRuns implements MappedCsvParser.RatingHandler, MappedCsvParser.TagIdHandler, Closeable {
+
+    /**
+     * Heap taken by a buffered row while it is sorted: the columns, the sort keys and the sorted copy.
+     */
+    public static final int BYTES_PER_ROW = 56;
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_FAN_IN = 64;
+
+    private final Path spillDirectory;
+    private final int maxRows;
+    private final List<Path> runs = new ArrayList<>();
+
+    private long[] movieIds = new long[1024];
+    private long[] userIds = new long[1024];
+    private long[] values = new long[1024];
+    private int rows;
+
+    public SortedRuns(Path spillDirectory, int maxRows) {
+        this.spillDirectory = spillDirectory;
+        this.maxRows = Math.max(1, maxRows);
+    }
+
+    /**
+     * Rows buffered in at most an eighth of the heap, the ratings and tags of a {@link MovieSnapshot} share them.
+     */
+    public static int defaultMaxRows() {
+        return (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8 / BYTES_PER_ROW);
+    }
+
+    @Override
+    public void rating(long userId, long movieId, double rating, long timestamp) {
+        add(movieId, userId, Double.doubleToLongBits(rating));
+    }
+
+    @Override
+    public void tag(long userId, long movieId, int tagId, long timestamp) {
+        add(movieId, userId, tagId);
+    }
+
+    private void add(long movieId, long userId, long value) {
+        if (rows == maxRows) {
+            try {
+                spill();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        if (rows == movieIds.length) {
+            int capacity = (int) Math.min(maxRows, rows * 2L);
+            movieIds = Arrays.copyOf(movieIds, capacity);
+            userIds = Arrays.copyOf(userIds, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        movieIds[rows] = movieId;
+        userIds[rows] = userId;
+        values[rows] = value;
+        rows++;
+    }
+
+    public int bufferedRows() {
+        return rows;
+    }
+
+    public int spilledRuns() {
+        return runs.size();
+    }
+
+    /**
+     * Sorts the buffered rows and writes them to a new run file.
+     */
+    public void spill() throws IOException {
+        if (rows == 0) {
+            return;
+        }
+        sort();
+        Path run = Files.createTempFile(spillDirectory, "run", ".bin");
+        runs.add(run);
+        writeRun(run, rows, new BufferCursor(this, 0));
+        rows = 0;
+    }
+
+    private static void writeRun(Path run, long rows, Cursor source) throws IOException {
+        BulkBuffer buffer = new BulkBuffer(WRITE_BUFFER_SIZE + 32);
+        try (OutputStream out = new DeflaterOutputStream(Files.newOutputStream(run),
+                new Deflater(Deflater.BEST_SPEED), WRITE_BUFFER_SIZE)) {
+            Varint.write(buffer, rows);
+            long previousMovieId = 0;
+            while (source.next()) {
+                Varint.write(buffer, source.movieId - previousMovieId);
+                Varint.write(buffer, source.userId);
+                Varint.write(buffer, source.value);
+                previousMovieId = source.movieId;
+                if (buffer.size() >= WRITE_BUFFER_SIZE) {
+                    out.write(buffer.bytes(), 0, buffer.size());
+                    buffer.reset();
+                }
+            }
+            out.write(buffer.bytes(), 0, buffer.size());
+        }
+    }
+
+    /**
+     * Deletes the run files.
+     */
+    @Override
+    public void close() throws IOException {
+        for (Path run : runs) {
+            Files.deleteIfExists(run);
+        }
+        runs.clear();
+    }
+
+    /**
+     * Runs beyond {@value #MAX_FAN_IN} are merged in several passes, consecutive runs into one at a time,
+     * so the open files stay bounded and the rows of a movie keep their order.
+     *
+     * @param chunks handlers in file order, as returned by {@link MappedCsvParser}
+     * @return the rows of all chunks in movieId order, the runs stay on disk until the chunks are closed
+     */
+    public static Cursor merge(List<SortedRuns> chunks) throws IOException {
+        List<Path> runs = new ArrayList<>();
+        for (SortedRuns chunk : chunks) {
+            runs.addAll(chunk.runs);
+        }
+        if (runs.size() > MAX_FAN_IN) {
+            runs.clear();
+            for (SortedRuns chunk : chunks) {
+                chunk.spill();
+                runs.addAll(chunk.runs);
+            }
+            Path spillDirectory = chunks.get(0).spillDirectory;
+            boolean intermediate = false;
+            while (runs.size() > MAX_FAN_IN) {
+                List<Path> merged = new ArrayList<>();
+                for (int from = 0; from < runs.size(); from += MAX_FAN_IN) {
+                    merged.add(mergeRuns(runs.subList(from, Math.min(runs.size(), from + MAX_FAN_IN)),
+                            spillDirectory, intermediate));
+                }
+                runs = merged;
+                intermediate = true;
+            }
+            return new MergeCursor(open(runs, intermediate));
+        }
+
+        List<Cursor> cursors = new ArrayList<>();
+        try {
+            for (SortedRuns chunk : chunks) {
+                for (Path run : chunk.runs) {
+                    cursors.add(new RunCursor(run, cursors.size(), false));
+                }
+                if (chunk.rows > 0) {
+                    chunk.sort();
+                    cursors.add(new BufferCursor(chunk, cursors.size()));
+                }
+            }
+        } catch (IOException e) {
+            closeAll(cursors);
+            throw e;
+        }
+        return new MergeCursor(cursors);
+    }
+
+    /**
+     * @param intermediate whether {@code runs} were written by an earlier pass, they are deleted once merged
+     */
+    private static Path mergeRuns(List<Path> runs, Path spillDirectory, boolean intermediate) throws IOException {
+        Path merged = Files.createTempFile(spillDirectory, "merged", ".bin");
+        try (MergeCursor cursor = new MergeCursor(open(runs, intermediate))) {
+            long rows = 0;
+            for (Cursor run : cursor.cursors) {
+                rows += ((RunCursor) run).remaining;
+            }
+            writeRun(merged, rows, cursor);
+        }
+        return merged;
+    }
+
+    private static List<Cursor> open(List<Path> runs, boolean deleteOnClose) throws IOException {
+        List<Cursor> cursors = new ArrayList<>();
+        try {
+            for (Path run : runs) {
+                cursors.add(new RunCursor(run, cursors.size(), deleteOnClose));
+            }
+        } catch (IOException e) {
+            closeAll(cursors);
+            throw e;
+        }
+        return cursors;
+    }
+
+    private static void closeAll(List<Cursor> cursors) throws IOException {
+        for (Cursor cursor : cursors) {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Stable sort of the buffered rows by movieId.
+     */
+    private void sort() {
+        long[] keys = new long[rows];
+        for (int row = 0; row < rows; row++) {
+            if (movieIds[row] < 0 || movieIds[row] > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("movieId out of range: " + movieIds[row]);
+            }
+            keys[row] = movieIds[row] << 32 | row;
+        }
+        Arrays.sort(keys);
+        long[] sortedUserIds = new long[movieIds.length];
+        long[] sortedValues = new long[movieIds.length];
+        for (int row = 0; row < rows; row++) {
+            int from = (int) keys[row];
+            movieIds[row] = keys[row] >>> 32;
+            sortedUserIds[row] = userIds[from];
+            sortedValues[row] = values[from];
+        }
+        userIds = sortedUserIds;
+        values = sortedValues;
+    }
+
+    /**
+     * Rows in movieId order, {@link #next()} moves to the first one.
+     */
+    public abstract static class Cursor implements Closeable {
+        private final int rank;
+        protected long movieId;
+        protected long userId;
+        protected long value;
+
+        Cursor(int rank) {
+            this.rank = rank;
+        }
+
+        /**
+         * @return false after the last row
+         */
+        public abstract boolean next() throws IOException;
+
+        public long movieId() {
+            return movieId;
+        }
+
+        public long userId() {
+            return userId;
+        }
+
+        public double rating() {
+            return Double.longBitsToDouble(value);
+        }
+
+        public int tagId() {
+            return (int) value;
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+
+    private static final class BufferCursor extends Cursor {
+        private final SortedRuns chunk;
+        private int row = -1;
+
+        BufferCursor(SortedRuns chunk, int rank) {
+            super(rank);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public boolean next() {
+            if (++row >= chunk.rows) {
+                return false;
+            }
+            movieId = chunk.movieIds[row];
+            userId = chunk.userIds[row];
+            value = chunk.values[row];
+            return true;
+        }
+    }
+
+    private static final class RunCursor extends Cursor {
+        private final Path run;
+        private final boolean deleteOnClose;
+        private final InputStream in;
+        private long remaining;
+
+        RunCursor(Path run, int rank, boolean deleteOnClose) throws IOException {
+            super(rank);
+            this.run = run;
+            this.deleteOnClose = deleteOnClose;
+            this.in = new BufferedInputStream(new InflaterInputStream(Files.newInputStream(run)), WRITE_BUFFER_SIZE);
+            this.remaining = Varint.read(in);
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            movieId += Varint.read(in);
+            userId = Varint.read(in);
+            value = Varint.read(in);
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+            if (deleteOnClose) {
+                Files.deleteIfExists(run);
+            }
+        }
+    }
+
+    /**
+     * K-way merge, ties are broken by rank so rows of a movie come in file order.
+     */
+    private static final class MergeCursor extends Cursor {
+        private final List<Cursor> cursors;
+        private final PriorityQueue<Cursor> heads = new PriorityQueue<>(
+                Comparator.comparingLong(Cursor::movieId).thenComparingInt(cursor -> cursor.rank));
+        private Cursor current;
+        private boolean started;
+
+        MergeCursor(List<Cursor> cursors) {
+            super(0);
+            this.cursors = cursors;
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            if (!started) {
+                started = true;
+                for (Cursor cursor : cursors) {
+                    if (cursor.next()) {
+                        heads.add(cursor);
+                    }
+                }
+            } else if (current == null) {
+                return false;
+            } else if (current.next()) {
+                heads.add(current);
+            }
+            current = heads.poll();
+            if (current == null) {
+                return false;
+            }
+            movieId = current.movieId;
+            userId = current.userId;
+            value = current.value;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closeAll(cursors);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.alehpranovich;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Interns repeated strings (tags, genres) and maps them to dense int ids.
+ * Every value is kept once, with its UTF-8 bytes and its quoted JSON string, so repeated values are
+ * neither allocated again nor escaped again when written with {@link #writeJson(BulkBuffer, int)}.
+ * <p>
+ * Safe to use from several parser threads. Lookups of known values and {@link #value(int)} do not lock,
+ * only adding a new value does. Values are looked up by their UTF-8 bytes, so a parser can find
+ * the id of a field without creating a {@link String} for it, see {@link #id(byte[], int, int)}.
+ */
+public class StringDictionary {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private volatile Table table = new Table(INITIAL_CAPACITY);
+
+    public int id(String value) {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        return id(utf8, 0, utf8.length);
+    }
+
+    /**
+     * Id of the UTF-8 encoded value in {@code bytes[offset, offset + length)}, the bytes are copied only
+     * when the value is new.
+     */
+    public int id(byte[] bytes, int offset, int length) {
+        int hash = hash(bytes, offset, length);
+        int id = table.find(bytes, offset, length, hash);
+        return id >= 0 ? id : add(bytes, offset, length, hash);
+    }
+
+    /**
+     * Id of {@code chars[start, end)}, a genre split out of a line, see {@link #split(String, char)}.
+     */
+    public int id(String chars, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (chars.charAt(i) >= 0x80) {
+                return id(chars.substring(start, end));
+            }
+        }
+        // ASCII chars are their own UTF-8 bytes
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + chars.charAt(i);
+        }
+        hash = mix(hash);
+        Table current = table;
+        int id = current.find(chars, start, end, hash);
+        if (id >= 0) {
+            return id;
+        }
+        byte[] ascii = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            ascii[i - start] = (byte) chars.charAt(i);
+        }
+        return add(ascii, 0, ascii.length, hash);
+    }
+
+    /**
+     * @return the canonical instance of {@code value}
+     */
+    public String intern(String value) {
+        return value(id(value));
+    }
+
+    public String value(int id) {
+        return table.values[id];
+    }
+
+    /**
+     * @return the value as a quoted and escaped JSON string, shared and must not be modified
+     */
+    public byte[] json(int id) {
+        return table.json[id];
+    }
+
+    public void writeJson(BulkBuffer out, int id) {
+        out.write(table.json[id]);
+    }
+
+    public int size() {
+        return table.size;
+    }
+
+    /**
+     * Splits {@code value} at {@code separator} into canonical values, e.g. {@code "Adventure|Comedy"} into genres.
+     */
+    public Values split(String value, char separator) {
+        int count = 1;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) == separator) {
+                count++;
+            }
+        }
+        int[] ids = new int[count];
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            int end = value.indexOf(separator, start);
+            if (end < 0) {
+                end = value.length();
+            }
+            ids[i] = id(value, start, end);
+            start = end + 1;
+        }
+        return new Values(this, ids);
+    }
+
+    /**
+     * @return the canonical values of {@code ids}, e.g. genres read back from a {@link MovieSnapshot}
+     */
+    public Values values(int[] ids) {
+        return new Values(this, ids);
+    }
+
+    private synchronized int add(byte[] bytes, int offset, int length, int hash) {
+        Table current = table;
+        int id = current.find(bytes, offset, length, hash);
+        if (id >= 0) {
+            return id;
+        }
+        if (current.size == current.values.length) {
+            current = current.grow();
+        }
+        id = current.size;
+        byte[] utf8 = Arrays.copyOfRange(bytes, offset, offset + length);
+        String value = new String(utf8, StandardCharsets.UTF_8);
+        BulkBuffer json = new BulkBuffer(length + 2);
+        JsonBytes.writeString(json, value);
+        current.values[id] = value;
+        current.utf8[id] = utf8;
+        current.json[id] = Arrays.copyOf(json.bytes(), json.size());
+        current.hashes[id] = hash;
+        current.size = id + 1;
+        current.insert(id, hash); // publishes the entry to lock-free readers
+        table = current;
+        return id;
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return mix(hash);
+    }
+
+    private static int mix(int hash) {
+        return hash ^ hash >>> 16;
+    }
+
+    /**
+     * Open addressing over ids, at most half full. Entries are written before their slot is set,
+     * and a grown table is published as a whole, so readers always see complete entries.
+     */
+    private static final class Table {
+        private final AtomicIntegerArray slots;
+        private final String[] values;
+        private final byte[][] utf8;
+        private final byte[][] json;
+        private final int[] hashes;
+        private volatile int size;
+
+        private Table(int capacity) {
+            this.slots = new AtomicIntegerArray(capacity * 2);
+            this.values = new String[capacity];
+            this.utf8 = new byte[capacity][];
+            this.json = new byte[capacity][];
+            this.hashes = new int[capacity];
+        }
+
+        private Table grow() {
+            Table grown = new Table(values.length * 2);
+            System.arraycopy(values, 0, grown.values, 0, size);
+            System.arraycopy(utf8, 0, grown.utf8, 0, size);
+            System.arraycopy(json, 0, grown.json, 0, size);
+            System.arraycopy(hashes, 0, grown.hashes, 0, size);
+            grown.size = size;
+            for (int id = 0; id < size; id++) {
+                grown.insert(id, hashes[id]);
+            }
+            return grown;
+        }
+
+        private void insert(int id, int hash) {
+            int mask = slots.length() - 1;
+            int slot = hash & mask;
+            while (slots.get(slot) != 0) {
+                slot = slot + 1 & mask;
+            }
+            slots.set(slot, id + 1);
+        }
+
+        private int find(byte[] bytes, int offset, int length, int hash) {
+            int mask = slots.length() - 1;
+            for (int slot = hash & mask; ; slot = slot + 1 & mask) {
+                int id = slots.get(slot) - 1;
+                if (id < 0) {
+                    return -1;
+                }
+                byte[] candidate = utf8[id];
+                if (hashes[id] == hash && candidate.length == length && equal(candidate, bytes, offset)) {
+                    return id;
+                }
+            }
+        }
+
+        private int find(String chars, int start, int end, int hash) {
+            int mask = slots.length() - 1;
+            for (int slot = hash & mask; ; slot = slot + 1 & mask) {
+                int id = slots.get(slot) - 1;
+                if (id < 0) {
+                    return -1;
+                }
+                byte[] candidate = utf8[id];
+                if (hashes[id] == hash && candidate.length == end - start && equal(candidate, chars, start)) {
+                    return id;
+                }
+            }
+        }
+
+        private static boolean equal(byte[] candidate, byte[] bytes, int offset) {
+            for (int i = 0; i < candidate.length; i++) {
+                if (candidate[i] != bytes[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean equal(byte[] candidate, String chars, int start) {
+            for (int i = 0; i < candidate.length; i++) {
+                if (candidate[i] != chars.charAt(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Unmodifiable list of canonical values, written as a JSON array of the cached fragments by {@link #writeJson(BulkBuffer)}.
+     */
+    public static final class Values extends AbstractList<String> implements RandomAccess {
+        private final StringDictionary dictionary;
+        private final int[] ids;
+
+        private Values(StringDictionary dictionary, int[] ids) {
+            this.dictionary = dictionary;
+            this.ids = ids;
+        }
+
+        @Override
+        public String get(int index) {
+            return dictionary.value(ids[index]);
+        }
+
+        @Override
+        public int size() {
+            return ids.length;
+        }
+
+        public void writeJson(BulkBuffer out) {
+            out.write('[');
+            for (int i = 0; i < ids.length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                dictionary.writeJson(out, ids[i]);
+            }
+            out.write(']');
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.alehpranovich;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.apache.http.HttpHost;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.ssl.SSLContexts;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
+import org.elasticsearch.client.sniff.ElasticsearchNodesSniffer;
+import org.elasticsearch.client.sniff.SniffOnFailureListener;
+import org.elasticsearch.client.sniff.Sniffer;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Builds the one transport (and its connection pool) that indexing and search share:
+ * <pre>
+ * ElasticsearchTransport transport = TransportFactory.fromEnv().createTransport();
+ * ElasticsearchClient client = new ElasticsearchClient(transport);
+ * SearchClient search = new SearchClient(client);
+ * </pre>
+ * Requests are spread round-robin over {@link #hosts}. With a positive {@link #sniffIntervalMillis} the node list
+ * is refreshed from the cluster, that needs the optional {@code elasticsearch-rest-client-sniffer} dependency.
+ * Request bodies, bulk bodies included, are gzipped when {@link #compression} is on.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class TransportFactory {
+
+    public static final int DEFAULT_PORT = 9200;
+
+    /**
+     * {@code host} or {@code host:port}, the port defaults to {@link #port}.
+     */
+    @Builder.Default
+    private List<String> hosts = Collections.singletonList("localhost");
+
+    @Builder.Default
+    private int port = DEFAULT_PORT;
+
+    @Builder.Default
+    private String scheme = "https";
+
+    /**
+     * CA certificate of the cluster, the JVM trust store is used when not set.
+     */
+    private String certPath;
+
+    private String userName;
+
+    private String password;
+
+    /**
+     * The Apache client defaults to 10 per route and 30 in total, too few for concurrent bulk senders
+     * and fanned-out searches.
+     */
+    @Builder.Default
+    private int maxConnPerRoute = 32;
+
+    @Builder.Default
+    private int maxConnTotal = 128;
+
+    @Builder.Default
+    private int connectTimeoutMillis = 5_000;
+
+    @Builder.Default
+    private int socketTimeoutMillis = 60_000;
+
+    /**
+     * How long an idle pooled connection is kept open. Busy connections are reused for as long as they stay busy,
+     * an idle one past this age is closed when the pool would lease it.
+     */
+    @Builder.Default
+    private long keepAliveMillis = 60_000;
+
+    @Builder.Default
+    private boolean compression = true;
+
+    /**
+     * Sniffing is disabled when not positive.
+     */
+    @Builder.Default
+    private long sniffIntervalMillis = 0;
+
+    /**
+     * Reads {@code ELASTIC_HOSTS} (comma separated), {@code ELASTIC_PORT}, {@code ELASTIC_SCHEME},
+     * {@code ELASTIC_CERT_PATH}, {@code ELASTIC_USERNAME}, {@code ELASTIC_PASSWORD}, {@code ELASTIC_MAX_CONN_PER_ROUTE},
+     * {@code ELASTIC_MAX_CONN_TOTAL}, {@code ELASTIC_CONNECT_TIMEOUT_MS}, {@code ELASTIC_SOCKET_TIMEOUT_MS},
+     * {@code ELASTIC_KEEP_ALIVE_MS}, {@code ELASTIC_COMPRESSION} and {@code ELASTIC_SNIFF_INTERVAL_MS}.
+     */
+    public static TransportFactory fromEnv() {
+        TransportFactory defaults = TransportFactory.builder().build();
+        return TransportFactory.builder()
+                .hosts(env("ELASTIC_HOSTS", value -> Arrays.asList(value.split("\\s*,\\s*")), defaults.getHosts()))
+                .port(env("ELASTIC_PORT", Integer::valueOf, defaults.getPort()))
+                .scheme(env("ELASTIC_SCHEME", Function.identity(), defaults.getScheme()))
+                .certPath(System.getenv("ELASTIC_CERT_PATH"))
+                .userName(System.getenv("ELASTIC_USERNAME"))
+                .password(System.getenv("ELASTIC_PASSWORD"))
+                .maxConnPerRoute(env("ELASTIC_MAX_CONN_PER_ROUTE", Integer::valueOf, defaults.getMaxConnPerRoute()))
+                .maxConnTotal(env("ELASTIC_MAX_CONN_TOTAL", Integer::valueOf, defaults.getMaxConnTotal()))
+                .connectTimeoutMillis(env("ELASTIC_CONNECT_TIMEOUT_MS", Integer::valueOf, defaults.getConnectTimeoutMillis()))
+                .socketTimeoutMillis(env("ELASTIC_SOCKET_TIMEOUT_MS", Integer::valueOf, defaults.getSocketTimeoutMillis()))
+                .keepAliveMillis(env("ELASTIC_KEEP_ALIVE_MS", Long::valueOf, defaults.getKeepAliveMillis()))
+                .compression(env("ELASTIC_COMPRESSION", Boolean::valueOf, defaults.isCompression()))
+                .sniffIntervalMillis(env("ELASTIC_SNIFF_INTERVAL_MS", Long::valueOf, defaults.getSniffIntervalMillis()))
+                .build();
+    }
+
+    public ElasticsearchClient createClient() throws GeneralSecurityException, IOException {
+        return new ElasticsearchClient(createTransport());
+    }
+
+    /**
+     * Closing the transport closes the connection pool and stops sniffing.
+     */
+    public ElasticsearchTransport createTransport() throws GeneralSecurityException, IOException {
+        if (sniffIntervalMillis > 0) {
+            return Sniffing.createTransport(this);
+        }
+        return new RestClientTransport(restClientBuilder().build(), new JacksonJsonpMapper());
+    }
+
+    private RestClientBuilder restClientBuilder() throws GeneralSecurityException, IOException {
+        SSLContext sslContext = sslContext();
+        CredentialsProvider credentialsProvider = null;
+        if (userName != null) {
+            credentialsProvider = new BasicCredentialsProvider();
+            credentialsProvider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(userName, password));
+        }
+        CredentialsProvider credentials = credentialsProvider;
+
+        return RestClient.builder(httpHosts())
+                .setCompressionEnabled(compression)
+                .setRequestConfigCallback(requestConfig -> requestConfig
+                        .setConnectTimeout(connectTimeoutMillis)
+                        .setSocketTimeout(socketTimeoutMillis))
+                .setHttpClientConfigCallback(httpClientBuilder -> {
+                    httpClientBuilder
+                            .setMaxConnPerRoute(maxConnPerRoute)
+                            .setMaxConnTotal(maxConnTotal)
+                            .setKeepAliveStrategy((response, context) -> keepAliveMillis);
+                    if (sslContext != null) {
+                        httpClientBuilder.setSSLContext(sslContext);
+                    }
+                    if (credentials != null) {
+                        httpClientBuilder.setDefaultCredentialsProvider(credentials);
+                    }
+                    return httpClientBuilder;
+                });
+    }
+
+    private HttpHost[] httpHosts() {
+        HttpHost[] httpHosts = new HttpHost[hosts.size()];
+        for (int i = 0; i < httpHosts.length; i++) {
+            String host = hosts.get(i);
+            int colon = host.lastIndexOf(':');
+            httpHosts[i] = colon < 0
+                    ? new HttpHost(host, port, scheme)
+                    : new HttpHost(host.substring(0, colon), Integer.parseInt(host.substring(colon + 1)), scheme);
+        }
+        return httpHosts;
+    }
+
+    private SSLContext sslContext() throws GeneralSecurityException, IOException {
+        if (certPath == null) {
+            return null;
+        }
+        CertificateFactory factory = CertificateFactory.getInstance("X.509");
+        Certificate trustedCa;
+        try (InputStream is = Files.newInputStream(Paths.get(certPath))) {
+            trustedCa = factory.generateCertificate(is);
+        }
+        KeyStore trustStore = KeyStore.getInstance("pkcs12");
+        trustStore.load(null, null);
+        trustStore.setCertificateEntry("ca", trustedCa);
+
+        return SSLContexts.custom().loadTrustMaterial(trustStore, null).build();
+    }
+
+    private static <T> T env(String name, Function<String, T> parser, T defaultValue) {
+        String value = System.getenv(name);
+        return value != null ? parser.apply(value) : defaultValue;
+    }
+
+    /**
+     * Kept apart so the sniffer classes are only loaded when sniffing is enabled.
+     */
+    private static final class Sniffing {
+
+        static ElasticsearchTransport createTransport(TransportFactory factory) throws GeneralSecurityException, IOException {
+            SniffOnFailureListener failureListener = new SniffOnFailureListener();
+            RestClient restClient = factory.restClientBuilder()
+                    .setFailureListener(failureListener)
+                    .build();
+            Sniffer sniffer = Sniffer.builder(restClient)
+                    .setNodesSniffer(new ElasticsearchNodesSniffer(restClient,
+                            ElasticsearchNodesSniffer.DEFAULT_SNIFF_REQUEST_TIMEOUT,
+                            "https".equals(factory.getScheme())
+                                    ? ElasticsearchNodesSniffer.Scheme.HTTPS
+                                    : ElasticsearchNodesSniffer.Scheme.HTTP))
+                    .setSniffIntervalMillis((int) Math.min(Integer.MAX_VALUE, factory.getSniffIntervalMillis()))
+                    .build();
+            failureListener.setSniffer(sniffer);
+            return new RestClientTransport(restClient, new JacksonJsonpMapper()) {
+                @Override
+                public void close() throws IOException {
+                    sniffer.close();
+                    super.close();
+                }
+            };
+        }
+    }
+}
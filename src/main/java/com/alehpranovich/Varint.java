@@ -0,0 +1,85 @@
+package com.alehpranovich;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * LEB128 variable-length integers of {@link MovieSnapshot} and {@link SortedRuns}: 7 bits per byte, low bits first,
+ * the high bit set on every byte but the last. Ids and deltas below 128 take a single byte.
+ * Signed deltas are zigzag encoded first, so small negative values stay short too.
+ */
+public final class Varint {
+
+    private Varint() {
+    }
+
+    public static void write(BulkBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    public static void writeSigned(BulkBuffer out, long value) {
+        write(out, value << 1 ^ value >> 63);
+    }
+
+    /**
+     * @throws EOFException if the stream ends before a value starts or inside one
+     */
+    public static long read(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if (b < 0x80) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Cursor over values encoded into a byte array.
+     */
+    public static final class Reader {
+        private final byte[] bytes;
+        private int position;
+
+        public Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        public long next() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+
+        public int nextInt() {
+            return Math.toIntExact(next());
+        }
+
+        public long nextSigned() {
+            long value = next();
+            return value >>> 1 ^ -(value & 1);
+        }
+
+        public int position() {
+            return position;
+        }
+
+        public void skip(int length) {
+            position += length;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.alehpranovich;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AdaptiveBulkControllerTest {
+
+    private static final int MAX_OPERATIONS = 1000;
+    private static final long MAX_BYTES = 1024 * 1024;
+    private static final int MAX_CONCURRENCY = 4;
+    private static final long TARGET_LATENCY_MILLIS = 1000;
+
+    private final AdaptiveBulkController controller =
+            new AdaptiveBulkController(MAX_OPERATIONS, MAX_BYTES, MAX_CONCURRENCY, TARGET_LATENCY_MILLIS);
+
+    @Test
+    void slowStartDoublesBatchThenAddsRequests() {
+        assertEquals(AdaptiveBulkController.INITIAL_OPERATIONS, controller.operations());
+        assertEquals(1, controller.concurrency());
+
+        for (int expected : new int[]{200, 400, 800, 1000}) {
+            fast();
+            assertEquals(expected, controller.operations());
+            assertEquals(1, controller.concurrency());
+        }
+
+        fast();
+        assertEquals(MAX_OPERATIONS, controller.operations());
+        assertEquals(2, controller.concurrency());
+
+        // an epoch is as many responses as requests in flight
+        fast();
+        assertEquals(2, controller.concurrency());
+        fast();
+        assertEquals(3, controller.concurrency());
+
+        reachMaxConcurrency();
+        epoch(this::fast);
+        assertEquals(MAX_CONCURRENCY, controller.concurrency());
+    }
+
+    @Test
+    void requestsCutAtMaxBytesAddConcurrencyInstead() {
+        controller.completed(AdaptiveBulkController.INITIAL_OPERATIONS, MAX_BYTES, millis(10), 0);
+
+        assertEquals(AdaptiveBulkController.INITIAL_OPERATIONS, controller.operations());
+        assertEquals(2, controller.concurrency());
+    }
+
+    @Test
+    void rejectionsHalveConcurrencyThenBatch() {
+        reachMaxConcurrency();
+
+        epoch(controller::rejected);
+        assertEquals(2, controller.concurrency());
+        assertEquals(MAX_OPERATIONS, controller.operations());
+
+        // items rejected in an otherwise successful response count as well
+        epoch(() -> controller.completed(MAX_OPERATIONS, 0, millis(10), 1));
+        assertEquals(1, controller.concurrency());
+        assertEquals(MAX_OPERATIONS, controller.operations());
+
+        controller.rejected();
+        assertEquals(1, controller.concurrency());
+        assertEquals(MAX_OPERATIONS / 2, controller.operations());
+
+        // slow start is over, the batch grows by a twentieth of maxOperations
+        fast();
+        assertEquals(MAX_OPERATIONS / 2 + MAX_OPERATIONS / 20, controller.operations());
+    }
+
+    @Test
+    void slowResponsesShrinkBatch() {
+        controller.completed(100, 0, millis(1250), 0);
+        assertEquals(80, controller.operations());
+
+        // by half at most
+        controller.completed(80, 0, millis(5000), 0);
+        assertEquals(40, controller.operations());
+
+        // between 80% and 100% of the target nothing changes
+        controller.completed(40, 0, millis(900), 0);
+        assertEquals(40, controller.operations());
+        assertEquals(1, controller.concurrency());
+
+        fast();
+        assertEquals(40 + MAX_OPERATIONS / 20, controller.operations());
+    }
+
+    @Test
+    void epochLatencyIsTheMean() {
+        reachMaxConcurrency();
+        controller.completed(MAX_OPERATIONS, 0, millis(100), 0);
+        controller.completed(MAX_OPERATIONS, 0, millis(100), 0);
+        controller.completed(MAX_OPERATIONS, 0, millis(100), 0);
+        assertEquals(MAX_OPERATIONS, controller.operations());
+
+        controller.completed(MAX_OPERATIONS, 0, millis(7700), 0);
+        assertEquals(MAX_OPERATIONS / 2, controller.operations());
+        assertEquals(MAX_CONCURRENCY, controller.concurrency());
+    }
+
+    private void reachMaxConcurrency() {
+        while (controller.concurrency() < MAX_CONCURRENCY) {
+            fast();
+        }
+        assertEquals(MAX_OPERATIONS, controller.operations());
+    }
+
+    private void epoch(Runnable response) {
+        for (int i = controller.concurrency(); i > 0; i--) {
+            response.run();
+        }
+    }
+
+    private void fast() {
+        controller.completed(controller.operations(), 0, millis(10), 0);
+    }
+
+    private static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
@@ -0,0 +1,166 @@
+package com.alehpranovich;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Replays the same {@link AppendScript} updates, including a resent window and the rows of a next file, against
+ * the Java port of the script in {@link LocalElasticsearch} and, when {@code ELASTIC_HOSTS} is set, against
+ * the painless script on a real cluster. Both have to end with the same documents.
+ */
+class AppendScriptReplayTest {
+
+    private static final String INDEX = "append_script_replay_test";
+
+    private static final String RATINGS = "userId,movieId,rating,timestamp\n"
+            + "1,1,4.0,100\n"
+            + "2,1,3.5,101\n"
+            + "1,2,2.0,102\n"
+            + "3,1,5.0,103\n";
+    private static final String TAGS = "userId,movieId,tag,timestamp\n"
+            + "1,1,funny,100\n"
+            + "2,1,classic,101\n"
+            + "3,1,classic,102\n"
+            + "4,1,pixar,103\n";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void replayOnLocalElasticsearch() throws IOException, GeneralSecurityException {
+        try (LocalElasticsearch es = LocalElasticsearch.builder().build()) {
+            ElasticsearchClient client = TransportFactory.builder()
+                    .scheme("http")
+                    .port(es.getPort())
+                    .build()
+                    .createClient();
+            try {
+                replay(client);
+            } finally {
+                client._transport().close();
+            }
+        }
+    }
+
+    @Test
+    void replayOnCluster() throws IOException, GeneralSecurityException {
+        assumeTrue(System.getenv("ELASTIC_HOSTS") != null, "ELASTIC_HOSTS is not set");
+        ElasticsearchClient client = TransportFactory.fromEnv().createClient();
+        try {
+            replay(client);
+        } finally {
+            IndexUtil.deleteIndexIfExists(client, INDEX);
+            client._transport().close();
+        }
+    }
+
+    private void replay(ElasticsearchClient client) throws IOException {
+        Path ratings = Files.write(directory.resolve("ratings.csv"), RATINGS.getBytes(StandardCharsets.UTF_8));
+        Path tags = Files.write(directory.resolve("tags.csv"), TAGS.getBytes(StandardCharsets.UTF_8));
+        long ratingsWindow = lineEnd(RATINGS, 3);
+        long tagsWindow = lineEnd(TAGS, 2);
+        long ratingsEnd = Files.size(ratings);
+        long tagsEnd = Files.size(tags);
+
+        IndexUtil.deleteIndexIfExists(client, INDEX);
+        IndexUtil.createIndexIfNotExists(client, INDEX);
+        IndexUtil.addMapping(client, INDEX);
+        AppendScript.store(client);
+
+        append(client, ratings, 0, ratingsWindow, tags, 0, tagsWindow);
+        append(client, ratings, ratingsWindow, ratingsEnd, tags, tagsWindow, tagsEnd);
+        // a resumed run sends the last window again, it must not be appended twice
+        append(client, ratings, ratingsWindow, ratingsEnd, tags, tagsWindow, tagsEnd);
+        client.indices().refresh(r -> r.index(INDEX));
+
+        ObjectNode movie = source(client, "1");
+        assertEquals(3, movie.get("ratings").size());
+        assertEquals(4, movie.get("tags").size());
+        assertEquals(3, movie.get("ratingCount").asLong());
+        assertEquals(12.5, movie.get("ratingSum").asDouble(), 1e-9);
+        assertEquals(12.5 / 3, movie.get("avgRating").asDouble(), 1e-9);
+        assertEquals(Arrays.asList(0L, 0L, 0L, 0L, 0L, 0L, 1L, 1L, 0L, 1L), longs(movie, "ratingHistogram"));
+        assertEquals(Arrays.asList("classic", "funny", "pixar"), strings(movie, "topTags"));
+        assertEquals(ratingsEnd, movie.get("ratingsOffset").asLong());
+        assertEquals(tagsEnd, movie.get("tagsOffset").asLong());
+
+        ObjectNode upserted = source(client, "2");
+        assertEquals(2, upserted.get("movieId").asLong());
+        assertEquals(1, upserted.get("ratings").size());
+        assertEquals(0, upserted.get("tags").size());
+        assertEquals(Arrays.asList(0L, 0L, 0L, 1L, 0L, 0L, 0L, 0L, 0L, 0L), longs(upserted, "ratingHistogram"));
+        assertEquals(ratingsWindow, upserted.get("ratingsOffset").asLong());
+
+        // the next delta starts again at offset 0, below the offsets stored for the first files
+        Path nextRatings = Files.write(directory.resolve("ratings-2.csv"),
+                "userId,movieId,rating,timestamp\n5,1,1.0,104\n".getBytes(StandardCharsets.UTF_8));
+        Path nextTags = Files.write(directory.resolve("tags-2.csv"),
+                "userId,movieId,tag,timestamp\n5,1,funny,104\n".getBytes(StandardCharsets.UTF_8));
+        append(client, nextRatings, 0, Files.size(nextRatings), nextTags, 0, Files.size(nextTags));
+        append(client, nextRatings, 0, Files.size(nextRatings), nextTags, 0, Files.size(nextTags));
+        client.indices().refresh(r -> r.index(INDEX));
+
+        movie = source(client, "1");
+        assertEquals(4, movie.get("ratings").size());
+        assertEquals(5, movie.get("tags").size());
+        assertEquals(4, movie.get("ratingCount").asLong());
+        assertEquals(Arrays.asList("funny", "classic", "pixar"), strings(movie, "topTags"));
+        assertEquals(Files.size(nextRatings), movie.get("ratingsOffset").asLong());
+        assertEquals("ratings-2.csv", movie.get("ratingsFile").asText());
+        assertEquals("tags-2.csv", movie.get("tagsFile").asText());
+    }
+
+    private static void append(ElasticsearchClient client, Path ratings, long ratingsFrom, long ratingsTo,
+                               Path tags, long tagsFrom, long tagsTo) throws IOException {
+        MovieColumnStore rows = IndexUtil.readRatingsAndTags(ratings, ratingsFrom, ratingsTo, tags, tagsFrom, tagsTo,
+                1, new IngestMetrics());
+        try (BulkIngester ingester = BulkIngester.builder().client(client).build()) {
+            for (long movieId : rows.movieIds()) {
+                ingester.update(INDEX, Long.toString(movieId),
+                        out -> AppendScript.writeUpdate(out, rows, movieId, ratings.getFileName().toString(), ratingsTo,
+                                tags.getFileName().toString(), tagsTo));
+            }
+        }
+    }
+
+    private static ObjectNode source(ElasticsearchClient client, String id) throws IOException {
+        return client.get(g -> g.index(INDEX).id(id), ObjectNode.class).source();
+    }
+
+    /**
+     * @return offset right after line {@code lines} of {@code csv}, the header is line 0
+     */
+    private static long lineEnd(String csv, int lines) {
+        int end = -1;
+        for (int line = 0; line <= lines; line++) {
+            end = csv.indexOf('\n', end + 1);
+        }
+        return end + 1;
+    }
+
+    private static List<Long> longs(ObjectNode source, String field) {
+        List<Long> values = new ArrayList<>();
+        source.get(field).forEach(value -> values.add(value.asLong()));
+        return values;
+    }
+
+    private static List<String> strings(ObjectNode source, String field) {
+        List<String> values = new ArrayList<>();
+        source.get(field).forEach(value -> values.add(value.asText()));
+        return values;
+    }
+}
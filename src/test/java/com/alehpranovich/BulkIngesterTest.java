@@ -0,0 +1,136 @@
+package com.alehpranovich;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * {@link BulkIngester} against {@link LocalElasticsearch}, which answers a fixed number of requests or items with 429.
+ */
+class BulkIngesterTest {
+
+    private static final String INDEX = "bulk_ingester_test";
+    private static final int DOCUMENTS = 10;
+
+    private LocalElasticsearch es;
+    private ElasticsearchClient client;
+
+    private void start(LocalElasticsearch.LocalElasticsearchBuilder builder) throws IOException, GeneralSecurityException {
+        es = builder.build();
+        client = TransportFactory.builder().scheme("http").port(es.getPort()).build().createClient();
+        IndexUtil.createIndexIfNotExists(client, INDEX);
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        client._transport().close();
+        es.close();
+    }
+
+    @Test
+    void retriesRejectedRequest() throws IOException, GeneralSecurityException {
+        start(LocalElasticsearch.builder().rejectFirstRequests(2));
+        IngestMetrics metrics = new IngestMetrics();
+
+        try (BulkIngester ingester = ingester(metrics).build()) {
+            indexDocuments(ingester);
+        }
+
+        assertEquals(DOCUMENTS, es.documentCount(INDEX));
+        assertEquals(3, es.getBulkRequests());
+        assertEquals(2, es.getRejectedRequests());
+        assertEquals(2 * DOCUMENTS, metrics.getRetries());
+    }
+
+    @Test
+    void retriesRejectedItems() throws IOException, GeneralSecurityException {
+        start(LocalElasticsearch.builder().rejectFirstItems(3));
+        IngestMetrics metrics = new IngestMetrics();
+
+        try (BulkIngester ingester = ingester(metrics).build()) {
+            indexDocuments(ingester);
+        }
+
+        assertEquals(DOCUMENTS, es.documentCount(INDEX));
+        assertEquals(2, es.getBulkRequests());
+        assertEquals(3, es.getRejectedItems());
+        assertEquals(3, metrics.getRetries());
+    }
+
+    @Test
+    void failsWhenRetriesAreExhausted() throws IOException, GeneralSecurityException {
+        start(LocalElasticsearch.builder().rejectFirstRequests(Integer.MAX_VALUE));
+        IngestMetrics metrics = new IngestMetrics();
+
+        BulkIngester ingester = ingester(metrics).maxRetries(2).build();
+        indexDocuments(ingester);
+        BulkIngestException e = assertThrows(BulkIngestException.class, ingester::close);
+
+        assertEquals(DOCUMENTS, e.getFailedOperations());
+        assertEquals(3, es.getBulkRequests());
+        assertEquals(0, es.documentCount(INDEX));
+        assertEquals(DOCUMENTS, metrics.getFailedOperations());
+    }
+
+    @Test
+    void closeSendsBatchesTakenByScheduledFlush() throws IOException, GeneralSecurityException {
+        start(LocalElasticsearch.builder().latencyMillis(20L));
+        int documents = 200;
+
+        // the interval flush takes a batch every millisecond and waits for the single sender
+        try (BulkIngester ingester = BulkIngester.builder().client(client).flushIntervalMillis(1L).build()) {
+            for (int i = 0; i < documents; i++) {
+                ingester.index(INDEX, Integer.toString(i), Collections.singletonMap("title", "movie " + i));
+            }
+        }
+
+        assertEquals(documents, es.documentCount(INDEX));
+    }
+
+    @Test
+    void gaugesOfOpenIngestersDoNotOverlapAndAreRemovedOnClose() throws IOException, GeneralSecurityException {
+        start(LocalElasticsearch.builder());
+        IngestMetrics metrics = new IngestMetrics();
+
+        try (BulkIngester first = ingester(metrics).build()) {
+            try (BulkIngester second = ingester(metrics).build()) {
+                indexDocuments(second);
+                assertEquals(Arrays.asList("bulk-2.batchOperations", "bulk-2.bufferedOperations", "bulk-2.concurrency",
+                                "bulk-2.inFlightRequests", "bulk.batchOperations", "bulk.bufferedOperations",
+                                "bulk.concurrency", "bulk.inFlightRequests"),
+                        new ArrayList<>(metrics.getGauges().keySet()));
+            }
+            assertEquals(Arrays.asList("bulk.batchOperations", "bulk.bufferedOperations", "bulk.concurrency",
+                    "bulk.inFlightRequests"), new ArrayList<>(metrics.getGauges().keySet()));
+        }
+
+        assertEquals(Collections.emptyMap(), metrics.getGauges());
+        // the default name is free again
+        try (BulkIngester ingester = ingester(metrics).build()) {
+            assertEquals(4, metrics.getGauges().keySet().stream().filter(name -> name.startsWith("bulk.")).count());
+        }
+    }
+
+    private BulkIngester.BulkIngesterBuilder ingester(IngestMetrics metrics) {
+        return BulkIngester.builder()
+                .client(client)
+                .maxOperations(DOCUMENTS)
+                .initialBackoffMillis(1L)
+                .metrics(metrics);
+    }
+
+    private static void indexDocuments(BulkIngester ingester) {
+        for (int i = 0; i < DOCUMENTS; i++) {
+            ingester.index(INDEX, Integer.toString(i), Collections.singletonMap("title", "movie " + i));
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.alehpranovich;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class IndexGenerationsTest {
+
+    @Test
+    void movesOnAgainOnceTheWritesAreRefreshed() throws InterruptedException {
+        String index = "index_generations_test";
+        long start = IndexGenerations.current(index);
+
+        IndexGenerations.written(index);
+        IndexGenerations.written(index);
+        assertEquals(start + 2, IndexGenerations.current(index));
+
+        // a search now may still see the documents before the writes
+        Thread.sleep(IndexGenerations.REFRESH_DELAY_MILLIS / 2);
+        IndexGenerations.written(index);
+        Thread.sleep(IndexGenerations.REFRESH_DELAY_MILLIS / 2 + 100);
+        assertEquals(start + 3, IndexGenerations.current(index));
+
+        Thread.sleep(IndexGenerations.REFRESH_DELAY_MILLIS);
+        assertEquals(start + 4, IndexGenerations.current(index));
+    }
+
+    @Test
+    void explicitRefreshMovesOnRightAway() {
+        String index = "index_generations_refresh_test";
+        long start = IndexGenerations.current(index);
+
+        IndexGenerations.refreshed(index);
+
+        assertEquals(start + 1, IndexGenerations.current(index));
+    }
+}
@@ -0,0 +1,119 @@
+package com.alehpranovich;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IndexUtilTest {
+
+    private static final String INDEX = "index_util_test";
+
+    @TempDir
+    Path directory;
+
+    private LocalElasticsearch es;
+    private ElasticsearchClient client;
+
+    private void start(LocalElasticsearch.LocalElasticsearchBuilder builder) throws IOException, GeneralSecurityException {
+        es = builder.build();
+        client = TransportFactory.builder().scheme("http").port(es.getPort()).build().createClient();
+        IndexUtil.createIndexIfNotExists(client, INDEX);
+        IndexUtil.addMapping(client, INDEX);
+        AppendScript.store(client);
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        if (client != null) {
+            client._transport().close();
+            es.close();
+        }
+    }
+
+    @Test
+    void windowsAreAppliedInFileOrder() throws IOException, GeneralSecurityException {
+        start(LocalElasticsearch.builder().rejectFirstRequests(2));
+        Path ratings = write("ratings.csv", "userId,movieId,rating,timestamp\n"
+                + "1,1,4.0,100\n2,1,3.5,101\n1,2,2.0,102\n3,1,5.0,103\n4,2,1.0,104\n");
+        Path tags = write("tags.csv", "userId,movieId,tag,timestamp\n"
+                + "1,1,funny,100\n2,1,classic,101\n3,2,pixar,102\n");
+
+        // every update is a request of its own, several are in flight and the first ones are retried after a 429
+        try (BulkIngester ingester = BulkIngester.builder().client(client).maxOperations(1).maxConcurrentRequests(4)
+                .initialBackoffMillis(1L).build()) {
+            IndexUtil.indexRatings(ingester, ratings, INDEX, 1);
+            IndexUtil.indexTags(ingester, tags, INDEX, 1);
+        }
+
+        ObjectNode first = source("1");
+        assertEquals(Arrays.asList(1L, 2L, 3L), userIds(first, "ratings"));
+        assertEquals(3, first.get("ratingCount").asLong());
+        assertEquals(Arrays.asList(1L, 2L), userIds(first, "tags"));
+        assertFalse(first.has("ratingsOffset"));
+        assertFalse(first.has("tagsOffset"));
+
+        ObjectNode second = source("2");
+        assertEquals(Arrays.asList(1L, 4L), userIds(second, "ratings"));
+        assertEquals(Collections.singletonList(3L), userIds(second, "tags"));
+        assertEquals(2, es.getRejectedRequests());
+    }
+
+    @Test
+    void rowsOfAnotherFileAreAppended() throws IOException, GeneralSecurityException {
+        start(LocalElasticsearch.builder());
+        Path ratings = write("ratings.csv", "userId,movieId,rating,timestamp\n1,1,4.0,100\n2,1,3.5,101\n");
+        // a shorter file, its offsets are below the ones of the first
+        Path nextRatings = write("ratings-2.csv", "userId,movieId,rating,timestamp\n3,1,5.0,102\n");
+
+        try (BulkIngester ingester = BulkIngester.builder().client(client).build()) {
+            IndexUtil.indexRatings(ingester, ratings, INDEX, 1);
+            IndexUtil.indexRatings(ingester, nextRatings, INDEX, 1);
+        }
+
+        ObjectNode movie = source("1");
+        assertEquals(Arrays.asList(1L, 2L, 3L), userIds(movie, "ratings"));
+        assertEquals(3, movie.get("ratingCount").asLong());
+    }
+
+    @Test
+    void versionedIndexNamesAreUniqueAndOrdered() {
+        String previous = IndexUtil.versionedIndexName(INDEX);
+        assertTrue(previous.matches(INDEX + "_\\d{17}"), previous);
+        // far more names than milliseconds pass, each one still sorts after the one before
+        for (int i = 0; i < 10_000; i++) {
+            String name = IndexUtil.versionedIndexName(INDEX);
+            assertTrue(name.compareTo(previous) > 0, name + " after " + previous);
+            previous = name;
+        }
+    }
+
+    private static List<Long> userIds(ObjectNode source, String field) {
+        List<Long> userIds = new ArrayList<>();
+        source.get(field).forEach(row -> userIds.add(row.get("userId").asLong()));
+        return userIds;
+    }
+
+    private ObjectNode source(String id) throws IOException {
+        return client.get(g -> g.index(INDEX).id(id), ObjectNode.class).source();
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.write(directory.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
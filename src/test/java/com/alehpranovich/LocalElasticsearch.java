@@ -0,0 +1,1155 @@
+package com.alehpranovich;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.Builder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * In-process stand-in for the part of the Elasticsearch REST API this project uses, served over plain HTTP on
+ * the loopback interface, so the ingest and {@link SearchClient} run without a cluster:
+ * <ul>
+ * <li>index create, delete (of concrete indices only), exists, {@code _mapping}, {@code _settings}, {@code _refresh}, {@code _forcemerge}
+ * and aliases</li>
+ * <li>{@code _bulk} with {@code index}, {@code create}, {@code update} and {@code delete} operations,
+ * {@code _update} and {@code _doc}</li>
+ * <li>updates with {@code doc} or the stored {@link AppendScript}, emulated in Java, other scripts are rejected</li>
+ * <li>{@code _search} with {@code match_all}, {@code term}, {@code terms}, {@code match},
+ * {@code match_phrase}, {@code match_phrase_prefix}, {@code multi_match}, {@code range}, {@code exists},
+ * {@code nested} and {@code bool} queries, {@code sort}, {@code from}, {@code size} and {@code _source} filtering.
+ * Every hit scores 1, aggregations and point in time searches are rejected.</li>
+ * </ul>
+ * Every request is delayed by {@code latencyMillis} plus {@code latencyMillisPerMb} per MB of request body.
+ * Back pressure is simulated with 429 responses: a share ({@code rejectRate}) of the {@code _bulk} requests,
+ * a share ({@code itemRejectRate}) of the bulk items, and every {@code _bulk} request beyond
+ * {@code maxConcurrentBulkRequests} in flight, like a full write queue. Tests that need a fixed sequence
+ * reject the first {@code rejectFirstRequests} requests and the first {@code rejectFirstItems} items instead.
+ * <pre>
+ * try (LocalElasticsearch es = LocalElasticsearch.builder().latencyMillis(5L).rejectRate(0.01).build()) {
+ *     ElasticsearchClient client = TransportFactory.builder().scheme("http").port(es.getPort()).build().createClient();
+ *     ...
+ * }
+ * </pre>
+ * With {@code keepSources} off only document ids are kept, so the heap holds what the client side uses.
+ * Searches then match documents with {@code match_all} only and return hits without {@code _source}.
+ */
+public class LocalElasticsearch implements AutoCloseable {
+
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final byte[] DROPPED = new byte[0];
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long latencyMillis;
+    private final long latencyMillisPerMb;
+    private final double rejectRate;
+    private final double itemRejectRate;
+    private final Semaphore bulkRequestPermits;
+    private final AtomicInteger requestsToReject;
+    private final AtomicInteger itemsToReject;
+    private final boolean keepSources;
+
+    private final Map<String, Index> indices = new ConcurrentHashMap<>();
+    private final Map<String, String> scripts = new ConcurrentHashMap<>();
+    private final Object aliasLock = new Object();
+
+    private final LongAdder bulkRequests = new LongAdder();
+    private final LongAdder rejectedRequests = new LongAdder();
+    private final LongAdder rejectedItems = new LongAdder();
+
+    /**
+     * @param port                      {@code 0} (default) picks a free one, see {@link #getPort()}
+     * @param maxConcurrentBulkRequests unlimited by default
+     * @param keepSources               on by default
+     */
+    @Builder
+    private LocalElasticsearch(Integer port,
+                               Long latencyMillis,
+                               Long latencyMillisPerMb,
+                               Double rejectRate,
+                               Double itemRejectRate,
+                               Integer maxConcurrentBulkRequests,
+                               Integer rejectFirstRequests,
+                               Integer rejectFirstItems,
+                               Boolean keepSources) throws IOException {
+        this.latencyMillis = latencyMillis != null ? latencyMillis : 0;
+        this.latencyMillisPerMb = latencyMillisPerMb != null ? latencyMillisPerMb : 0;
+        this.rejectRate = rejectRate != null ? rejectRate : 0;
+        this.itemRejectRate = itemRejectRate != null ? itemRejectRate : 0;
+        this.bulkRequestPermits = maxConcurrentBulkRequests != null && maxConcurrentBulkRequests > 0
+                ? new Semaphore(maxConcurrentBulkRequests)
+                : null;
+        this.requestsToReject = new AtomicInteger(rejectFirstRequests != null ? rejectFirstRequests : 0);
+        this.itemsToReject = new AtomicInteger(rejectFirstItems != null ? rejectFirstItems : 0);
+        this.keepSources = keepSources == null || keepSources;
+
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "local-elasticsearch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port != null ? port : 0), 0);
+        this.server.createContext("/", this::handle);
+        this.server.setExecutor(executor);
+        this.server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public long getBulkRequests() {
+        return bulkRequests.sum();
+    }
+
+    /**
+     * Whole {@code _bulk} requests answered with 429.
+     */
+    public long getRejectedRequests() {
+        return rejectedRequests.sum();
+    }
+
+    /**
+     * Bulk items answered with 429.
+     */
+    public long getRejectedItems() {
+        return rejectedItems.sum();
+    }
+
+    /**
+     * @return documents in {@code index} (or the index the alias points to), {@code 0} when there is no such index
+     */
+    public long documentCount(String index) {
+        return resolve(index).stream().mapToLong(i -> i.documents.size()).sum();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        Response response;
+        try {
+            byte[] body = readBody(exchange);
+            response = route(exchange.getRequestMethod(), exchange.getRequestURI().getRawPath(), body);
+        } catch (EsException e) {
+            response = error(e.status, e.type, e.getMessage());
+        } catch (IOException | RuntimeException e) {
+            response = error(400, "parse_exception", e.toString());
+        }
+        try {
+            exchange.getResponseHeaders().add("X-Elastic-Product", "Elasticsearch");
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(response.status, -1);
+            } else {
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(response.status, response.body.length);
+                exchange.getResponseBody().write(response.body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Response route(String method, String rawPath, byte[] body) throws IOException {
+        List<String> path = new ArrayList<>();
+        for (String segment : rawPath.split("/")) {
+            if (!segment.isEmpty()) {
+                path.add(URLDecoder.decode(segment, "UTF-8"));
+            }
+        }
+        String first = path.isEmpty() ? "" : path.get(0);
+        String second = path.size() > 1 ? path.get(1) : null;
+        if (!path.contains("_bulk")) {
+            delay(body.length); // bulk requests are delayed while they hold a write queue slot
+        }
+
+        if (path.isEmpty() && "GET".equals(method)) {
+            return ok(mapper.createObjectNode().put("name", "local").put("cluster_name", "local")
+                    .set("version", mapper.createObjectNode().put("number", "8.5.1")));
+        }
+        if (first.equals("_bulk") && path.size() == 1) {
+            return bulk(null, body);
+        }
+        if (first.equals("_aliases") && path.size() == 1) {
+            return updateAliases(json(body));
+        }
+        if (first.equals("_alias") && path.size() == 2) {
+            return getAlias(second);
+        }
+        if (first.equals("_scripts") && path.size() == 2) {
+            return putScript(method, second, body);
+        }
+        if (first.startsWith("_") || path.size() > 3) {
+            throw new EsException(400, "illegal_argument_exception",
+                    "no handler found for uri [" + rawPath + "] and method [" + method + "] in the local stand-in");
+        }
+        String index = first;
+        if (path.size() == 1) {
+            switch (method) {
+                case "HEAD":
+                    return new Response(resolve(index).isEmpty() ? 404 : 200, new byte[0]);
+                case "PUT":
+                    return createIndex(index, json(body));
+                case "DELETE":
+                    return deleteIndex(index);
+                default:
+                    break;
+            }
+        } else if (path.size() == 2) {
+            switch (second) {
+                case "_bulk":
+                    return bulk(index, body);
+                case "_mapping":
+                    return "GET".equals(method) ? getMapping(index) : putMapping(index, json(body));
+                case "_settings":
+                    return "GET".equals(method) ? getSettings(index) : putSettings(index, json(body));
+                case "_refresh":
+                case "_forcemerge":
+                    return shards(index);
+                case "_search":
+                    return search(index, json(body));
+                default:
+                    break;
+            }
+        } else if ("_doc".equals(second) && "GET".equals(method)) {
+            return getDocument(index, path.get(2));
+        } else if ("_update".equals(second)) {
+            return updateDocument(index, path.get(2), json(body));
+        }
+        throw new EsException(400, "illegal_argument_exception",
+                "no handler found for uri [" + rawPath + "] and method [" + method + "] in the local stand-in");
+    }
+
+    private Response createIndex(String name, JsonNode body) {
+        Index index = new Index(name);
+        if (body.has("settings")) {
+            mergeSettings(index.settings, body.get("settings"));
+        }
+        if (body.has("mappings")) {
+            index.mappings.setAll((ObjectNode) body.get("mappings"));
+        }
+        synchronized (aliasLock) {
+            if (indices.containsKey(name) || isAlias(name)) {
+                throw new EsException(400, "resource_already_exists_exception", "index [" + name + "] already exists");
+            }
+            indices.put(name, index);
+        }
+        return ok(mapper.createObjectNode().put("acknowledged", true).put("shards_acknowledged", true).put("index", name));
+    }
+
+    /**
+     * Like Elasticsearch 8, deleting through an alias is rejected, the concrete indices have to be named.
+     */
+    private Response deleteIndex(String name) {
+        for (String single : name.split(",")) {
+            if (!indices.containsKey(single) && isAlias(single)) {
+                throw new EsException(400, "illegal_argument_exception", "The provided expression [" + single
+                        + "] matches an alias, specify the corresponding concrete indices instead.");
+            }
+        }
+        List<Index> deleted = existing(name);
+        synchronized (aliasLock) {
+            deleted.forEach(index -> indices.remove(index.name));
+        }
+        return acknowledged();
+    }
+
+    private Response putMapping(String name, JsonNode body) {
+        for (Index index : existing(name)) {
+            synchronized (index.mappings) {
+                JsonNode properties = body.get("properties");
+                if (properties != null) {
+                    ObjectNode current = index.mappings.has("properties")
+                            ? (ObjectNode) index.mappings.get("properties")
+                            : index.mappings.putObject("properties");
+                    current.setAll((ObjectNode) properties);
+                }
+            }
+        }
+        return acknowledged();
+    }
+
+    private Response getMapping(String name) {
+        ObjectNode response = mapper.createObjectNode();
+        for (Index index : existing(name)) {
+            synchronized (index.mappings) {
+                response.putObject(index.name).set("mappings", index.mappings.deepCopy());
+            }
+        }
+        return ok(response);
+    }
+
+    private Response putSettings(String name, JsonNode body) {
+        for (Index index : existing(name)) {
+            synchronized (index.settings) {
+                mergeSettings(index.settings, body.has("settings") ? body.get("settings") : body);
+            }
+        }
+        return acknowledged();
+    }
+
+    private Response getSettings(String name) {
+        ObjectNode response = mapper.createObjectNode();
+        for (Index index : existing(name)) {
+            synchronized (index.settings) {
+                response.putObject(index.name).putObject("settings").set("index", index.settings.deepCopy());
+            }
+        }
+        return ok(response);
+    }
+
+    /**
+     * Flattens {@code {"index": {...}}} and {@code "index.x"} keys into the index level settings, values as strings.
+     */
+    private static void mergeSettings(ObjectNode target, JsonNode settings) {
+        for (Iterator<Map.Entry<String, JsonNode>> it = settings.fields(); it.hasNext(); ) {
+            Map.Entry<String, JsonNode> setting = it.next();
+            String key = setting.getKey().startsWith("index.") ? setting.getKey().substring(6) : setting.getKey();
+            if (key.equals("index") && setting.getValue().isObject()) {
+                mergeSettings(target, setting.getValue());
+            } else if (setting.getValue().isValueNode()) {
+                target.put(key, setting.getValue().asText());
+            } else {
+                target.set(key, setting.getValue());
+            }
+        }
+    }
+
+    private Response shards(String name) {
+        int shards = existing(name).stream().mapToInt(Index::numberOfShards).sum();
+        ObjectNode response = mapper.createObjectNode();
+        response.putObject("_shards").put("total", shards).put("successful", shards).put("failed", 0);
+        return ok(response);
+    }
+
+    private Response getAlias(String alias) {
+        ObjectNode response = mapper.createObjectNode();
+        for (Index index : indices.values()) {
+            if (index.aliases.contains(alias)) {
+                response.putObject(index.name).putObject("aliases").putObject(alias);
+            }
+        }
+        if (response.size() == 0) {
+            return new Response(404, bytes(mapper.createObjectNode().put("error", "alias [" + alias + "] missing").put("status", 404)));
+        }
+        return ok(response);
+    }
+
+    /**
+     * Applies all {@code add}, {@code remove} and {@code remove_index} actions at once.
+     */
+    private Response updateAliases(JsonNode body) {
+        synchronized (aliasLock) {
+            for (JsonNode action : body.path("actions")) {
+                String type = action.fieldNames().next();
+                JsonNode params = action.get(type);
+                Index index = indices.get(params.path("index").asText());
+                if (index == null) {
+                    throw new EsException(404, "index_not_found_exception", "no such index [" + params.path("index").asText() + "]");
+                }
+            }
+            for (JsonNode action : body.path("actions")) {
+                String type = action.fieldNames().next();
+                JsonNode params = action.get(type);
+                Index index = indices.get(params.path("index").asText());
+                switch (type) {
+                    case "add":
+                        index.aliases.add(params.path("alias").asText());
+                        break;
+                    case "remove":
+                        index.aliases.remove(params.path("alias").asText());
+                        break;
+                    case "remove_index":
+                        indices.remove(index.name);
+                        break;
+                    default:
+                        throw new EsException(400, "illegal_argument_exception", "unsupported alias action [" + type + "]");
+                }
+            }
+        }
+        return acknowledged();
+    }
+
+    private Response putScript(String method, String id, byte[] body) throws IOException {
+        if ("DELETE".equals(method)) {
+            scripts.remove(id);
+        } else {
+            scripts.put(id, json(body).path("script").path("source").asText());
+        }
+        return acknowledged();
+    }
+
+    private Response bulk(String defaultIndex, byte[] body) throws IOException {
+        bulkRequests.increment();
+        if (bulkRequestPermits != null && !bulkRequestPermits.tryAcquire()) {
+            rejectedRequests.increment();
+            throw new EsException(TOO_MANY_REQUESTS, "es_rejected_execution_exception",
+                    "rejected execution of bulk request, write queue is full");
+        }
+        try {
+            if (requestsToReject.getAndUpdate(n -> Math.max(0, n - 1)) > 0
+                    || rejectRate > 0 && ThreadLocalRandom.current().nextDouble() < rejectRate) {
+                rejectedRequests.increment();
+                throw new EsException(TOO_MANY_REQUESTS, "es_rejected_execution_exception",
+                        "rejected execution of bulk request");
+            }
+            delay(body.length);
+            long start = System.nanoTime();
+            ArrayNode items = mapper.createArrayNode();
+            boolean errors = false;
+            int position = 0;
+            while (position < body.length) {
+                int end = lineEnd(body, position);
+                if (end == position) {
+                    position++;
+                    continue;
+                }
+                JsonNode action = mapper.readTree(body, position, end - position);
+                position = end + 1;
+                String type = action.fieldNames().next();
+                JsonNode meta = action.get(type);
+                String index = meta.has("_index") ? meta.get("_index").asText() : defaultIndex;
+                String id = meta.has("_id") ? meta.get("_id").asText() : null;
+
+                int sourceStart = position;
+                int sourceEnd = position;
+                if (!type.equals("delete")) {
+                    sourceEnd = lineEnd(body, position);
+                    position = sourceEnd + 1;
+                }
+                ObjectNode item;
+                if (itemsToReject.getAndUpdate(n -> Math.max(0, n - 1)) > 0
+                        || itemRejectRate > 0 && ThreadLocalRandom.current().nextDouble() < itemRejectRate) {
+                    rejectedItems.increment();
+                    item = itemError(index, id, TOO_MANY_REQUESTS, "es_rejected_execution_exception",
+                            "rejected execution of bulk item");
+                } else {
+                    try {
+                        item = bulkItem(type, index, id, body, sourceStart, sourceEnd);
+                    } catch (EsException e) {
+                        item = itemError(index, id, e.status, e.type, e.getMessage());
+                    }
+                }
+                errors |= item.has("error");
+                items.addObject().set(type, item);
+            }
+            ObjectNode response = mapper.createObjectNode();
+            response.put("took", (System.nanoTime() - start) / 1_000_000);
+            response.put("errors", errors);
+            response.set("items", items);
+            return ok(response);
+        } finally {
+            if (bulkRequestPermits != null) {
+                bulkRequestPermits.release();
+            }
+        }
+    }
+
+    private ObjectNode bulkItem(String type, String indexName, String id, byte[] body, int sourceStart, int sourceEnd)
+            throws IOException {
+        if (indexName == null) {
+            throw new EsException(400, "action_request_validation_exception", "index is missing");
+        }
+        switch (type) {
+            case "index":
+            case "create": {
+                Index index = writeIndex(indexName);
+                String docId = id != null ? id : UUID.randomUUID().toString();
+                byte[] source = validSource(body, sourceStart, sourceEnd);
+                boolean[] created = new boolean[1];
+                index.documents.compute(docId, (key, existing) -> {
+                    if (existing != null && type.equals("create")) {
+                        throw new EsException(409, "version_conflict_engine_exception",
+                                "[" + docId + "]: version conflict, document already exists");
+                    }
+                    created[0] = existing == null;
+                    return source;
+                });
+                return itemResult(index, docId, created[0] ? "created" : "updated", created[0] ? 201 : 200);
+            }
+            case "update":
+                return update(writeIndex(indexName), id, mapper.readTree(body, sourceStart, sourceEnd - sourceStart));
+            case "delete": {
+                Index index = writeIndex(indexName);
+                boolean deleted = index.documents.remove(id) != null;
+                return itemResult(index, id, deleted ? "deleted" : "not_found", deleted ? 200 : 404);
+            }
+            default:
+                throw new EsException(400, "illegal_argument_exception", "unknown bulk action [" + type + "]");
+        }
+    }
+
+    private Response updateDocument(String indexName, String id, JsonNode body) {
+        ObjectNode result = update(writeIndex(indexName), id, body);
+        int status = result.remove("status").asInt();
+        return new Response(status, bytes(result));
+    }
+
+    /**
+     * {@code doc} merges fields, {@code script} runs the stored {@link AppendScript}. Missing documents are created from
+     * {@code upsert}, with {@code scripted_upsert} the script runs on it, or from {@code doc} with {@code doc_as_upsert}.
+     */
+    private ObjectNode update(Index index, String id, JsonNode body) {
+        String[] result = new String[1];
+        index.documents.compute(id, (key, existing) -> {
+            ObjectNode source;
+            boolean scripted = body.has("script");
+            if (existing != null) {
+                source = existing == DROPPED ? mapper.createObjectNode() : (ObjectNode) json(existing);
+                result[0] = "updated";
+            } else if (body.has("upsert")) {
+                source = body.get("upsert").deepCopy();
+                scripted &= body.path("scripted_upsert").asBoolean(false);
+                result[0] = "created";
+            } else if (body.path("doc_as_upsert").asBoolean(false)) {
+                source = mapper.createObjectNode();
+                result[0] = "created";
+            } else {
+                throw new EsException(404, "document_missing_exception", "[" + id + "]: document missing");
+            }
+            if (scripted) {
+                if (!runScript(body.get("script"), source) && existing != null) {
+                    result[0] = "noop";
+                    return existing;
+                }
+            } else if (body.has("doc")) {
+                source.setAll((ObjectNode) body.get("doc"));
+            }
+            return keepSources ? bytes(source) : DROPPED;
+        });
+        return itemResult(index, id, result[0], result[0].equals("created") ? 201 : 200);
+    }
+
+    /**
+     * Java port of the painless source of {@link AppendScript}.
+     *
+     * @return {@code false} for {@code ctx.op = 'noop'}
+     */
+    private boolean runScript(JsonNode script, ObjectNode source) {
+        String id = script.path("id").asText(null);
+        if (id == null) {
+            throw new EsException(400, "illegal_argument_exception", "inline scripts are not supported by the local stand-in");
+        }
+        if (!scripts.containsKey(id)) {
+            throw new EsException(400, "illegal_argument_exception", "unable to find script [" + id + "] in cluster state");
+        }
+        if (!id.equals(AppendScript.ID)) {
+            throw new EsException(400, "illegal_argument_exception", "only [" + AppendScript.ID + "] is emulated, not [" + id + "]");
+        }
+        JsonNode params = script.path("params");
+        ArrayNode ratings = source.has("ratings") && source.get("ratings").isArray()
+                ? (ArrayNode) source.get("ratings") : source.putArray("ratings");
+        ArrayNode tags = source.has("tags") && source.get("tags").isArray()
+                ? (ArrayNode) source.get("tags") : source.putArray("tags");
+        boolean changed = false;
+
+        if (isNewer(source, params, "ratingsOffset", "ratingsFile")) {
+            if (params.path("ratings").size() > 0) {
+                long count = source.path("ratingCount").asLong(0);
+                double sum = source.path("ratingSum").asDouble(0);
+                if (!source.path("ratingHistogram").isArray()) {
+                    ArrayNode histogram = source.putArray("ratingHistogram");
+                    for (int i = 0; i < MovieAggregates.HISTOGRAM_BUCKETS; i++) {
+                        histogram.add(0);
+                    }
+                }
+                ArrayNode histogram = (ArrayNode) source.get("ratingHistogram");
+                for (JsonNode rating : params.path("ratings")) {
+                    ratings.add(rating);
+                    double value = rating.path("rating").asDouble();
+                    count++;
+                    sum += value;
+                    int bucket = MovieAggregates.bucket(value);
+                    histogram.set(bucket, mapper.getNodeFactory().numberNode(histogram.get(bucket).asLong() + 1));
+                }
+                source.put("ratingCount", count);
+                source.put("ratingSum", sum);
+                source.put("avgRating", sum / count);
+                changed = true;
+            }
+            if (params.hasNonNull("ratingsOffset")) {
+                source.put("ratingsOffset", params.get("ratingsOffset").asLong());
+                source.set("ratingsFile", params.get("ratingsFile"));
+                changed = true;
+            }
+        }
+        if (isNewer(source, params, "tagsOffset", "tagsFile")) {
+            if (params.path("tags").size() > 0) {
+                params.path("tags").forEach(tags::add);
+                MovieAggregates aggregates = new MovieAggregates();
+                tags.forEach(tag -> aggregates.tag(tag.path("tag").asText()));
+                ArrayNode topTags = source.putArray("topTags");
+                aggregates.getTopTags().forEach(topTags::add);
+                changed = true;
+            }
+            if (params.hasNonNull("tagsOffset")) {
+                source.put("tagsOffset", params.get("tagsOffset").asLong());
+                source.set("tagsFile", params.get("tagsFile"));
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static boolean isNewer(ObjectNode source, JsonNode params, String offset, String file) {
+        return !params.hasNonNull(offset) || !source.hasNonNull(offset)
+                || !source.path(file).equals(params.path(file))
+                || source.get(offset).asLong() < params.get(offset).asLong();
+    }
+
+    private Response getDocument(String indexName, String id) {
+        List<Index> resolved = existing(indexName);
+        Index index = resolved.get(0);
+        byte[] source = index.documents.get(id);
+        ObjectNode response = mapper.createObjectNode().put("_index", index.name).put("_id", id);
+        if (source == null) {
+            return new Response(404, bytes(response.put("found", false)));
+        }
+        response.put("_version", 1).put("_seq_no", 0).put("_primary_term", 1).put("found", true);
+        if (source != DROPPED) {
+            response.set("_source", json(source));
+        }
+        return ok(response);
+    }
+
+    private Response search(String indexName, JsonNode body) {
+        for (String unsupported : Arrays.asList("aggs", "aggregations", "pit", "search_after", "scroll")) {
+            if (body.has(unsupported)) {
+                throw new EsException(400, "illegal_argument_exception", "[" + unsupported + "] is not supported by the local stand-in");
+            }
+        }
+        JsonNode query = body.has("query") ? body.get("query") : mapper.createObjectNode().set("match_all", mapper.createObjectNode());
+        List<Hit> hits = new ArrayList<>();
+        for (Index index : existing(indexName)) {
+            for (Map.Entry<String, byte[]> document : index.documents.entrySet()) {
+                JsonNode source = document.getValue() == DROPPED ? null : json(document.getValue());
+                if (source == null ? query.has("match_all") : matches(query, source, "")) {
+                    hits.add(new Hit(index.name, document.getKey(), source));
+                }
+            }
+        }
+        if (body.has("sort")) {
+            hits.sort(sortOrder(body.get("sort")));
+        }
+        int from = body.path("from").asInt(0);
+        int size = body.path("size").asInt(10);
+
+        ArrayNode hitsArray = mapper.createArrayNode();
+        for (Hit hit : hits.subList(Math.min(from, hits.size()), Math.min(from + size, hits.size()))) {
+            ObjectNode node = hitsArray.addObject().put("_index", hit.index).put("_id", hit.id).put("_score", 1.0);
+            if (hit.source != null && body.path("_source").asBoolean(true)) {
+                node.set("_source", filterSource((ObjectNode) hit.source, body.get("_source")));
+            }
+        }
+        ObjectNode response = mapper.createObjectNode();
+        response.put("took", 0).put("timed_out", false);
+        response.putObject("_shards").put("total", 1).put("successful", 1).put("skipped", 0).put("failed", 0);
+        ObjectNode hitsNode = response.putObject("hits");
+        hitsNode.putObject("total").put("value", hits.size()).put("relation", "eq");
+        hitsNode.put("max_score", hits.isEmpty() ? null : 1.0);
+        hitsNode.set("hits", hitsArray);
+        return ok(response);
+    }
+
+    /**
+     * @param prefix path of the nested object {@code source} is, fields of a {@code nested} query are given in full
+     */
+    private boolean matches(JsonNode query, JsonNode source, String prefix) {
+        String type = query.fieldNames().next();
+        JsonNode params = query.get(type);
+        switch (type) {
+            case "match_all":
+                return true;
+            case "bool":
+                return matchesBool(params, source, prefix);
+            case "nested": {
+                String path = params.get("path").asText();
+                for (JsonNode nested : values(source, relative(path, prefix))) {
+                    if (matches(params.get("query"), nested, path + ".")) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            case "multi_match": {
+                for (JsonNode field : params.path("fields")) {
+                    if (matchesText(values(source, relative(field.asText(), prefix)), params.get("query").asText(), "match")) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            default:
+                break;
+        }
+        Map.Entry<String, JsonNode> field = params.fields().next();
+        List<JsonNode> values = values(source, relative(field.getKey(), prefix));
+        JsonNode value = field.getValue();
+        switch (type) {
+            case "term":
+                return containsValue(values, value.isObject() ? value.get("value") : value);
+            case "terms":
+                for (JsonNode term : value) {
+                    if (containsValue(values, term)) {
+                        return true;
+                    }
+                }
+                return false;
+            case "exists":
+                return !values(source, relative(params.get("field").asText(), prefix)).isEmpty();
+            case "range":
+                return matchesRange(values, value);
+            case "match":
+            case "match_phrase":
+            case "match_phrase_prefix":
+                return matchesText(values, value.isObject() ? value.get("query").asText() : value.asText(), type);
+            default:
+                throw new EsException(400, "parsing_exception", "unknown query [" + type + "] in the local stand-in");
+        }
+    }
+
+    private boolean matchesBool(JsonNode bool, JsonNode source, String prefix) {
+        for (String clause : Arrays.asList("must", "filter")) {
+            for (JsonNode query : clauses(bool.get(clause))) {
+                if (!matches(query, source, prefix)) {
+                    return false;
+                }
+            }
+        }
+        for (JsonNode query : clauses(bool.get("must_not"))) {
+            if (matches(query, source, prefix)) {
+                return false;
+            }
+        }
+        List<JsonNode> should = clauses(bool.get("should"));
+        if (should.isEmpty() || bool.has("must") || bool.has("filter")) {
+            return true;
+        }
+        for (JsonNode query : should) {
+            if (matches(query, source, prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<JsonNode> clauses(JsonNode clause) {
+        List<JsonNode> clauses = new ArrayList<>();
+        if (clause == null) {
+            return clauses;
+        }
+        if (clause.isArray()) {
+            clause.forEach(clauses::add);
+        } else {
+            clauses.add(clause);
+        }
+        return clauses;
+    }
+
+    /**
+     * Lowercased tokens split on everything but letters and digits: any token for {@code match},
+     * consecutive tokens for the phrase queries, the last one as a prefix for {@code match_phrase_prefix}.
+     */
+    private static boolean matchesText(List<JsonNode> values, String text, String type) {
+        List<String> query = tokens(text);
+        for (JsonNode value : values) {
+            List<String> tokens = tokens(value.asText());
+            if (type.equals("match")) {
+                for (String token : query) {
+                    if (tokens.contains(token)) {
+                        return true;
+                    }
+                }
+                continue;
+            }
+            for (int start = 0; start + query.size() <= tokens.size(); start++) {
+                boolean phrase = true;
+                for (int i = 0; i < query.size() && phrase; i++) {
+                    String token = tokens.get(start + i);
+                    phrase = i == query.size() - 1 && type.equals("match_phrase_prefix")
+                            ? token.startsWith(query.get(i))
+                            : token.equals(query.get(i));
+                }
+                if (phrase) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static List<String> tokens(String text) {
+        return Arrays.stream(text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+"))
+                .filter(token -> !token.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    private static boolean containsValue(List<JsonNode> values, JsonNode term) {
+        for (JsonNode value : values) {
+            if (value.isNumber() && term.isNumber() ? value.asDouble() == term.asDouble() : value.asText().equals(term.asText())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesRange(List<JsonNode> values, JsonNode range) {
+        for (JsonNode value : values) {
+            double number = value.asDouble();
+            if ((!range.hasNonNull("gte") || number >= range.get("gte").asDouble())
+                    && (!range.hasNonNull("gt") || number > range.get("gt").asDouble())
+                    && (!range.hasNonNull("lte") || number <= range.get("lte").asDouble())
+                    && (!range.hasNonNull("lt") || number < range.get("lt").asDouble())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String relative(String field, String prefix) {
+        return field.startsWith(prefix) ? field.substring(prefix.length()) : field;
+    }
+
+    /**
+     * Values of a dotted path, arrays are flattened, {@code null}s left out.
+     */
+    private static List<JsonNode> values(JsonNode source, String path) {
+        List<JsonNode> current = new ArrayList<>();
+        current.add(source);
+        for (String name : path.split("\\.")) {
+            List<JsonNode> next = new ArrayList<>();
+            for (JsonNode node : current) {
+                for (JsonNode element : node.isArray() ? node : Arrays.asList(node)) {
+                    JsonNode child = element.get(name);
+                    if (child != null && !child.isNull()) {
+                        next.add(child);
+                    }
+                }
+            }
+            current = next;
+        }
+        List<JsonNode> values = new ArrayList<>();
+        for (JsonNode node : current) {
+            if (node.isArray()) {
+                node.forEach(element -> {
+                    if (!element.isNull()) {
+                        values.add(element);
+                    }
+                });
+            } else {
+                values.add(node);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Sorts on the first value of each field, documents without one last. {@code _score} keeps the order.
+     */
+    private static Comparator<Hit> sortOrder(JsonNode sort) {
+        Comparator<Hit> order = (a, b) -> 0;
+        for (JsonNode option : sort.isArray() ? sort : Arrays.asList(sort)) {
+            String field;
+            boolean descending;
+            if (option.isTextual()) {
+                field = option.asText();
+                descending = false;
+            } else {
+                field = option.fieldNames().next();
+                JsonNode params = option.get(field);
+                descending = "desc".equals(params.isTextual() ? params.asText() : params.path("order").asText("asc"));
+            }
+            if (field.startsWith("_")) {
+                continue;
+            }
+            Comparator<Hit> byField = (a, b) -> {
+                JsonNode x = a.source == null ? null : values(a.source, field).stream().findFirst().orElse(null);
+                JsonNode y = b.source == null ? null : values(b.source, field).stream().findFirst().orElse(null);
+                if (x == null || y == null) {
+                    return x == y ? 0 : x == null ? 1 : -1;
+                }
+                int compared = x.isNumber() && y.isNumber()
+                        ? Double.compare(x.asDouble(), y.asDouble())
+                        : x.asText().compareTo(y.asText());
+                return descending ? -compared : compared;
+            };
+            order = order.thenComparing(byField);
+        }
+        return order;
+    }
+
+    /**
+     * Top level fields only: {@code "_source": ["a", "b*"]} or {@code {"includes": [...], "excludes": [...]}}.
+     */
+    private static JsonNode filterSource(ObjectNode source, JsonNode filter) {
+        if (filter == null || filter.isBoolean()) {
+            return source;
+        }
+        List<String> includes = new ArrayList<>();
+        List<String> excludes = new ArrayList<>();
+        if (filter.isObject()) {
+            filter.path("includes").forEach(field -> includes.add(field.asText()));
+            filter.path("excludes").forEach(field -> excludes.add(field.asText()));
+        } else {
+            clauses(filter).forEach(field -> includes.add(field.asText()));
+        }
+        ObjectNode filtered = source.objectNode();
+        for (Iterator<Map.Entry<String, JsonNode>> it = source.fields(); it.hasNext(); ) {
+            Map.Entry<String, JsonNode> field = it.next();
+            if ((includes.isEmpty() || matchesAny(includes, field.getKey())) && !matchesAny(excludes, field.getKey())) {
+                filtered.set(field.getKey(), field.getValue());
+            }
+        }
+        return filtered;
+    }
+
+    private static boolean matchesAny(List<String> patterns, String field) {
+        for (String pattern : patterns) {
+            if (pattern.endsWith("*") ? field.startsWith(pattern.substring(0, pattern.length() - 1)) : pattern.equals(field)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The concrete indices of a comma separated list of index names and aliases.
+     */
+    private List<Index> resolve(String names) {
+        Map<String, Index> resolved = new LinkedHashMap<>();
+        for (String name : names.split(",")) {
+            Index index = indices.get(name);
+            if (index != null) {
+                resolved.put(index.name, index);
+                continue;
+            }
+            for (Index aliased : indices.values()) {
+                if (aliased.aliases.contains(name)) {
+                    resolved.put(aliased.name, aliased);
+                }
+            }
+        }
+        return new ArrayList<>(resolved.values());
+    }
+
+    private List<Index> existing(String names) {
+        List<Index> resolved = resolve(names);
+        if (resolved.isEmpty()) {
+            throw new EsException(404, "index_not_found_exception", "no such index [" + names + "]");
+        }
+        return resolved;
+    }
+
+    /**
+     * The index written to, created on the first write like {@code action.auto_create_index} does.
+     */
+    private Index writeIndex(String name) {
+        List<Index> resolved = resolve(name);
+        if (resolved.size() > 1) {
+            throw new EsException(400, "illegal_argument_exception", "alias [" + name + "] has more than one index");
+        }
+        if (!resolved.isEmpty()) {
+            return resolved.get(0);
+        }
+        synchronized (aliasLock) {
+            return indices.computeIfAbsent(name, Index::new);
+        }
+    }
+
+    private boolean isAlias(String name) {
+        return indices.values().stream().anyMatch(index -> index.aliases.contains(name));
+    }
+
+    /**
+     * Parses only to check that the source is JSON, the bytes are stored as sent.
+     */
+    private byte[] validSource(byte[] body, int start, int end) throws IOException {
+        try (JsonParser parser = mapper.getFactory().createParser(body, start, end - start)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new EsException(400, "mapper_parsing_exception", "failed to parse, document is not an object");
+            }
+            parser.skipChildren();
+        } catch (JsonParseException e) {
+            throw new EsException(400, "mapper_parsing_exception", "failed to parse: " + e.getOriginalMessage());
+        }
+        return keepSources ? Arrays.copyOfRange(body, start, end) : DROPPED;
+    }
+
+    private ObjectNode itemResult(Index index, String id, String result, int status) {
+        ObjectNode item = mapper.createObjectNode();
+        item.put("_index", index.name).put("_id", id).put("_version", 1).put("result", result);
+        item.putObject("_shards").put("total", 1).put("successful", 1).put("failed", 0);
+        item.put("_seq_no", index.seqNo.getAndIncrement()).put("_primary_term", 1).put("status", status);
+        return item;
+    }
+
+    private ObjectNode itemError(String index, String id, int status, String type, String reason) {
+        ObjectNode item = mapper.createObjectNode();
+        item.put("_index", index).put("_id", id).put("status", status);
+        item.putObject("error").put("type", type).put("reason", reason);
+        return item;
+    }
+
+    private Response error(int status, String type, String reason) {
+        ObjectNode response = mapper.createObjectNode();
+        ObjectNode error = response.putObject("error");
+        error.putArray("root_cause").addObject().put("type", type).put("reason", reason);
+        error.put("type", type).put("reason", reason);
+        response.put("status", status);
+        return new Response(status, bytes(response));
+    }
+
+    private Response acknowledged() {
+        return ok(mapper.createObjectNode().put("acknowledged", true));
+    }
+
+    private Response ok(JsonNode body) {
+        return new Response(200, bytes(body));
+    }
+
+    private byte[] bytes(JsonNode node) {
+        try {
+            return mapper.writeValueAsBytes(node);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private JsonNode json(byte[] body) {
+        try {
+            return body.length == 0 ? mapper.createObjectNode() : mapper.readTree(body);
+        } catch (IOException e) {
+            throw new EsException(400, "parse_exception", "request body is not JSON: " + e.getMessage());
+        }
+    }
+
+    private void delay(int bodyBytes) {
+        long millis = latencyMillis + latencyMillisPerMb * bodyBytes / (1024 * 1024);
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Request bodies are gzipped when the client enables compression, see {@link TransportFactory}.
+     */
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            in = new GZIPInputStream(in);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[64 * 1024];
+        int read;
+        while ((read = in.read(chunk)) > 0) {
+            out.write(chunk, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static int lineEnd(byte[] body, int from) {
+        int end = from;
+        while (end < body.length && body[end] != '\n') {
+            end++;
+        }
+        return end;
+    }
+
+    private final class Index {
+        private final String name;
+        private final ConcurrentSkipListMap<String, byte[]> documents = new ConcurrentSkipListMap<>();
+        private final ObjectNode settings = mapper.createObjectNode().put("number_of_shards", "1").put("number_of_replicas", "1");
+        private final ObjectNode mappings = mapper.createObjectNode();
+        private final Set<String> aliases = ConcurrentHashMap.newKeySet();
+        private final AtomicLong seqNo = new AtomicLong();
+
+        private Index(String name) {
+            this.name = name;
+        }
+
+        private int numberOfShards() {
+            synchronized (settings) {
+                return settings.path("number_of_shards").asInt(1);
+            }
+        }
+    }
+
+    private static final class Hit {
+        private final String index;
+        private final String id;
+        private final JsonNode source;
+
+        private Hit(String index, String id, JsonNode source) {
+            this.index = index;
+            this.id = id;
+            this.source = source;
+        }
+    }
+
+    private static final class Response {
+        private final int status;
+        private final byte[] body;
+
+        private Response(int status, byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Answered with an Elasticsearch error body.
+     */
+    private static final class EsException extends RuntimeException {
+        private final int status;
+        private final String type;
+
+        private EsException(int status, String type, String reason) {
+            super(reason);
+            this.status = status;
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.alehpranovich;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static com.alehpranovich.IndexUtil.RESOURCES_PATH;
+
+/**
+ * Runs the ingest of {@link Main} against a {@link LocalElasticsearch} in the same JVM and reports docs/sec,
+ * bulk throughput, 429s and peak heap, so throughput and back pressure changes can be measured without a cluster.
+ * <pre>
+ * mvn test-compile exec:java -Dexec.mainClass=com.alehpranovich.LocalIngestHarness -Dexec.classpathScope=test
+ * </pre>
+ * The {@code INGEST_*} and {@code MOVIELENS_DATA_DIR} variables are read like {@link Main} reads them, the stand-in is
+ * configured with {@code LOCAL_ES_*} ones, see the README. The checkpoint goes to a temporary file unless
+ * {@code INGEST_CHECKPOINT_FILE} is set. Every run but the last one can be treated as JIT warm-up.
+ */
+public class LocalIngestHarness {
+
+    private static final long HEAP_SAMPLE_MILLIS = 10;
+
+    public static void main(String[] args) throws Exception {
+        Path dataDir = Paths.get(Optional.ofNullable(System.getenv("MOVIELENS_DATA_DIR")).orElse(RESOURCES_PATH));
+        String mode = Optional.ofNullable(System.getenv("INGEST_MODE")).orElse("full");
+        int runs = env("LOCAL_INGEST_RUNS", Integer::valueOf, 1);
+        Path checkpointFile = System.getenv("INGEST_CHECKPOINT_FILE") != null
+                ? Paths.get(System.getenv("INGEST_CHECKPOINT_FILE"))
+                : Files.createTempFile("ingest-checkpoint", ".properties");
+        Path snapshotFile = Optional.ofNullable(System.getenv("INGEST_SNAPSHOT_FILE")).map(Paths::get).orElse(null);
+
+        try (LocalElasticsearch es = LocalElasticsearch.builder()
+                .latencyMillis(env("LOCAL_ES_LATENCY_MS", Long::valueOf, 0L))
+                .latencyMillisPerMb(env("LOCAL_ES_LATENCY_MS_PER_MB", Long::valueOf, 0L))
+                .rejectRate(env("LOCAL_ES_REJECT_RATE", Double::valueOf, 0.0))
+                .itemRejectRate(env("LOCAL_ES_ITEM_REJECT_RATE", Double::valueOf, 0.0))
+                .maxConcurrentBulkRequests(env("LOCAL_ES_MAX_CONCURRENT_BULK", Integer::valueOf, 0))
+                .keepSources(env("LOCAL_ES_KEEP_SOURCES", Boolean::valueOf, false))
+                .build()) {
+            ElasticsearchClient client = TransportFactory.builder()
+                    .scheme("http")
+                    .port(es.getPort())
+                    .build()
+                    .createClient();
+            try {
+                for (int run = 1; run <= runs; run++) {
+                    run(client, es, mode, dataDir, checkpointFile, snapshotFile, run);
+                }
+            } finally {
+                client._transport().close();
+            }
+        }
+    }
+
+    private static void run(ElasticsearchClient client, LocalElasticsearch es, String mode, Path dataDir,
+                            Path checkpointFile, Path snapshotFile, int run) throws Exception {
+        IngestMetrics metrics = new IngestMetrics();
+        long bulkRequestsBefore = es.getBulkRequests();
+        long rejectedRequestsBefore = es.getRejectedRequests();
+        long rejectedItemsBefore = es.getRejectedItems();
+        long gcCountBefore = gcCount();
+        long gcMillisBefore = gcMillis();
+
+        try (HeapSampler heap = new HeapSampler()) {
+            long start = System.nanoTime();
+            Main.ingest(client, IngestConfig.fromEnv(), metrics, mode, dataDir, checkpointFile, snapshotFile);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("Run %d (%s): %d docs in %.2f s, %.0f docs/s, %.1f MB/s of bulk bodies%n",
+                    run, mode, metrics.getBulkDocs(), seconds, metrics.getBulkDocs() / seconds,
+                    metrics.getBulkBytes() / seconds / (1024 * 1024));
+            System.out.printf("  bulk requests %d, p50 %.1f ms, p99 %.1f ms, rejections %d, retries %d, failed %d%n",
+                    metrics.getBulkRequests(), metrics.getBulkLatencyP50Millis(), metrics.getBulkLatencyP99Millis(),
+                    metrics.getRejections(), metrics.getRetries(), metrics.getFailedOperations());
+            System.out.printf("  peak heap %d MB (sampled every %d ms), GC %d collections, %d ms%n",
+                    heap.peakBytes() / (1024 * 1024), HEAP_SAMPLE_MILLIS,
+                    gcCount() - gcCountBefore, gcMillis() - gcMillisBefore);
+            System.out.printf("  stand-in: %d bulk requests, %d rejected, %d items rejected, %d documents in %s%n",
+                    es.getBulkRequests() - bulkRequestsBefore, es.getRejectedRequests() - rejectedRequestsBefore,
+                    es.getRejectedItems() - rejectedItemsBefore, es.documentCount(Main.MOVIES_INDEX_NAME),
+                    Main.MOVIES_INDEX_NAME);
+        }
+    }
+
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+    }
+
+    private static long gcMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+    }
+
+    private static <T> T env(String name, Function<String, T> parser, T defaultValue) {
+        String value = System.getenv(name);
+        return value != null ? parser.apply(value) : defaultValue;
+    }
+
+    /**
+     * Largest used heap seen while open. Memory pool peaks are not summed instead,
+     * the pools of a generational collector peak at different times.
+     */
+    private static final class HeapSampler implements AutoCloseable {
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final AtomicLong peak = new AtomicLong();
+        private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "heap-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        private HeapSampler() {
+            scheduler.scheduleAtFixedRate(this::sample, 0, HEAP_SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        private void sample() {
+            peak.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+        }
+
+        private long peakBytes() {
+            sample();
+            return peak.get();
+        }
+
+        @Override
+        public void close() {
+            scheduler.shutdownNow();
+        }
+    }
+}
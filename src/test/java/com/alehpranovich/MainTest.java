@@ -0,0 +1,135 @@
+package com.alehpranovich;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+
+import static com.alehpranovich.Main.MOVIES_INDEX_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Ingest modes of {@link Main} one after the other against {@link LocalElasticsearch}.
+ */
+class MainTest {
+
+    @TempDir
+    Path dataDir;
+
+    private LocalElasticsearch es;
+    private ElasticsearchClient client;
+
+    @BeforeEach
+    void start() throws IOException, GeneralSecurityException {
+        es = LocalElasticsearch.builder().build();
+        client = TransportFactory.builder().scheme("http").port(es.getPort()).build().createClient();
+        write("movies.csv", "movieId,title,genres\n"
+                + "1,Toy Story (1995),Adventure|Animation|Children|Comedy|Fantasy\n"
+                + "2,Jumanji (1995),Adventure|Children|Fantasy\n");
+        write("ratings_10k.csv", "userId,movieId,rating,timestamp\n1,1,4.0,100\n2,2,3.5,101\n");
+        write("tags_10k.csv", "userId,movieId,tag,timestamp\n1,1,pixar,100\n");
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        client._transport().close();
+        es.close();
+    }
+
+    @Test
+    void fullAfterRebuildReplacesTheAlias() throws IOException {
+        ingest("rebuild");
+        assertTrue(client.indices().existsAlias(e -> e.name(MOVIES_INDEX_NAME)).value());
+        assertEquals(2, es.documentCount(MOVIES_INDEX_NAME));
+
+        ingest("full");
+
+        assertFalse(client.indices().existsAlias(e -> e.name(MOVIES_INDEX_NAME)).value());
+        assertEquals(2, es.documentCount(MOVIES_INDEX_NAME));
+
+        ingest("rebuild");
+        assertTrue(client.indices().existsAlias(e -> e.name(MOVIES_INDEX_NAME)).value());
+        assertEquals(2, es.documentCount(MOVIES_INDEX_NAME));
+    }
+
+    @Test
+    void deletingThroughAnAliasIsRejected() throws IOException {
+        ingest("rebuild");
+
+        ElasticsearchException e = assertThrows(ElasticsearchException.class,
+                () -> client.indices().delete(d -> d.index(MOVIES_INDEX_NAME)));
+
+        assertEquals(400, e.status());
+        assertEquals(2, es.documentCount(MOVIES_INDEX_NAME));
+    }
+
+    @Test
+    void incrementalAfterFullFinishesAHalfWrittenLine() throws IOException {
+        append("ratings_10k.csv", "3,1,2.");
+        ingest("full");
+        client.indices().refresh(r -> r.index(MOVIES_INDEX_NAME));
+        assertEquals(1, ratings("1").size());
+
+        append("ratings_10k.csv", "5,100\n");
+        ingest("incremental");
+        client.indices().refresh(r -> r.index(MOVIES_INDEX_NAME));
+
+        assertEquals(2, ratings("1").size());
+        assertEquals(2.5, ratings("1").get(1).get("rating").asDouble());
+    }
+
+    @Test
+    void incrementalAfterSnapshotFinishesAHalfWrittenLine() throws IOException {
+        Path snapshot = dataDir.resolve("movies.snapshot");
+        append("tags_10k.csv", "2,2,cla");
+        ingest("snapshot", snapshot);
+        ingest("full", snapshot);
+        client.indices().refresh(r -> r.index(MOVIES_INDEX_NAME));
+        assertEquals(0, source("2").get("tags").size());
+
+        append("tags_10k.csv", "ssic,101\n");
+        ingest("incremental");
+        client.indices().refresh(r -> r.index(MOVIES_INDEX_NAME));
+
+        assertEquals("classic", source("2").get("tags").get(0).get("tag").asText());
+    }
+
+    private void ingest(String mode) throws IOException {
+        ingest(mode, null);
+    }
+
+    private void ingest(String mode, Path snapshotFile) throws IOException {
+        Main.ingest(client, IngestConfig.builder().build(), new IngestMetrics(), mode, dataDir,
+                dataDir.resolve("checkpoint.properties"), snapshotFile);
+    }
+
+    private ObjectNode source(String id) throws IOException {
+        return client.get(g -> g.index(MOVIES_INDEX_NAME).id(id), ObjectNode.class).source();
+    }
+
+    private JsonNode ratings(String id) throws IOException {
+        return source(id).get("ratings");
+    }
+
+    private void append(String name, String content) throws IOException {
+        Files.write(dataDir.resolve(name), content.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    }
+
+    private void write(String name, String content) throws IOException {
+        Files.write(dataDir.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,186 @@
+package com.alehpranovich;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MappedCsvParserTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void chunksKeepEveryLineInFileOrder() throws IOException {
+        StringBuilder csv = new StringBuilder("userId,movieId,rating,timestamp\n");
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            csv.append(i).append(',').append(i % 7).append(',').append(i % 10 / 2.0).append(',').append(1_000_000 + i).append('\n');
+            expected.add(i + "," + i % 7 + "," + i % 10 / 2.0 + "," + (1_000_000 + i));
+        }
+        Path ratings = write("ratings.csv", csv.toString());
+
+        for (int parallelism : new int[]{1, 3, 8, 64}) {
+            List<Ratings> chunks = MappedCsvParser.parseRatings(ratings, parallelism, Ratings::new);
+            assertEquals(expected, Ratings.rows(chunks), "parallelism " + parallelism);
+        }
+    }
+
+    @Test
+    void windowsSplitTheFileAtLineStarts() throws IOException {
+        Path ratings = write("ratings.csv", "userId,movieId,rating,timestamp\n1,1,4.0,10\n2,1,3.5,11\n3,2,5.0,12\n");
+        long middle = "userId,movieId,rating,timestamp\n1,1,4.0,10\n".length();
+
+        assertEquals(Collections.singletonList("1,1,4.0,10"),
+                Ratings.rows(MappedCsvParser.parseRatings(ratings, 0, middle, 2, Ratings::new)));
+        assertEquals(Arrays.asList("2,1,3.5,11", "3,2,5.0,12"),
+                Ratings.rows(MappedCsvParser.parseRatings(ratings, middle, Files.size(ratings), 2, Ratings::new)));
+    }
+
+    @Test
+    void linesEndCountsLinesAfterTheHeader() throws IOException {
+        Path ratings = write("ratings.csv", "userId,movieId,rating,timestamp\n1,1,4.0,10\n2,1,3.5,11\n3,2,5.0,12");
+
+        assertEquals(43, MappedCsvParser.linesEnd(ratings, 0, 1));
+        assertEquals(54, MappedCsvParser.linesEnd(ratings, 43, 1));
+        assertEquals(Files.size(ratings), MappedCsvParser.linesEnd(ratings, 43, 2));
+        assertEquals(Files.size(ratings), MappedCsvParser.linesEnd(ratings, Files.size(ratings), 1));
+    }
+
+    @Test
+    void quotedFieldsAndCrlf() throws IOException {
+        Path tags = write("tags.csv", "userId,movieId,tag,timestamp\r\n"
+                + "1,2,\"sci-fi, \"\"classic\"\"\",10\r\n"
+                + "3,4,\"\",11\r\n"
+                + "5,6,plain,12\r\n"
+                + "\r\n"
+                + "7,8,\"a\"\"\",13");
+
+        List<Tags> chunks = MappedCsvParser.parseTags(tags, 2, Tags::new);
+
+        assertEquals(Arrays.asList("1,2,sci-fi, \"classic\",10", "3,4,,11", "5,6,plain,12", "7,8,a\",13"), Tags.rows(chunks));
+    }
+
+    @Test
+    void tagIdsComeFromTheDictionary() throws IOException {
+        Path tags = write("tags.csv", "userId,movieId,tag,timestamp\r\n1,2,\"b, \"\"c\"\"\",10\r\n3,4,b,11\r\n5,6,\"b, \"\"c\"\"\",12\r\n");
+        StringDictionary dictionary = new StringDictionary();
+        List<Integer> ids = Collections.synchronizedList(new ArrayList<>());
+
+        MappedCsvParser.parseTags(tags, 0, Files.size(tags), 1, dictionary,
+                () -> (MappedCsvParser.TagIdHandler) (userId, movieId, tagId, timestamp) -> ids.add(tagId));
+
+        assertEquals(Arrays.asList(ids.get(0), ids.get(1), ids.get(0)), ids);
+        assertEquals("b, \"c\"", dictionary.value(ids.get(0)));
+        assertEquals("b", dictionary.value(ids.get(1)));
+    }
+
+    @Test
+    void headerOnlyFile() throws IOException {
+        for (String header : new String[]{"userId,movieId,rating,timestamp\n", "userId,movieId,rating,timestamp\r\n",
+                "userId,movieId,rating,timestamp", ""}) {
+            Path ratings = write("ratings.csv", header);
+            assertEquals(Collections.emptyList(), Ratings.rows(MappedCsvParser.parseRatings(ratings, 4, Ratings::new)));
+        }
+    }
+
+    @Test
+    void decimalsOutsideTheFastPath() throws IOException {
+        Path ratings = write("ratings.csv", "userId,movieId,rating,timestamp\n"
+                + "1,1,-1.5,10\n"
+                + "1,1,2.5e1,10\n"
+                + "1,1,0.12345678901234567891,10\n"
+                + "1,1,.5,10\n"
+                + "1,1,3.,10\n");
+
+        List<Double> values = new ArrayList<>();
+        MappedCsvParser.parseRatings(ratings, 1,
+                () -> (MappedCsvParser.RatingHandler) (userId, movieId, rating, timestamp) -> values.add(rating));
+
+        assertEquals(Arrays.asList(-1.5, 25.0, 0.12345678901234567891, 0.5, 3.0), values);
+    }
+
+    @Test
+    void decimalsMatchParseDouble() throws IOException {
+        Random random = new Random(42);
+        StringBuilder csv = new StringBuilder("userId,movieId,rating,timestamp\n");
+        List<Double> expected = new ArrayList<>();
+        for (String value : new String[]{"7.65892593993", "0.1", "123456789012.345", "9007199254740993", "1.0000000000000001"}) {
+            csv.append("1,1,").append(value).append(",10\n");
+            expected.add(Double.parseDouble(value));
+        }
+        for (int i = 0; i < 100_000; i++) {
+            String fraction = Long.toString(random.nextLong() >>> 1).substring(0, 1 + random.nextInt(15));
+            String value = random.nextInt(1_000_000) + "." + fraction;
+            csv.append("1,1,").append(value).append(",10\n");
+            expected.add(Double.parseDouble(value));
+        }
+        Path ratings = write("ratings.csv", csv.toString());
+
+        List<Double> values = new ArrayList<>();
+        MappedCsvParser.parseRatings(ratings, 1,
+                () -> (MappedCsvParser.RatingHandler) (userId, movieId, rating, timestamp) -> values.add(rating));
+
+        assertEquals(expected, values);
+    }
+
+    @Test
+    void malformedNumbers() throws IOException {
+        Path overflow = write("overflow.csv", "userId,movieId,rating,timestamp\n1,1,4.0,9223372036854775808\n");
+        IOException e = assertThrows(IOException.class, () -> MappedCsvParser.parseRatings(overflow, 1, Ratings::new));
+        assertEquals("number out of range at byte 58 in line starting at byte 32", e.getCause().getMessage());
+
+        Path notADecimal = write("not-a-decimal.csv", "userId,movieId,rating,timestamp\n1,1,four,10\n");
+        e = assertThrows(IOException.class, () -> MappedCsvParser.parseRatings(notADecimal, 1, Ratings::new));
+        assertEquals("decimal number expected at byte 36 in line starting at byte 32", e.getCause().getMessage());
+
+        Path maxValue = write("max-value.csv", "userId,movieId,rating,timestamp\n1,1,4.0,9223372036854775807\n");
+        assertEquals(Collections.singletonList("1,1,4.0," + Long.MAX_VALUE),
+                Ratings.rows(MappedCsvParser.parseRatings(maxValue, 1, Ratings::new)));
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.write(directory.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static final class Ratings implements MappedCsvParser.RatingHandler {
+        private final List<String> rows = new ArrayList<>();
+
+        @Override
+        public void rating(long userId, long movieId, double rating, long timestamp) {
+            rows.add(userId + "," + movieId + "," + rating + "," + timestamp);
+        }
+
+        static List<String> rows(List<Ratings> chunks) {
+            List<String> rows = new ArrayList<>();
+            chunks.forEach(chunk -> rows.addAll(chunk.rows));
+            return rows;
+        }
+    }
+
+    private static final class Tags implements MappedCsvParser.TagHandler {
+        private final List<String> rows = new ArrayList<>();
+
+        @Override
+        public void tag(long userId, long movieId, String tag, long timestamp) {
+            rows.add(userId + "," + movieId + "," + tag + "," + timestamp);
+        }
+
+        static List<String> rows(List<Tags> chunks) {
+            List<String> rows = new ArrayList<>();
+            chunks.forEach(chunk -> rows.addAll(chunk.rows));
+            return rows;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.alehpranovich;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MovieColumnStoreTest {
+
+    @Test
+    void documentsMatchTheMovieObjects() {
+        StringDictionary dictionary = new StringDictionary();
+        MovieColumnStore.Appender rows = new MovieColumnStore.Appender(dictionary);
+        Map<Long, List<Movie.Rating>> ratings = new HashMap<>();
+        Map<Long, List<Movie.Tag>> tags = new HashMap<>();
+        // 3.7 and 1.9 are no multiples of 0.5 and not exact as a float
+        double[] values = {4.0, 3.5, 0.5, 5.0, 2.5, 3.7, 1.9};
+        for (int i = 0; i < values.length; i++) {
+            rows.rating(i, 1, values[i], 0);
+            ratings.computeIfAbsent(1L, id -> new ArrayList<>()).add(new Movie.Rating(1L, (long) i, values[i]));
+        }
+        // a, b and f twice, then c, d and e once: ties keep the order the tags were first seen in
+        String[] movieTags = {"a", "b", "a", "c", "d", "e", "f", "f", "b", "\"quoted\""};
+        for (int i = 0; i < movieTags.length; i++) {
+            long movieId = i % 5 == 4 ? 3 : 1;
+            rows.tag(i, movieId, dictionary.id(movieTags[i]), 0);
+            tags.computeIfAbsent(movieId, id -> new ArrayList<>()).add(new Movie.Tag((long) i, movieId, movieTags[i]));
+        }
+        MovieColumnStore store = MovieColumnStore.merge(Collections.singletonList(rows), dictionary);
+
+        for (long movieId = 1; movieId <= 3; movieId++) {
+            BulkBuffer expected = new BulkBuffer(1024);
+            MovieSerializer.writeMovie(expected, IndexUtil.joinRatingsAndTags(movie(movieId), ratings, tags));
+            BulkBuffer actual = new BulkBuffer(1024);
+            store.document(movie(movieId)).write(actual);
+
+            assertEquals(json(expected), json(actual));
+        }
+    }
+
+    @Test
+    void aggregatesOfOneMovieDoNotLeakIntoTheNext() {
+        StringDictionary dictionary = new StringDictionary();
+        MovieColumnStore.Appender rows = new MovieColumnStore.Appender(dictionary);
+        rows.tag(1, 1, dictionary.id("x"), 0);
+        rows.tag(1, 2, dictionary.id("y"), 0);
+        MovieColumnStore store = MovieColumnStore.merge(Collections.singletonList(rows), dictionary);
+
+        BulkBuffer first = new BulkBuffer(256);
+        store.writeAggregates(1, first);
+        BulkBuffer second = new BulkBuffer(256);
+        store.writeAggregates(2, second);
+
+        assertEquals(",\"ratingCount\":0,\"ratingSum\":0.0,\"ratingHistogram\":[0,0,0,0,0,0,0,0,0,0],\"topTags\":[\"x\"]",
+                json(first));
+        assertEquals(",\"ratingCount\":0,\"ratingSum\":0.0,\"ratingHistogram\":[0,0,0,0,0,0,0,0,0,0],\"topTags\":[\"y\"]",
+                json(second));
+    }
+
+    private static Movie movie(long movieId) {
+        return Movie.builder()
+                .movieId(movieId)
+                .title("Movie " + movieId)
+                .genres(Arrays.asList("Comedy", "Drama"))
+                .build();
+    }
+
+    private static String json(BulkBuffer buffer) {
+        return new String(buffer.bytes(), 0, buffer.size(), StandardCharsets.UTF_8);
+    }
+}
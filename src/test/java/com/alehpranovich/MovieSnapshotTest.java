@@ -0,0 +1,107 @@
+package com.alehpranovich;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MovieSnapshotTest {
+
+    private static final int MOVIES = 40;
+    private static final int RATINGS = 1500;
+    private static final int TAGS = 400;
+    private static final String[] TAG_VALUES = {"funny", "pixar", "classic", "sci-fi, \"\"dark\"\"", "über", "noir"};
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void documentsSurviveMultiPassMerge() throws IOException {
+        StringBuilder movies = new StringBuilder("movieId,title,genres\n");
+        // out of movieId order, the snapshot sorts them
+        for (int i = 0; i < MOVIES; i++) {
+            long movieId = (i * 17) % MOVIES + 1;
+            movies.append(movieId).append(",\"Movie, ").append(movieId).append("\",Comedy|Drama")
+                    .append(movieId % 3 == 0 ? "|Über" : "").append('\n');
+        }
+        StringBuilder ratings = new StringBuilder("userId,movieId,rating,timestamp\n");
+        for (int i = 0; i < RATINGS; i++) {
+            // every seventh rating is no multiple of 0.5 and takes the double fallback
+            double rating = i % 7 == 0 ? 3.7 : (i % 10 + 1) / 2.0;
+            ratings.append(i).append(',').append(i * 7 % 37 + 1).append(',').append(rating)
+                    .append(',').append(i).append('\n');
+        }
+        StringBuilder tags = new StringBuilder("userId,movieId,tag,timestamp\n");
+        for (int i = 0; i < TAGS; i++) {
+            String tag = TAG_VALUES[i * 3 % TAG_VALUES.length];
+            tags.append(i).append(',').append(i * 5 % 31 + 1).append(",\"").append(tag).append("\",").append(i).append('\n');
+        }
+        Path moviesPath = write("movies.csv", movies.toString());
+        Path ratingsPath = write("ratings.csv", ratings.toString());
+        Path tagsPath = write("tags.csv", tags.toString());
+        Path snapshotPath = directory.resolve("movies.snapshot");
+
+        // chunks of two rows spill hundreds of runs, more than one merge pass can open
+        IngestConfig config = IngestConfig.builder().spillRows(4).parseThreads(2).build();
+        MovieSnapshot.write(moviesPath, ratingsPath, tagsPath, snapshotPath, config, new IngestMetrics());
+
+        assertEquals(expected(moviesPath, ratingsPath, tagsPath), documents(snapshotPath));
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(4, files.count(), "spilled runs are deleted");
+        }
+    }
+
+    private static List<String> expected(Path moviesPath, Path ratingsPath, Path tagsPath) throws IOException {
+        // the object path, so ratings narrowed anywhere on the snapshot path show up
+        Map<Long, List<Movie.Rating>> ratings = IndexUtil.readRatings(ratingsPath);
+        Map<Long, List<Movie.Tag>> tags = IndexUtil.readTags(tagsPath);
+        StringDictionary genres = new StringDictionary();
+        List<Movie> movies;
+        try (Stream<Movie.MovieRaw> moviesRaw = IndexUtil.streamCSVFile(moviesPath, Movie.MovieRaw.class)) {
+            movies = moviesRaw.map(movieRaw -> Movie.fromRaw(movieRaw, genres))
+                    .sorted((a, b) -> Long.compare(a.getMovieId(), b.getMovieId()))
+                    .collect(Collectors.toList());
+        }
+        List<String> documents = new ArrayList<>();
+        for (Movie movie : movies) {
+            BulkBuffer out = new BulkBuffer(4096);
+            MovieSerializer.writeMovie(out, IndexUtil.joinRatingsAndTags(movie, ratings, tags));
+            documents.add(new String(out.bytes(), 0, out.size(), StandardCharsets.UTF_8));
+        }
+        return documents;
+    }
+
+    private static List<String> documents(Path snapshotPath) throws IOException {
+        List<String> documents = new ArrayList<>();
+        try (MovieSnapshot snapshot = MovieSnapshot.open(snapshotPath)) {
+            assertEquals(MOVIES, snapshot.movieCount());
+            for (int i = 0; i < snapshot.blockCount(); i++) {
+                MovieSnapshot.Block block = snapshot.block(i);
+                for (Movie movie : block.movies()) {
+                    documents.add(json(block.store().document(movie)));
+                }
+            }
+        }
+        return documents;
+    }
+
+    private static String json(BulkIngester.DocumentWriter document) {
+        BulkBuffer out = new BulkBuffer(4096);
+        document.write(out);
+        return new String(out.bytes(), 0, out.size(), StandardCharsets.UTF_8);
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.write(directory.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
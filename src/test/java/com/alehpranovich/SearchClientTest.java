@@ -0,0 +1,34 @@
+package com.alehpranovich;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SearchClientTest {
+
+    @Test
+    void findByEmptyMovieIdsSendsNoRequest() throws IOException, GeneralSecurityException, ExecutionException,
+            InterruptedException {
+        int closedPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            closedPort = socket.getLocalPort();
+        }
+        // any request would fail, nothing listens on the port
+        ElasticsearchClient client = TransportFactory.builder().scheme("http").port(closedPort).build().createClient();
+        try {
+            SearchClient search = new SearchClient(client);
+
+            assertEquals(Collections.emptyList(), search.findByMovieIds("movies", Collections.emptyList()));
+            assertEquals(Collections.emptyList(), search.findByMovieIdsAsync("movies", Collections.emptyList()).get());
+        } finally {
+            client._transport().close();
+        }
+    }
+}
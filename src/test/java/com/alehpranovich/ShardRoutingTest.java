@@ -0,0 +1,53 @@
+package com.alehpranovich;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Expected values were computed with {@code Murmur3HashFunction} and {@code IndexRouting} of the Elasticsearch 8.5.1
+ * server, routing shards from {@code MetadataCreateIndexService.calculateNumRoutingShards}.
+ */
+class ShardRoutingTest {
+
+    private static final String[] IDS = {"1", "2", "296", "1000", "193609", "abc", "é"};
+
+    @Test
+    void hashMatchesMurmur3HashFunction() {
+        int[] expected = {-126235597, -303927213, -1639735242, 12487563, 174725517, 1118836419, 1105794559};
+        for (int i = 0; i < IDS.length; i++) {
+            assertEquals(expected[i], ShardRouting.hash(IDS[i]), IDS[i]);
+        }
+    }
+
+    @Test
+    void defaultRoutingShardsMatchElasticsearch() {
+        assertEquals(1024, ShardRouting.defaultRoutingNumShards(1));
+        assertEquals(1024, ShardRouting.defaultRoutingNumShards(2));
+        assertEquals(768, ShardRouting.defaultRoutingNumShards(3));
+        assertEquals(640, ShardRouting.defaultRoutingNumShards(5));
+        assertEquals(1024, ShardRouting.defaultRoutingNumShards(8));
+        assertEquals(768, ShardRouting.defaultRoutingNumShards(12));
+    }
+
+    @Test
+    void shardIdsMatchIndexRouting() {
+        assertArrayEquals(new int[]{0, 0, 0, 0, 0, 0, 0}, shardIds(ShardRouting.of(1)));
+        assertArrayEquals(new int[]{0, 0, 0, 1, 0, 1, 0}, shardIds(ShardRouting.of(2)));
+        assertArrayEquals(new int[]{2, 1, 0, 2, 0, 0, 1}, shardIds(ShardRouting.of(3)));
+        assertArrayEquals(new int[]{4, 3, 3, 4, 3, 4, 4}, shardIds(ShardRouting.of(5)));
+        assertArrayEquals(new int[]{0, 0, 0, 7, 3, 5, 3}, shardIds(ShardRouting.of(8)));
+        assertArrayEquals(new int[]{8, 5, 0, 10, 2, 3, 7}, shardIds(ShardRouting.of(12)));
+        assertArrayEquals(new int[]{0, 3, 4, 0, 4, 2, 4}, shardIds(ShardRouting.of(5, 40)));
+        assertArrayEquals(new int[]{0, 0, 0, 0, 0, 0, 0}, shardIds(ShardRouting.of(1, 1)));
+    }
+
+    private static int[] shardIds(ShardRouting routing) {
+        int[] shards = new int[IDS.length];
+        for (int i = 0; i < IDS.length; i++) {
+            shards[i] = routing.shardId(IDS[i]);
+        }
+        return shards;
+    }
+}
@@ -0,0 +1,102 @@
+package com.alehpranovich;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class StringDictionaryTest {
+
+    private static final int THREADS = 8;
+    // far more than the initial 64 entries, the table grows several times while the threads add values
+    private static final int VALUES = 5_000;
+
+    @Test
+    void concurrentInternAcrossGrow() throws Exception {
+        StringDictionary dictionary = new StringDictionary();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<int[]>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                results.add(executor.submit(() -> {
+                    start.await();
+                    // every thread adds all values, each starting at a different one so they overlap
+                    int[] ids = new int[VALUES];
+                    for (int i = 0; i < VALUES; i++) {
+                        int value = (i + thread * VALUES / THREADS) % VALUES;
+                        ids[value] = intern(dictionary, value, thread);
+                    }
+                    return ids;
+                }));
+            }
+            start.countDown();
+
+            int[] expected = results.get(0).get();
+            for (Future<int[]> result : results) {
+                assertArrayEquals(expected, result.get());
+            }
+            assertEquals(VALUES, dictionary.size());
+            Set<Integer> unique = new HashSet<>();
+            for (int value = 0; value < VALUES; value++) {
+                int id = expected[value];
+                unique.add(id);
+                assertEquals(value(value), dictionary.value(id));
+                assertArrayEquals(("\"" + value(value).replace("\"", "\\\"") + "\"").getBytes(StandardCharsets.UTF_8),
+                        dictionary.json(id));
+            }
+            assertEquals(VALUES, unique.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void splitReusesValues() {
+        StringDictionary dictionary = new StringDictionary();
+
+        List<String> first = dictionary.split("Adventure|Comedy|Über", '|');
+        List<String> second = dictionary.split("Comedy|Adventure", '|');
+
+        assertEquals(Arrays.asList("Adventure", "Comedy", "Über"), first);
+        assertEquals(Arrays.asList("Comedy", "Adventure"), second);
+        assertEquals(3, dictionary.size());
+        BulkBuffer out = new BulkBuffer(64);
+        ((StringDictionary.Values) second).writeJson(out);
+        assertEquals("[\"Comedy\",\"Adventure\"]", new String(out.bytes(), 0, out.size(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Looks a value up the ways the parsers do, by its bytes, a part of a line or a {@link String}.
+     */
+    private static int intern(StringDictionary dictionary, int value, int thread) {
+        String string = value(value);
+        switch (thread % 3) {
+            case 0:
+                byte[] line = ("x," + string + ",y").getBytes(StandardCharsets.UTF_8);
+                return dictionary.id(line, 2, line.length - 4);
+            case 1:
+                String genres = "x|" + string + "|y";
+                return dictionary.id(genres, 2, genres.length() - 2);
+            default:
+                return dictionary.id(string);
+        }
+    }
+
+    private static String value(int value) {
+        // some values need escaping or are not ASCII
+        return value % 10 == 0 ? "tag \"" + value + "\"" : value % 10 == 1 ? "tag é" + value : "tag " + value;
+    }
+}